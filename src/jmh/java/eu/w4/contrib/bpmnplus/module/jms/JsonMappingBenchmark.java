@@ -0,0 +1,138 @@
+package eu.w4.contrib.bpmnplus.module.jms;
+
+import eu.w4.contrib.bpmnplus.module.jms.benchmark.Stubs;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ContentDecoder;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ObjectToMapConverterCache;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.StreamingJsonMessageConverter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import javax.jms.TextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jms.support.converter.MessageConverter;
+
+/**
+ * Benchmarks of the 'json' mapping : JSON text message to DTO, then DTO to map (data entry),
+ * and of the 'json_stream' mapping : JSON text message straight to data entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonMappingBenchmark {
+
+  MessageConverter converter;
+  MessageConverter streamingConverter;
+  MessageConverter streamingMappedConverter;
+  ObjectToMapConverterCache converterCache;
+  TextMessage message;
+
+  @Setup
+  public void setUp() {
+    // Converter of the endpoints (default payload.max_size : 10 MB)
+    converter = ApplicationConfig.createJsonMessageConverter(new ContentDecoder(10 * 1024 * 1024));
+    converterCache = new ObjectToMapConverterCache();
+    streamingConverter = new StreamingJsonMessageConverter();
+    streamingMappedConverter = new StreamingJsonMessageConverter(new HashSet<String>(Arrays.asList("reference", "amount")));
+
+    Map<String, Object> answers = new HashMap<String, Object>();
+    answers.put("getStringProperty", Order.class.getName());
+    answers.put("getText", "{\"reference\":\"REF-0001\",\"amount\":42,\"lines\":[\"A\",\"B\",\"C\"],"
+            + "\"customer\":{\"name\":\"Jane Doe\",\"email\":\"jane.doe@w4.eu\"}}");
+    message = Stubs.stub(TextMessage.class, answers);
+  }
+
+  @Benchmark
+  public Object fromMessage() throws JMSException {
+    return converter.fromMessage(message);
+  }
+
+  @Benchmark
+  public Map<String, Object> fromMessageToMap() throws JMSException {
+    return converterCache.convert(converter.fromMessage(message));
+  }
+
+  @Benchmark
+  public Object streamingFromMessage() throws JMSException {
+    return streamingConverter.fromMessage(message);
+  }
+
+  @Benchmark
+  public Object streamingMappedFromMessage() throws JMSException {
+    return streamingMappedConverter.fromMessage(message);
+  }
+
+  public static class Order {
+    private String reference;
+    private int amount;
+    private String[] lines;
+    private Customer customer;
+
+    public String getReference() {
+      return reference;
+    }
+
+    public void setReference(String reference) {
+      this.reference = reference;
+    }
+
+    public int getAmount() {
+      return amount;
+    }
+
+    public void setAmount(int amount) {
+      this.amount = amount;
+    }
+
+    public String[] getLines() {
+      return lines;
+    }
+
+    public void setLines(String[] lines) {
+      this.lines = lines;
+    }
+
+    public Customer getCustomer() {
+      return customer;
+    }
+
+    public void setCustomer(Customer customer) {
+      this.customer = customer;
+    }
+  }
+
+  public static class Customer {
+    private String name;
+    private String email;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public String getEmail() {
+      return email;
+    }
+
+    public void setEmail(String email) {
+      this.email = email;
+    }
+  }
+}
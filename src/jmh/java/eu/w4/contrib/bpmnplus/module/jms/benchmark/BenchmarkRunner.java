@@ -0,0 +1,31 @@
+package eu.w4.contrib.bpmnplus.module.jms.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the module benchmarks with GC/allocation profiling.
+ * Arguments are standard JMH command line options (eg. a regexp of the benchmarks to run).
+ * <pre>mvn -Pbenchmark test-compile exec:exec [-Dbenchmark.args="Handling -f 2"]</pre>
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+    OptionsBuilder builder = new OptionsBuilder();
+    builder.parent(commandLineOptions);
+    if (commandLineOptions.getIncludes().isEmpty()) {
+      builder.include("eu\\.w4\\.contrib\\.bpmnplus\\.module\\.jms\\..*Benchmark.*");
+    }
+    Options options = builder.addProfiler(GCProfiler.class).build();
+
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,110 @@
+package eu.w4.contrib.bpmnplus.module.jms.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Allocation free stubs of the engine client interfaces used by the benchmarks.
+ * Unlike mocks, stubs do not record invocations : memory stays flat whatever the number of calls.
+ * <ul>
+ * <li>methods with a configured answer (by method name) return it</li>
+ * <li>methods returning an interface return a (cached) stub of this interface</li>
+ * <li>others return null (or the default value of primitives)</li>
+ * </ul>
+ */
+public final class Stubs implements InvocationHandler {
+
+  private final Map<String, Object> answers;
+  private final ConcurrentMap<Method, Object> children = new ConcurrentHashMap<Method, Object>();
+
+  private Stubs(Map<String, Object> answers) {
+    this.answers = answers;
+  }
+
+  /**
+   * Create a stub of an interface
+   * @param <T> type of the stub
+   * @param type interface to stub
+   * @return T stub
+   */
+  public static <T> T stub(Class<T> type) {
+    return stub(type, Collections.<String, Object>emptyMap());
+  }
+
+  /**
+   * Create a stub of an interface
+   * @param <T> type of the stub
+   * @param type interface to stub
+   * @param answers answers by method name, applied to the stub and to all the stubs it returns
+   * @return T stub
+   */
+  public static <T> T stub(Class<T> type, Map<String, Object> answers) {
+    return type.cast(newProxy(type, new Stubs(answers)));
+  }
+
+  private static Object newProxy(Class<?> type, Stubs handler) {
+    return Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, handler);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    if (method.getDeclaringClass() == Object.class) {
+      if ("equals".equals(name)) {
+        return proxy == args[0];
+      }
+      if ("hashCode".equals(name)) {
+        return System.identityHashCode(proxy);
+      }
+      return "Stub of " + proxy.getClass().getInterfaces()[0].getName();
+    }
+
+    if (answers.containsKey(name)) {
+      return answers.get(name);
+    }
+
+    Class<?> returnType = method.getReturnType();
+    if (returnType.isInterface()) {
+      Object child = children.get(method);
+      if (child == null) {
+        child = newProxy(returnType, new Stubs(answers));
+        Object existing = children.putIfAbsent(method, child);
+        if (existing != null) {
+          child = existing;
+        }
+      }
+      return child;
+    }
+    if (returnType == boolean.class) {
+      return Boolean.FALSE;
+    }
+    if (returnType.isPrimitive() && returnType != void.class) {
+      return returnType == char.class ? Character.valueOf((char) 0) : defaultNumber(returnType);
+    }
+    return null;
+  }
+
+  private static Object defaultNumber(Class<?> type) {
+    if (type == long.class) {
+      return 0L;
+    }
+    if (type == double.class) {
+      return 0d;
+    }
+    if (type == float.class) {
+      return 0f;
+    }
+    if (type == short.class) {
+      return (short) 0;
+    }
+    if (type == byte.class) {
+      return (byte) 0;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,50 @@
+package eu.w4.contrib.bpmnplus.module.jms.deduplication;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the duplicate check of a full store : new keys (Bloom filter) and duplicates (LRU lookup).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeduplicationStoreBenchmark {
+
+  private static final int CAPACITY = 100000;
+
+  DeduplicationStore store;
+
+  @Setup
+  public void setUp() throws Exception {
+    store = new DeduplicationStore(CAPACITY);
+    for (int i = 0; i < CAPACITY; i++) {
+      store.add("ID:broker-1234-" + i);
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean containsNewKey() {
+    return store.contains("ID:broker-5678-42");
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean containsDuplicate() {
+    return store.contains("ID:broker-1234-42");
+  }
+}
@@ -0,0 +1,58 @@
+package eu.w4.contrib.bpmnplus.module.jms.identification;
+
+import eu.w4.contrib.bpmnplus.module.jms.benchmark.Stubs;
+import eu.w4.engine.client.EnginePrincipalState;
+import eu.w4.engine.client.service.EngineService;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the login of a shared user by concurrent consumers, with and without principal lease.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionManagerBenchmark {
+
+  // Principal lease time (s), 0 to validate the principal against the engine on each login
+  @Param({"0", "30"})
+  long leaseTime;
+
+  ConnectionManager connectionManager;
+  User user;
+
+  @Setup
+  public void setUp() throws Exception {
+    Map<String, Object> answers = new HashMap<String, Object>();
+    answers.put("getEnginePrincipalState", EnginePrincipalState.VALID);
+
+    connectionManager = new ConnectionManager(Stubs.stub(EngineService.class, answers));
+    connectionManager.setLeaseTime(leaseTime);
+
+    user = new User("login");
+    user.setPassword("password");
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Principal loginUnderContention() {
+    return connectionManager.login(user);
+  }
+}
@@ -0,0 +1,191 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener;
+
+import eu.w4.contrib.bpmnplus.module.jms.benchmark.Stubs;
+import eu.w4.contrib.bpmnplus.module.jms.configuration.BpmnAction;
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ObjectToMapConverterCache;
+import eu.w4.engine.client.EnginePrincipalState;
+import eu.w4.engine.client.service.EngineService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Benchmarks of the message handling hot path of the listeners, the engine being stubbed :
+ * end to end handling and its parts (payload mapping, object to map conversion).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageHandlingBenchmark {
+
+  AbstractW4MessageListener singleEntryListener;
+  AbstractW4MessageListener mappedListener;
+  AbstractW4MessageListener nestedListener;
+
+  Message<String> textMessage;
+  Message<Order> objectMessage;
+  Message<Map<String, Object>> mapMessage;
+
+  @Setup
+  public void setUp() throws Exception {
+    Map<String, Object> answers = new HashMap<String, Object>();
+    answers.put("getEnginePrincipalState", EnginePrincipalState.VALID);
+    EngineService engineService = Stubs.stub(EngineService.class, answers);
+
+    MessageListenerFactory listenerFactory = new MessageListenerFactory();
+    listenerFactory.setEngineService(engineService);
+    listenerFactory.connectionManager = new ConnectionManager(engineService);
+    listenerFactory.converterCache = new ObjectToMapConverterCache();
+
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("processIdentifier", "process");
+    properties.put("dataEntryId", "payload");
+    singleEntryListener = listenerFactory.getListener(BpmnAction.INSTANTIATE, "login", "password", "definitions", properties);
+
+    properties.remove("dataEntryId");
+    mappedListener = listenerFactory.getListener(BpmnAction.INSTANTIATE, "login", "password", "definitions", properties);
+    mappedListener.addDataEntryMapping("reference", "orderReference");
+    mappedListener.addDataEntryMapping("amount", "orderAmount");
+    mappedListener.addDataEntryMapping("customer", "customerName");
+
+    properties.put("dataEntries", "reference:orderReference, customer.name:customerName, customer.email:customerEmail");
+    nestedListener = listenerFactory.getListener(BpmnAction.INSTANTIATE, "login", "password", "definitions", properties);
+
+    textMessage = MessageBuilder.withPayload("{\"reference\":\"REF-0001\",\"amount\":42}").build();
+    objectMessage = MessageBuilder.withPayload(new Order("REF-0001", 42, new Customer("Jane Doe", "jane.doe@w4.eu"))).build();
+
+    Map<String, Object> payload = new HashMap<String, Object>();
+    payload.put("reference", "REF-0001");
+    payload.put("amount", 42);
+    payload.put("customer", "Jane Doe");
+    payload.put("ignored", "not mapped");
+    mapMessage = MessageBuilder.withPayload(payload).build();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    singleEntryListener.destroy();
+    mappedListener.destroy();
+    nestedListener.destroy();
+  }
+
+  @Benchmark
+  public String handleText() {
+    return singleEntryListener.handle(textMessage, null, null);
+  }
+
+  @Benchmark
+  public String handleObject() {
+    return singleEntryListener.handle(objectMessage, null, null);
+  }
+
+  @Benchmark
+  public String handleMapped() {
+    return mappedListener.handle(mapMessage, null, null);
+  }
+
+  @Benchmark
+  public Map<String, Object> mapPayloadSingleEntry() {
+    return singleEntryListener.mapPayloadToData(objectMessage.getPayload());
+  }
+
+  @Benchmark
+  public Map<String, Object> mapPayloadMapped() {
+    return mappedListener.mapPayloadToData(mapMessage.getPayload());
+  }
+
+  @Benchmark
+  public Map<String, Object> mapPayloadNestedPaths() {
+    return nestedListener.mapPayloadToData(objectMessage.getPayload());
+  }
+
+  @Benchmark
+  public Map<String, Object> convertObjectToMap() {
+    return singleEntryListener.convertObjectToMap(objectMessage.getPayload());
+  }
+
+  public static class Order {
+    private String reference;
+    private int amount;
+    private Customer customer;
+
+    public Order() {
+    }
+
+    public Order(String reference, int amount, Customer customer) {
+      this.reference = reference;
+      this.amount = amount;
+      this.customer = customer;
+    }
+
+    public String getReference() {
+      return reference;
+    }
+
+    public void setReference(String reference) {
+      this.reference = reference;
+    }
+
+    public int getAmount() {
+      return amount;
+    }
+
+    public void setAmount(int amount) {
+      this.amount = amount;
+    }
+
+    public Customer getCustomer() {
+      return customer;
+    }
+
+    public void setCustomer(Customer customer) {
+      this.customer = customer;
+    }
+  }
+
+  public static class Customer {
+    private String name;
+    private String email;
+
+    public Customer() {
+    }
+
+    public Customer(String name, String email) {
+      this.name = name;
+      this.email = email;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public String getEmail() {
+      return email;
+    }
+
+    public void setEmail(String email) {
+      this.email = email;
+    }
+  }
+}
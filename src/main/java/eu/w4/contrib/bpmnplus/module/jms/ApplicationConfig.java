@@ -1,33 +1,81 @@
 package eu.w4.contrib.bpmnplus.module.jms;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import eu.w4.contrib.bpmnplus.module.jms.audit.MessageAudit;
+import eu.w4.contrib.bpmnplus.module.jms.circuitbreaker.EngineCircuitBreaker;
 import eu.w4.contrib.bpmnplus.module.jms.configuration.BpmnAction;
+import eu.w4.contrib.bpmnplus.module.jms.deduplication.DeduplicationStore;
 import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
 import eu.w4.contrib.bpmnplus.module.jms.listener.AbstractW4MessageListener;
 import eu.w4.contrib.bpmnplus.module.jms.listener.MessageListenerFactory;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.JmxAwareJmsListenerContainerFactory;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.PreparingMessageListener;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.W4JmsListenerEndpoint;
+import eu.w4.contrib.bpmnplus.module.jms.listener.routing.MessageSelector;
+import eu.w4.contrib.bpmnplus.module.jms.listener.routing.RoutingMessageListener;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ContentDecoder;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.DecodingJackson2MessageConverter;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.JmsPayloadReader;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.NativePayloadMessageConverter;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.StreamingJsonMessageConverter;
+import eu.w4.contrib.bpmnplus.module.jms.metrics.EndpointMetrics;
+import eu.w4.contrib.bpmnplus.module.jms.reply.ReplySender;
+import eu.w4.contrib.bpmnplus.module.jms.spool.MessageSpool;
+import eu.w4.contrib.bpmnplus.module.jms.startup.StartupCoordinator;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Resource;
 import javax.inject.Inject;
+import javax.jms.JMSException;
 import javax.jms.Session;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.text.WordUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.jms.annotation.EnableJms;
 import org.springframework.jms.annotation.JmsListenerConfigurer;
 import org.springframework.jms.config.JmsListenerEndpoint;
 import org.springframework.jms.config.JmsListenerEndpointRegistrar;
-import org.springframework.jms.config.SimpleJmsListenerEndpoint;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jms.listener.MessageListenerContainer;
 import org.springframework.jms.listener.adapter.AbstractAdaptableMessageListener;
 import org.springframework.jms.listener.adapter.MessagingMessageListenerAdapter;
 import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
 import org.springframework.messaging.handler.invocation.InvocableHandlerMethod;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.ReflectionUtils;
 
 /**
@@ -36,7 +84,7 @@ import org.springframework.util.ReflectionUtils;
 @EnableJms
 @Configuration
 //@PropertySource(value = "classpath:configuration.properties", ignoreResourceNotFound = true)
-public class ApplicationConfig implements JmsListenerConfigurer {
+public class ApplicationConfig implements JmsListenerConfigurer, DisposableBean {
   
   private static final Logger logger = LogManager.getLogger();
 
@@ -48,13 +96,47 @@ public class ApplicationConfig implements JmsListenerConfigurer {
   private static final String CONFIGURATION_KEY_JMS_ENDPOINTS = "module.jms.endpoints";
   private static final String CONFIGURATION_KEY_JMS_LOGIN = "module.jms.principal.login";
   private static final String CONFIGURATION_KEY_JMS_PASSWORD = "module.jms.principal.password";
+  private static final String CONFIGURATION_KEY_JMS_ROUTING_SHARED_DESTINATIONS = "module.jms.routing.shared_destinations";
+  private static final String CONFIGURATION_KEY_JMS_CONFIGURATION_RELOAD_INTERVAL = "module.jms.configuration.reload_interval";
+  private static final String CONFIGURATION_KEY_JMS_STARTUP_INIT_PARALLELISM = "module.jms.startup.init_parallelism";
+  private static final String CONFIGURATION_KEY_JMS_AUDIT_SAMPLING = "module.jms.audit.sampling";
+  private static final String CONFIGURATION_KEY_JMS_AUDIT_PAYLOAD_LENGTH = "module.jms.audit.payload_length";
   
   //private static final String PROPERTY_JMS_ENDPOINT_PREFIX = "module.jms.endpoint";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_PREFIX = "module.jms.endpoint.%s.";
+  private static final String ENDPOINT_DESTINATION_SUFFIX = "destination";
   private static final String CONFIGURATION_KEY_JMS_ENDPOINT_DESTINATION = "module.jms.endpoint.%s.destination";
   private static final String CONFIGURATION_KEY_JMS_ENDPOINT_SELECTOR = "module.jms.endpoint.%s.selector";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_ROUTING_FALLBACK = "module.jms.endpoint.%s.routing.fallback";
   private static final String CONFIGURATION_KEY_JMS_ENDPOINT_LOGIN = "module.jms.endpoint.%s.principal.login";
   private static final String CONFIGURATION_KEY_JMS_ENDPOINT_PASSWORD = "module.jms.endpoint.%s.principal.password";
   private static final String CONFIGURATION_KEY_JMS_ENDPOINT_MAPPING = "module.jms.endpoint.%s.mapping";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_BATCH_SIZE = "module.jms.endpoint.%s.batch.size";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_BATCH_TIMEOUT = "module.jms.endpoint.%s.batch.timeout";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_PIPELINE_WORKERS = "module.jms.endpoint.%s.pipeline.workers";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_PIPELINE_QUEUE_CAPACITY = "module.jms.endpoint.%s.pipeline.queue_capacity";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_ORDERING_LANES = "module.jms.endpoint.%s.ordering.lanes";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_ORDERING_KEY = "module.jms.endpoint.%s.ordering.key";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_RATE_LIMIT = "module.jms.endpoint.%s.rate_limit";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_RATE_LIMIT_BURST = "module.jms.endpoint.%s.rate_limit.burst";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION = "module.jms.endpoint.%s.deduplication";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION_KEY = "module.jms.endpoint.%s.deduplication.key";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION_CAPACITY = "module.jms.endpoint.%s.deduplication.capacity";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION_FILE = "module.jms.endpoint.%s.deduplication.file";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE = "module.jms.endpoint.%s.concurrency.adaptive";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE_MIN = "module.jms.endpoint.%s.concurrency.adaptive.min";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE_MAX = "module.jms.endpoint.%s.concurrency.adaptive.max";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE_LATENCY_TARGET = "module.jms.endpoint.%s.concurrency.adaptive.latency_target";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL = "module.jms.endpoint.%s.spool";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_DIRECTORY = "module.jms.endpoint.%s.spool.directory";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_SEGMENT_SIZE = "module.jms.endpoint.%s.spool.segment_size";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_SYNC = "module.jms.endpoint.%s.spool.sync";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_REPLAY_RATE = "module.jms.endpoint.%s.spool.replay_rate";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_RETRY_INTERVAL = "module.jms.endpoint.%s.spool.retry_interval";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_REPLY = "module.jms.endpoint.%s.reply";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_REPLY_MAX_DELIVERIES = "module.jms.endpoint.%s.reply.max_deliveries";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_AUDIT_SAMPLING = "module.jms.endpoint.%s.audit.sampling";
+  private static final String CONFIGURATION_KEY_JMS_ENDPOINT_PAYLOAD_MAX_SIZE = "module.jms.endpoint.%s.payload.max_size";
   
   private static final String CONFIGURATION_KEY_JMS_ENDPOINT_BPMN_PREFIX = "module.jms.endpoint.%s.bpmn";
   private static final String CONFIGURATION_KEY_JMS_ENDPOINT_BPMN_ACTION = "module.jms.endpoint.%s.bpmn.action";
@@ -62,22 +144,51 @@ public class ApplicationConfig implements JmsListenerConfigurer {
 
   private static final String MAPPING_NONE = "none";
   private static final String MAPPING_JSON = "json";
+  private static final String MAPPING_JSON_STREAM = "json_stream";
+  private static final String MAPPING_CBOR = "cbor";
+  private static final String MAPPING_SMILE = "smile";
   
   private static final char PROPERTY_KEY_CASE_SEPARATOR = '_';
   private static final String PROPERTY_SEPARATOR = ".";
   private static final String SEPARATOR_COMMA = "\\s*,\\s*";
   
   private static final String MESSAGE_HANDLE_METHOD_NAME = "handle";
+
+  private static final String CONFIGURATION_FILE = "configuration.properties";
+  private static final int DEFAULT_INIT_PARALLELISM = 4;
+  private static final String GENERATION_SEPARATOR = "#";
   
   private final DefaultMessageHandlerMethodFactory methodFactory = new DefaultMessageHandlerMethodFactory();
   
   private boolean ignoreErroneousEndpoint = true;
   
   @Resource(name = "configurationProperties")
-  Properties configuration;
+  volatile Properties configuration;
   
   @Inject
   MessageListenerFactory listenerFactory;
+
+  @Inject
+  EngineCircuitBreaker circuitBreaker;
+
+  @Inject
+  ReplySender replySender;
+
+  @Inject
+  JmsListenerEndpointRegistry endpointRegistry;
+
+  @Resource(name = "jmsListenerContainerFactory")
+  JmxAwareJmsListenerContainerFactory containerFactory;
+
+  @Inject
+  StartupCoordinator startupCoordinator;
+
+  // Configuration reload : definitions of the endpoints and registered containers (by container id)
+  private boolean sharedDestinations;
+  private Map<String, Map<String, String>> endpointDefinitions = new LinkedHashMap<String, Map<String, String>>();
+  private final Map<String, RegisteredEndpoint> registeredEndpoints = new LinkedHashMap<String, RegisteredEndpoint>();
+  private final AtomicInteger reloadGeneration = new AtomicInteger();
+  private ScheduledExecutorService configurationWatcher;
   
   @Override
   public void configureJmsListeners(JmsListenerEndpointRegistrar registrar) {
@@ -92,6 +203,9 @@ public class ApplicationConfig implements JmsListenerConfigurer {
       logger.warn("Configuration file ('configuration.properties') is missing.");
       return;
     }
+    sharedDestinations = Boolean.parseBoolean(configuration.getProperty(CONFIGURATION_KEY_JMS_ROUTING_SHARED_DESTINATIONS));
+    endpointDefinitions = getEndpointDefinitions(configuration);
+    startConfigurationWatcher();
 
     // Check if any endpoint has been defined
     String endpointsStr = StringUtils.trim(configuration.getProperty(CONFIGURATION_KEY_JMS_ENDPOINTS));
@@ -100,36 +214,452 @@ public class ApplicationConfig implements JmsListenerConfigurer {
       return;
     }
 
-    // Parse endpoints ids
-    String[] endpoints = stringAsArray(endpointsStr);
-    
-    String defaultLogin = configuration.getProperty(CONFIGURATION_KEY_JMS_LOGIN);
-    String defaultPassword = configuration.getProperty(CONFIGURATION_KEY_JMS_PASSWORD);
+    List<String> endpointIds = Arrays.asList(stringAsArray(endpointsStr));
 
-    // Configure each endpoint
-    for (String endpointId : endpoints) {
-      JmsListenerEndpoint endpoint;
-      try {
-        endpoint = configureEndpoint(endpointId, defaultLogin, defaultPassword);
-      } catch (Exception ex) {
-        StringBuilder errorMessage = new StringBuilder();
-        errorMessage.append("Failed to configure endpoint '").append(endpointId).append("'.");
-        if (ignoreErroneousEndpoint) {
-          errorMessage.append(" Go to the next one.");
-          logger.warn(errorMessage.toString(), ex);
-          continue;
-        }
-        else {
-          throw new JMSModuleException(errorMessage.toString(), ex);
-        }
+    // Readiness of the engine probed with the default principal and the definitions of the endpoints
+    Set<String> definitionIds = new LinkedHashSet<String>();
+    for (String endpointId : endpointIds) {
+      String definitionId = getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_BPMN_DEFINITION);
+      if (!StringUtils.isEmpty(definitionId)) {
+        definitionIds.add(definitionId);
       }
+    }
+    startupCoordinator.setProbe(configuration.getProperty(CONFIGURATION_KEY_JMS_LOGIN),
+            configuration.getProperty(CONFIGURATION_KEY_JMS_PASSWORD), definitionIds);
+
+    for (W4JmsListenerEndpoint endpoint : configureEndpoints(endpointIds)) {
       // The default registrar is already populated with the container factory
       //  bean named "jmsListenerContainerFactory" by default
       //registrar.setContainerFactoryBeanName();
       registrar.registerEndpoint(endpoint);
+      registeredEndpoints.put(endpoint.getId(), new RegisteredEndpoint(endpoint));
+      startupCoordinator.register(endpoint.getId());
+    }
+  }
+
+  /**
+   * Configure endpoints (merging the ones sharing a destination if enabled)
+   *
+   * @param endpointIds ids of the endpoints to configure
+   * @return List&lt;W4JmsListenerEndpoint&gt; endpoints to register
+   */
+  private List<W4JmsListenerEndpoint> configureEndpoints(List<String> endpointIds) {
+    final String defaultLogin = configuration.getProperty(CONFIGURATION_KEY_JMS_LOGIN);
+    final String defaultPassword = configuration.getProperty(CONFIGURATION_KEY_JMS_PASSWORD);
+    circuitBreaker.setProbeUser(defaultLogin, defaultPassword);
+
+    // Configure endpoints concurrently (listeners initialization calls the engine), results kept in declaration order
+    int parallelism = Math.max(1, Math.min(endpointIds.size(),
+            NumberUtils.toInt(configuration.getProperty(CONFIGURATION_KEY_JMS_STARTUP_INIT_PARALLELISM), DEFAULT_INIT_PARALLELISM)));
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-endpoint-init-");
+    threadFactory.setDaemon(true);
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism, threadFactory);
+    final long[] durations = new long[endpointIds.size()];
+    List<Future<W4JmsListenerEndpoint>> configurations = new ArrayList<Future<W4JmsListenerEndpoint>>(endpointIds.size());
+    long start = System.nanoTime();
+    for (int i = 0; i < endpointIds.size(); i++) {
+      final int index = i;
+      final String endpointId = endpointIds.get(i);
+      configurations.add(executor.submit(new Callable<W4JmsListenerEndpoint>() {
+        @Override
+        public W4JmsListenerEndpoint call() throws Exception {
+          long endpointStart = System.nanoTime();
+          try {
+            return configureEndpoint(endpointId, defaultLogin, defaultPassword);
+          } finally {
+            durations[index] = System.nanoTime() - endpointStart;
+          }
+        }
+      }));
+    }
+
+    // Collect each endpoint
+    List<W4JmsListenerEndpoint> configuredEndpoints = new ArrayList<W4JmsListenerEndpoint>(endpointIds.size());
+    StringBuilder report = new StringBuilder();
+    try {
+      for (int i = 0; i < endpointIds.size(); i++) {
+        String endpointId = endpointIds.get(i);
+        W4JmsListenerEndpoint endpoint;
+        try {
+          endpoint = configurations.get(i).get();
+        } catch (ExecutionException eex) {
+          report.append("\n\t").append(endpointId).append(" : failed after ").append(TimeUnit.NANOSECONDS.toMillis(durations[i])).append("ms");
+          StringBuilder errorMessage = new StringBuilder();
+          errorMessage.append("Failed to configure endpoint '").append(endpointId).append("'.");
+          if (ignoreErroneousEndpoint) {
+            errorMessage.append(" Go to the next one.");
+            logger.warn(errorMessage.toString(), eex.getCause());
+            continue;
+          }
+          else {
+            // Listeners of the other endpoints would never be registered (nor destroyed)
+            destroyListeners(configurations);
+            throw new JMSModuleException(errorMessage.toString(), eex.getCause());
+          }
+        } catch (InterruptedException iex) {
+          Thread.currentThread().interrupt();
+          throw new JMSModuleException("Interrupted while configuring endpoints", iex);
+        }
+        report.append("\n\t").append(endpointId).append(" : ").append(TimeUnit.NANOSECONDS.toMillis(durations[i])).append("ms");
+        configuredEndpoints.add(endpoint);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    logger.info("{} endpoint(s) configured in {}ms ({} thread(s)) :{}", configuredEndpoints.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), parallelism, report);
+
+    // One consumer per destination shared by several endpoints (opt-in)
+    if (sharedDestinations) {
+      return mergeSharedDestinations(configuredEndpoints);
+    }
+    return configuredEndpoints;
+  }
+
+  /**
+   * Destroy the listeners of the configured endpoints (configuration failed) : pending configurations are awaited,
+   * so that no listener is left behind
+   *
+   * @param configurations configurations of the endpoints
+   */
+  private static void destroyListeners(List<Future<W4JmsListenerEndpoint>> configurations) {
+    for (Future<W4JmsListenerEndpoint> configuration : configurations) {
+      W4JmsListenerEndpoint endpoint;
+      try {
+        endpoint = configuration.get();
+      } catch (ExecutionException eex) {
+        // Not configured : nothing to destroy
+        continue;
+      } catch (InterruptedException iex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (endpoint.getMessageListener() instanceof DisposableBean) {
+        try {
+          ((DisposableBean) endpoint.getMessageListener()).destroy();
+        } catch (Exception ex) {
+          logger.warn("Cannot destroy listener of endpoint '{}'", endpoint.getId(), ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Watch the configuration file (if enabled) to reload endpoints when it changes
+   */
+  private void startConfigurationWatcher() {
+    long reloadInterval = NumberUtils.toLong(configuration.getProperty(CONFIGURATION_KEY_JMS_CONFIGURATION_RELOAD_INTERVAL), 0);
+    if (reloadInterval <= 0 || configurationWatcher != null) {
+      return;
+    }
+    final File configurationFile;
+    try {
+      configurationFile = new ClassPathResource(CONFIGURATION_FILE, getClass().getClassLoader()).getFile();
+    } catch (IOException ioex) {
+      logger.warn("Configuration file ('{}') cannot be watched : endpoints will not be reloaded", CONFIGURATION_FILE, ioex);
+      return;
+    }
+
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-configuration-watcher-");
+    threadFactory.setDaemon(true);
+    configurationWatcher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    configurationWatcher.scheduleWithFixedDelay(new Runnable() {
+      private long lastModified = configurationFile.lastModified();
+
+      @Override
+      public void run() {
+        long modified = configurationFile.lastModified();
+        if (modified == lastModified) {
+          return;
+        }
+        lastModified = modified;
+        try {
+          reloadConfiguration(PropertiesLoaderUtils.loadProperties(new FileSystemResource(configurationFile)));
+        } catch (Exception ex) {
+          logger.error("Cannot reload configuration file ('{}')", CONFIGURATION_FILE, ex);
+        }
+      }
+    }, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+    logger.info("Configuration file ('{}') watched for endpoints changes every {}ms", configurationFile, reloadInterval);
+  }
+
+  /**
+   * Reload endpoints from an updated configuration : only the containers of the endpoints added, removed or changed
+   * (or sharing a destination with such an endpoint) are released and registered again, others keep consuming.
+   * Global settings (but default principal) are not reloaded. New endpoints are configured before the containers are
+   * released : if one of them cannot be configured (and erroneous endpoints are not ignored), previous containers
+   * and definitions are kept.
+   *
+   * @param updatedConfiguration updated module configuration
+   * @throws Exception an error occured while configuring an endpoint or releasing a container
+   */
+  synchronized void reloadConfiguration(Properties updatedConfiguration) throws Exception {
+    Map<String, Map<String, String>> updatedDefinitions = getEndpointDefinitions(updatedConfiguration);
+    Set<String> changedEndpoints = getChangedEndpoints(endpointDefinitions, updatedDefinitions);
+    if (changedEndpoints.isEmpty()) {
+      logger.debug("No endpoint changed in configuration file");
+      return;
+    }
+    logger.info("Endpoints {} changed in configuration file : reload them", changedEndpoints);
+
+    // Destinations of changed endpoints (before and after the change)
+    Set<String> changedDestinations = new HashSet<String>();
+    for (String endpointId : changedEndpoints) {
+      addDestination(changedDestinations, endpointDefinitions.get(endpointId));
+      addDestination(changedDestinations, updatedDefinitions.get(endpointId));
+    }
+
+    // Containers of changed endpoints (and of the endpoints sharing their destination with them)
+    Set<String> releasedContainers = new LinkedHashSet<String>();
+    Set<String> reconfiguredEndpoints = new HashSet<String>(changedEndpoints);
+    for (Map.Entry<String, RegisteredEndpoint> entry : registeredEndpoints.entrySet()) {
+      RegisteredEndpoint endpoint = entry.getValue();
+      if (!Collections.disjoint(endpoint.endpointIds, changedEndpoints)
+              || (sharedDestinations && changedDestinations.contains(endpoint.destination))) {
+        releasedContainers.add(entry.getKey());
+        reconfiguredEndpoints.addAll(endpoint.endpointIds);
+      }
+    }
+
+    // Configure the new endpoints (in declaration order) while the previous containers keep consuming
+    List<String> endpointIds = new ArrayList<String>();
+    for (String endpointId : updatedDefinitions.keySet()) {
+      if (reconfiguredEndpoints.contains(endpointId)) {
+        endpointIds.add(endpointId);
+      }
+    }
+    Properties previousConfiguration = configuration;
+    configuration = updatedConfiguration;
+    List<W4JmsListenerEndpoint> endpoints;
+    try {
+      endpoints = configureEndpoints(endpointIds);
+    } catch (RuntimeException rex) {
+      configuration = previousConfiguration;
+      circuitBreaker.setProbeUser(previousConfiguration.getProperty(CONFIGURATION_KEY_JMS_LOGIN),
+              previousConfiguration.getProperty(CONFIGURATION_KEY_JMS_PASSWORD));
+      logger.error("Endpoints {} cannot be reloaded : previous endpoints kept", changedEndpoints);
+      throw rex;
+    }
+    endpointDefinitions = updatedDefinitions;
+
+    // Release the previous containers
+    for (String containerId : releasedContainers) {
+      // Released containers stay in the registry : only the coordinator knows which containers are live
+      startupCoordinator.release(containerId);
+      MessageListenerContainer container = endpointRegistry.getListenerContainer(containerId);
+      if (container instanceof DefaultMessageListenerContainer) {
+        containerFactory.releaseListenerContainer((DefaultMessageListenerContainer) container);
+      }
+      registeredEndpoints.remove(containerId);
+    }
+
+    // Register and start the new containers
+    int generation = reloadGeneration.incrementAndGet();
+    for (W4JmsListenerEndpoint endpoint : endpoints) {
+      RegisteredEndpoint registeredEndpoint = new RegisteredEndpoint(endpoint);
+      // Ids of released containers are still known by the registry
+      endpoint.setId(endpoint.getId() + GENERATION_SEPARATOR + generation);
+      endpointRegistry.registerListenerContainer(endpoint, containerFactory);
+      startupCoordinator.register(endpoint.getId());
+      registeredEndpoints.put(endpoint.getId(), registeredEndpoint);
+    }
+  }
+
+  private static void addDestination(Set<String> destinations, Map<String, String> definition) {
+    if (definition != null && definition.get(ENDPOINT_DESTINATION_SUFFIX) != null) {
+      destinations.add(definition.get(ENDPOINT_DESTINATION_SUFFIX));
+    }
+  }
+
+  /**
+   * Get the definitions of the endpoints of a configuration : properties of each endpoint (without their prefix),
+   * and default login and password unless overridden by the endpoint
+   *
+   * @param configuration module configuration
+   * @return Map&lt;String, Map&lt;String, String&gt;&gt; properties per endpoint id (in declaration order)
+   */
+  static Map<String, Map<String, String>> getEndpointDefinitions(Properties configuration) {
+    Map<String, Map<String, String>> definitions = new LinkedHashMap<String, Map<String, String>>();
+    String endpointsStr = StringUtils.trim(configuration.getProperty(CONFIGURATION_KEY_JMS_ENDPOINTS));
+    if (StringUtils.isEmpty(endpointsStr)) {
+      return definitions;
+    }
+    for (String endpointId : endpointsStr.split(SEPARATOR_COMMA)) {
+      String prefix = String.format(CONFIGURATION_KEY_JMS_ENDPOINT_PREFIX, endpointId);
+      Map<String, String> definition = new HashMap<String, String>();
+      for (String key : configuration.stringPropertyNames()) {
+        if (key.startsWith(prefix)) {
+          definition.put(key.substring(prefix.length()), configuration.getProperty(key));
+        }
+      }
+      // Default principal, if used by the endpoint
+      addDefaultProperty(definition, configuration, String.format(CONFIGURATION_KEY_JMS_ENDPOINT_LOGIN, endpointId), CONFIGURATION_KEY_JMS_LOGIN);
+      addDefaultProperty(definition, configuration, String.format(CONFIGURATION_KEY_JMS_ENDPOINT_PASSWORD, endpointId), CONFIGURATION_KEY_JMS_PASSWORD);
+      definitions.put(endpointId, definition);
+    }
+    return definitions;
+  }
+
+  private static void addDefaultProperty(Map<String, String> definition, Properties configuration, String endpointKey, String defaultKey) {
+    String defaultValue = configuration.getProperty(defaultKey);
+    if (StringUtils.isEmpty(configuration.getProperty(endpointKey)) && defaultValue != null) {
+      definition.put(defaultKey, defaultValue);
+    }
+  }
+
+  /**
+   * Get the endpoints added, removed or changed between two configurations
+   *
+   * @param previous previous definitions of the endpoints
+   * @param updated updated definitions of the endpoints
+   * @return Set&lt;String&gt; ids of the changed endpoints
+   */
+  static Set<String> getChangedEndpoints(Map<String, Map<String, String>> previous, Map<String, Map<String, String>> updated) {
+    Set<String> changed = new LinkedHashSet<String>();
+    for (Map.Entry<String, Map<String, String>> definition : previous.entrySet()) {
+      if (!definition.getValue().equals(updated.get(definition.getKey()))) {
+        changed.add(definition.getKey());
+      }
+    }
+    for (String endpointId : updated.keySet()) {
+      if (!previous.containsKey(endpointId)) {
+        changed.add(endpointId);
+      }
+    }
+    return changed;
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (configurationWatcher != null) {
+      configurationWatcher.shutdownNow();
     }
   }
 
+  /**
+   * Merge the endpoints listening to the same destination into one endpoint, whose listener dispatches messages
+   * to the endpoints listeners according to their selectors (evaluated in-process). The merged endpoint only receives
+   * the messages matching one of the selectors (unless an endpoint has none), so that the other consumers of the
+   * destination still get theirs. Endpoints are kept apart if any of their selectors is not supported, or if their
+   * consumption settings differ.
+   *
+   * @param endpoints configured endpoints
+   * @return List&lt;W4JmsListenerEndpoint&gt; endpoints to register
+   */
+  private List<W4JmsListenerEndpoint> mergeSharedDestinations(List<W4JmsListenerEndpoint> endpoints) {
+    Map<String, List<W4JmsListenerEndpoint>> endpointsByDestination = new LinkedHashMap<String, List<W4JmsListenerEndpoint>>();
+    for (W4JmsListenerEndpoint endpoint : endpoints) {
+      List<W4JmsListenerEndpoint> sharing = endpointsByDestination.get(endpoint.getDestination());
+      if (sharing == null) {
+        sharing = new ArrayList<W4JmsListenerEndpoint>();
+        endpointsByDestination.put(endpoint.getDestination(), sharing);
+      }
+      sharing.add(endpoint);
+    }
+
+    List<W4JmsListenerEndpoint> merged = new ArrayList<W4JmsListenerEndpoint>(endpointsByDestination.size());
+    for (Map.Entry<String, List<W4JmsListenerEndpoint>> destination : endpointsByDestination.entrySet()) {
+      List<W4JmsListenerEndpoint> sharing = destination.getValue();
+      W4JmsListenerEndpoint routed = (sharing.size() > 1 ? route(destination.getKey(), sharing) : null);
+      if (routed != null) {
+        merged.add(routed);
+      } else {
+        merged.addAll(sharing);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Build the endpoint routing the messages of a destination to the endpoints sharing it
+   *
+   * @param destination shared destination
+   * @param sharing endpoints listening to the destination
+   * @return W4JmsListenerEndpoint merged endpoint, null if the endpoints cannot be merged
+   */
+  private W4JmsListenerEndpoint route(String destination, List<W4JmsListenerEndpoint> sharing) {
+    RoutingMessageListener router = new RoutingMessageListener(destination);
+    StringBuilder mergedId = new StringBuilder();
+    List<String> selectors = new ArrayList<String>(sharing.size());
+    String fallbackId = null;
+    boolean spooled = true;
+    for (W4JmsListenerEndpoint endpoint : sharing) {
+      if (!getConsumptionSettings(endpoint).equals(getConsumptionSettings(sharing.get(0)))) {
+        logger.warn("Endpoints {} and {} of destination {} have different consumption settings : endpoints not merged",
+                sharing.get(0).getId(), endpoint.getId(), destination);
+        return null;
+      }
+      selectors.add(endpoint.getSelector());
+      boolean fallback = Boolean.parseBoolean(getEndpointProperty(endpoint.getId(), CONFIGURATION_KEY_JMS_ENDPOINT_ROUTING_FALLBACK));
+      if (fallback || StringUtils.isEmpty(endpoint.getSelector())) {
+        // Fallback (or endpoint without selector) : receives the messages matching no other endpoint
+        if (fallbackId != null) {
+          logger.warn("Several fallback endpoints ({} and {}) for destination {} : endpoints not merged", fallbackId, endpoint.getId(), destination);
+          return null;
+        }
+        fallbackId = endpoint.getId();
+        router.setFallback(endpoint.getId(), endpoint.getMessageListener());
+      } else {
+        try {
+          router.addRoute(endpoint.getId(), MessageSelector.compile(endpoint.getSelector()), endpoint.getMessageListener());
+        } catch (IllegalArgumentException iae) {
+          logger.warn("Endpoints of destination {} not merged : {}", destination, iae.getMessage());
+          return null;
+        }
+      }
+      if (mergedId.length() > 0) {
+        mergedId.append('+');
+      }
+      mergedId.append(endpoint.getId());
+      spooled &= endpoint.isSpooled();
+    }
+
+    W4JmsListenerEndpoint merged = sharing.get(0);
+    for (W4JmsListenerEndpoint endpoint : sharing.subList(1, sharing.size())) {
+      merged.addRoutedMetrics(endpoint.getMetrics());
+    }
+    merged.setId(mergedId.toString());
+    merged.setSelector(anySelector(selectors));
+    merged.setMessageListener(router);
+    merged.setSpooled(spooled);
+    logger.info("Endpoints {} share one consumer of destination {}", router.getEndpointIds(), destination);
+    return merged;
+  }
+
+  /**
+   * Get the settings of an endpoint applied to its container (consumption, concurrency, metrics)
+   *
+   * @param endpoint configured endpoint
+   * @return List&lt;Object&gt; settings
+   */
+  private static List<Object> getConsumptionSettings(W4JmsListenerEndpoint endpoint) {
+    return Arrays.<Object>asList(endpoint.getBatchSize(), endpoint.getBatchTimeout(), endpoint.getPipelineWorkers(),
+            endpoint.getPipelineQueueCapacity(), endpoint.getOrderingLanes(), endpoint.getOrderingKey(),
+            endpoint.getRateLimit(), endpoint.getRateLimitBurst(), endpoint.isAdaptiveConcurrency(),
+            endpoint.getAdaptiveConcurrencyMinimum(), endpoint.getAdaptiveConcurrencyMaximum(),
+            endpoint.getAdaptiveConcurrencyLatencyTarget());
+  }
+
+  /**
+   * Build the selector of the messages matching any of the given selectors
+   *
+   * @param selectors selectors (null or empty for all messages)
+   * @return String selector, null for all messages
+   */
+  static String anySelector(List<String> selectors) {
+    StringBuilder any = new StringBuilder();
+    for (String selector : selectors) {
+      if (StringUtils.isBlank(selector)) {
+        return null;
+      }
+      if (any.length() > 0) {
+        any.append(" OR ");
+      }
+      any.append('(').append(selector.trim()).append(')');
+    }
+    return (any.length() > 0 ? any.toString() : null);
+  }
+
   /**
    * Configure one endpoint
    *
@@ -138,9 +668,9 @@ public class ApplicationConfig implements JmsListenerConfigurer {
    * @param defaultPassword
    * @return Configured endpoint
    */
-  private JmsListenerEndpoint configureEndpoint(String endpointId, String defaultLogin, String defaultPassword) throws Exception {
+  private W4JmsListenerEndpoint configureEndpoint(String endpointId, String defaultLogin, String defaultPassword) throws Exception {
     // Define the endpoint
-    SimpleJmsListenerEndpoint endpoint = new SimpleJmsListenerEndpoint();
+    W4JmsListenerEndpoint endpoint = new W4JmsListenerEndpoint();
     endpoint.setId(endpointId);
     endpoint.setDestination(getRequiredEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_DESTINATION));
     
@@ -149,6 +679,31 @@ public class ApplicationConfig implements JmsListenerConfigurer {
       endpoint.setSelector(selector);
     }
 
+    // Consumption by batches (opt-in)
+    endpoint.setBatchSize(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_BATCH_SIZE, 1));
+    String batchTimeout = getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_BATCH_TIMEOUT);
+    if (!StringUtils.isEmpty(batchTimeout)) {
+      endpoint.setBatchTimeout((long) getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_BATCH_TIMEOUT, 0));
+    }
+
+    // Pipeline mode : received messages processed by workers (opt-in)
+    endpoint.setPipelineWorkers(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_PIPELINE_WORKERS, 0));
+    endpoint.setPipelineQueueCapacity(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_PIPELINE_QUEUE_CAPACITY, 0));
+
+    // Ordered lanes : messages processed in order of their key (opt-in)
+    endpoint.setOrderingLanes(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_ORDERING_LANES, 0));
+    endpoint.setOrderingKey(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_ORDERING_KEY));
+
+    // Rate limit (opt-in)
+    endpoint.setRateLimit(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_RATE_LIMIT, 0));
+    endpoint.setRateLimitBurst(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_RATE_LIMIT_BURST, 0));
+
+    // Number of consumers following the engine latency (opt-in)
+    endpoint.setAdaptiveConcurrency(Boolean.parseBoolean(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE)));
+    endpoint.setAdaptiveConcurrencyMinimum(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE_MIN, 1));
+    endpoint.setAdaptiveConcurrencyMaximum(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE_MAX, 0));
+    endpoint.setAdaptiveConcurrencyLatencyTarget(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_CONCURRENCY_ADAPTIVE_LATENCY_TARGET, 1000));
+
     // Define the receiver
     //DefltMessageListener receiver = new DefaultMessageListener();
     String login = getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_LOGIN, defaultLogin);
@@ -176,13 +731,54 @@ public class ApplicationConfig implements JmsListenerConfigurer {
     Map<String, ? extends Object> listenerProperties = subsetToCamelCase(configuration, getEndpointBpmnPropertiesPrefix(endpointId), true);
     AbstractW4MessageListener listener = listenerFactory.getListener(action, login, password, definitionsIdentifier, listenerProperties);
 
+    // Suppression of duplicates (opt-in)
+    if (Boolean.parseBoolean(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION))) {
+      String deduplicationFile = getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION_FILE);
+      listener.setDeduplicationStore(new DeduplicationStore(
+              getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION_CAPACITY, 100000),
+              StringUtils.isEmpty(deduplicationFile) ? null : new File(deduplicationFile)));
+      listener.setDeduplicationKey(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_DEDUPLICATION_KEY));
+    }
+
+    // Binary (or decompressed) payloads read from the messages, up to a maximum size (KB)
+    long maxPayloadSize = getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_PAYLOAD_MAX_SIZE, 10240) * 1024L;
+    listener.setPayloadReader(new JmsPayloadReader(maxPayloadSize));
+
+    // Audit records of a sample of the messages (module sampling overridable per endpoint)
+    String sampling = getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_AUDIT_SAMPLING,
+            configuration.getProperty(CONFIGURATION_KEY_JMS_AUDIT_SAMPLING));
+    listener.setAudit(new MessageAudit(endpointId, NumberUtils.toDouble(sampling, 1d),
+            NumberUtils.toInt(configuration.getProperty(CONFIGURATION_KEY_JMS_AUDIT_PAYLOAD_LENGTH), 0)));
+
+    // Result (or error) sent to the JMSReplyTo of the requests (opt-in)
+    if (Boolean.parseBoolean(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_REPLY))) {
+      listener.setReplySender(replySender);
+      listener.setReplyMaxDeliveries(getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_REPLY_MAX_DELIVERIES, 0));
+    }
+
+    // Local spool of the messages received while the engine is unavailable (opt-in)
+    if (Boolean.parseBoolean(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL))) {
+      listener.setSpool(new MessageSpool(endpointId,
+              new File(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_DIRECTORY, "spool" + File.separator + endpointId)),
+              getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_SEGMENT_SIZE, 16) * 1024 * 1024,
+              Boolean.parseBoolean(getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_SYNC, "true")),
+              getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_REPLAY_RATE, 10),
+              getEndpointIntProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_SPOOL_RETRY_INTERVAL, 10000)));
+      endpoint.setSpooled(true);
+    }
+
+    // Latencies of the processing stages (exposed through JMX with the container)
+    EndpointMetrics metrics = new EndpointMetrics(endpoint.getDestination(), endpoint.getSelector());
+    listener.setMetrics(metrics);
+    endpoint.setMetrics(metrics);
+
     // Define the listener
     //MessageListenerAdapter listener = new MessageListenerAdapter(receiver);
     MessagingMessageListenerAdapter listenerAdapter = new DisposableMessagingMessageListenerAdapter();
     listenerAdapter.setHandlerMethod(methodFactory.createInvocableHandlerMethod(listener, getHandleMethod()));
 
     // Set the mapping if needed
-    setMapping(endpointId, listenerAdapter);
+    setMapping(endpointId, listenerAdapter, listener, new ContentDecoder(maxPayloadSize));
     
     endpoint.setMessageListener(listenerAdapter);
     
@@ -194,20 +790,32 @@ public class ApplicationConfig implements JmsListenerConfigurer {
    *
    * @param endpointId if of the endpoint
    * @param listener listener
+   * @param w4Listener W4 listener processing converted messages
+   * @param contentDecoder decoder of the compressed payloads (decompressed while being mapped)
    */
-  private void setMapping(final String endpointId, AbstractAdaptableMessageListener listener) {
+  private void setMapping(final String endpointId, AbstractAdaptableMessageListener listener, AbstractW4MessageListener w4Listener,
+          ContentDecoder contentDecoder) {
     String mapping = getEndpointProperty(endpointId, CONFIGURATION_KEY_JMS_ENDPOINT_MAPPING);
     if (MAPPING_JSON.equalsIgnoreCase(mapping)) {
-      MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
-      converter.setTypeIdPropertyName(JMS_PROPERTY_DTO_CLASSNAME);
-      listener.setMessageConverter(converter);
-    } else if (mapping != null && !MAPPING_NONE.equalsIgnoreCase(mapping)) {
+      listener.setMessageConverter(createJsonMessageConverter(contentDecoder));
+    } else if (MAPPING_JSON_STREAM.equalsIgnoreCase(mapping)) {
+      // Only build the entries used by the listener
+      listener.setMessageConverter(new StreamingJsonMessageConverter(w4Listener.getMappedKeys(), contentDecoder));
+    } else if (MAPPING_CBOR.equalsIgnoreCase(mapping)) {
+      listener.setMessageConverter(createBinaryMessageConverter(new CBORFactory(), contentDecoder));
+    } else if (MAPPING_SMILE.equalsIgnoreCase(mapping)) {
+      listener.setMessageConverter(createBinaryMessageConverter(new SmileFactory(), contentDecoder));
+    } else if (mapping == null || MAPPING_NONE.equalsIgnoreCase(mapping)) {
+      // Bytes, stream and map messages read by the listener
+      listener.setMessageConverter(new NativePayloadMessageConverter(contentDecoder));
+    } else {
       StringBuilder errorMessage = new StringBuilder();
       errorMessage.append("Mapping type ('").append(mapping);
-      errorMessage.append("') unknown for endpoint ").append(endpointId).append(" : only 'none' or 'json' are allowed.");
+      errorMessage.append("') unknown for endpoint ").append(endpointId).append(" : only 'none', 'json', 'json_stream', 'cbor' or 'smile' are allowed.");
       if (ignoreErroneousEndpoint) {
         errorMessage.append(" None mapping will be used.");
         logger.warn(errorMessage.toString());
+        listener.setMessageConverter(new NativePayloadMessageConverter(contentDecoder));
       }
       else {
         throw new IllegalArgumentException(errorMessage.toString());
@@ -215,6 +823,31 @@ public class ApplicationConfig implements JmsListenerConfigurer {
     }
   }
 
+  /**
+   * Create the converter of the 'json' mapping, reading compressed payloads too
+   *
+   * @param contentDecoder decoder of the compressed payloads
+   * @return MappingJackson2MessageConverter JSON converter (DTO class name given by a JMS property)
+   */
+  static MappingJackson2MessageConverter createJsonMessageConverter(ContentDecoder contentDecoder) {
+    MappingJackson2MessageConverter converter = new DecodingJackson2MessageConverter(contentDecoder);
+    converter.setTypeIdPropertyName(JMS_PROPERTY_DTO_CLASSNAME);
+    return converter;
+  }
+
+  /**
+   * Create the converter of a binary mapping ('cbor' or 'smile', BytesMessage)
+   *
+   * @param factory factory of the binary data format
+   * @param contentDecoder decoder of the compressed payloads
+   * @return MappingJackson2MessageConverter binary converter (DTO class name given by a JMS property)
+   */
+  static MappingJackson2MessageConverter createBinaryMessageConverter(JsonFactory factory, ContentDecoder contentDecoder) {
+    MappingJackson2MessageConverter converter = new DecodingJackson2MessageConverter(contentDecoder, new ObjectMapper(factory));
+    converter.setTypeIdPropertyName(JMS_PROPERTY_DTO_CLASSNAME);
+    return converter;
+  }
+
   /**
    * Split a String to a List of strings
    *
@@ -253,6 +886,27 @@ public class ApplicationConfig implements JmsListenerConfigurer {
     return value;
   }
   
+  /**
+   * Get a non mandatory endpoint integer property. If not found, default value is
+   * returned
+   *
+   * @param endpointId id of the endpoint
+   * @param key property key
+   * @param defaultValue default value if the property is not found
+   * @return int value of the property
+   */
+  private int getEndpointIntProperty(String endpointId, String key, int defaultValue) {
+    String value = getEndpointProperty(endpointId, key, false);
+    if (StringUtils.isEmpty(value)) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException nfe) {
+      throw new IllegalArgumentException(String.format("Property '%s' should be an integer (found '%s')", String.format(key, endpointId), value), nfe);
+    }
+  }
+
   /**
    * Get an endpoint property
    *
@@ -384,7 +1038,25 @@ public class ApplicationConfig implements JmsListenerConfigurer {
     );
   }
   
-  public class DisposableMessagingMessageListenerAdapter extends MessagingMessageListenerAdapter implements DisposableBean {
+  /**
+   * Endpoints consumed by a registered container, and their destination
+   */
+  private static class RegisteredEndpoint {
+    private final Collection<String> endpointIds;
+    private final String destination;
+
+    RegisteredEndpoint(W4JmsListenerEndpoint endpoint) {
+      if (endpoint.getMessageListener() instanceof RoutingMessageListener) {
+        this.endpointIds = ((RoutingMessageListener) endpoint.getMessageListener()).getEndpointIds();
+      } else {
+        this.endpointIds = Collections.singleton(endpoint.getId());
+      }
+      this.destination = endpoint.getDestination();
+    }
+  }
+
+  public class DisposableMessagingMessageListenerAdapter extends MessagingMessageListenerAdapter
+          implements PreparingMessageListener, DisposableBean {
     private InvocableHandlerMethod handlerMethod;
     
 	/**
@@ -398,6 +1070,28 @@ public class ApplicationConfig implements JmsListenerConfigurer {
         this.handlerMethod = handlerMethod;
 	}
     
+    /**
+     * Prepare the processing of a message by the W4 listener : converted and read by the consumer thread,
+     * processed (with its audit record) by the thread running the returned processing
+     * @param jmsMessage received message
+     * @param session session of the consumer
+     * @return Runnable processing of the message
+     * @throws JMSException the message cannot be read
+     */
+    @Override
+    public Runnable prepare(javax.jms.Message jmsMessage, Session session) throws JMSException {
+      final AbstractW4MessageListener listener = (AbstractW4MessageListener) handlerMethod.getBean();
+      final AbstractW4MessageListener.PreparedMessage prepared = listener.prepare(toMessagingMessage(jmsMessage), jmsMessage);
+      final MessageAudit.Record auditRecord = MessageAudit.detach();
+      return new Runnable() {
+        @Override
+        public void run() {
+          MessageAudit.attach(auditRecord);
+          listener.process(prepared);
+        }
+      };
+    }
+
     @Override
     public void destroy() throws Exception {
       if (handlerMethod.getBean() instanceof DisposableBean) {
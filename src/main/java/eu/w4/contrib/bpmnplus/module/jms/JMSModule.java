@@ -1,6 +1,7 @@
 package eu.w4.contrib.bpmnplus.module.jms;
 
 import eu.w4.common.exception.CheckedException;
+import eu.w4.contrib.bpmnplus.module.jms.startup.StartupCoordinator;
 import eu.w4.engine.client.service.EngineService;
 import eu.w4.engine.core.module.external.ExternalModule;
 import eu.w4.engine.core.module.external.ExternalModuleContext;
@@ -26,7 +27,6 @@ public class JMSModule implements ExternalModule {
     
     private static final String SPRING_APPLICATION_CONTEXT = "JMSModule-context.xml";
     private static final long TIME_BETWEEN_SHUTDOWN_AND_STARTUP = 1000;
-    private static final long ENGINE_STARTUP_BREATH_TIME = 10000; //ms
     
     private Thread module;
     
@@ -121,13 +121,6 @@ public class JMSModule implements ExternalModule {
             }
             logger.debug("\t...engine started.");
             
-            // Give the engine some time to breath before sending potential huge load from JMS.
-            // It may allow any other modules to accomplish post their own post startup actions.
-            logger.debug("Give the engine some time ({}ms) to breath before starting messages processing", ENGINE_STARTUP_BREATH_TIME);
-            try {
-                Thread.sleep(ENGINE_STARTUP_BREATH_TIME);
-            } catch (InterruptedException e) {}
-            
             logger.debug("Setup Spring Context");
             
             GenericApplicationContext parentCtx = new GenericApplicationContext();
@@ -144,6 +137,16 @@ public class JMSModule implements ExternalModule {
             
             this.appContext = applicationContext;
             
+            // Containers are not started with the context : wait for the engine (fixed delay or readiness probes)
+            // before sending potential huge load from JMS.
+            // It may allow any other modules to accomplish post their own post startup actions.
+            try {
+                applicationContext.getBean(StartupCoordinator.class).startConsumption();
+            } catch (InterruptedException e) {
+                logger.debug("Interrupted while waiting for the engine : messages processing not started");
+                return;
+            }
+            
             logger.info("JMS module started");
         }
         
@@ -154,6 +157,8 @@ public class JMSModule implements ExternalModule {
         public void interrupt() {
             super.interrupt();
             if (this.appContext != null) {
+                // Containers released by configuration reloads are still known by the context : stop the live ones first
+                this.appContext.getBean(StartupCoordinator.class).stopConsumption();
                 this.appContext.stop();
                 this.appContext.close();
             }
@@ -0,0 +1,207 @@
+package eu.w4.contrib.bpmnplus.module.jms.audit;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Structured audit record of the messages of one endpoint, written at INFO level to the dedicated
+ * {@code eu.w4.contrib.bpmnplus.module.jms.audit} logger (to be routed to an asynchronous appender) :
+ * <pre>endpoint=endpoint1 messageId=ID:1 correlationId=C1 payloadSize=512 entries=2 conversionUs=35 loginUs=4 engineUs=12040 totalUs=12112 outcome=processed result=42</pre>
+ * Only a sample of the messages is audited, and the payload is not dumped unless a truncation length is set.
+ * The record of a message is held by its handling thread and reused (nothing is built for messages not sampled) ;
+ * it can be handed off with the message to another thread (pipeline workers, ordered lanes).
+ * Should be thread safe.
+ */
+public final class MessageAudit {
+
+  private static final Logger auditLogger = LogManager.getLogger("eu.w4.contrib.bpmnplus.module.jms.audit");
+
+  public static final String OUTCOME_PROCESSED = "processed";
+  public static final String OUTCOME_SPOOLED = "spooled";
+  public static final String OUTCOME_DUPLICATE = "duplicate";
+  public static final String OUTCOME_ERROR = "error";
+
+  private static final ThreadLocal<Record> records = new ThreadLocal<Record>() {
+    @Override
+    protected Record initialValue() {
+      return new Record();
+    }
+  };
+
+  private final String endpointId;
+  // Ratio of the messages audited (0 : none, 1 : all)
+  private final double sampling;
+  // Maximum length of the dumped payload (0 : no dump)
+  private final int payloadLength;
+
+  /**
+   * Default constructor
+   * @param endpointId id of the endpoint
+   * @param sampling ratio of the messages audited (0 : none, 1 : all)
+   * @param payloadLength maximum length of the dumped payload (0 : no dump)
+   */
+  public MessageAudit(String endpointId, double sampling, int payloadLength) {
+    this.endpointId = endpointId;
+    this.sampling = sampling;
+    this.payloadLength = payloadLength;
+  }
+
+  /**
+   * Start the record of a received message (if sampled)
+   * @param jmsMessage received message (may be null)
+   * @param payload converted payload
+   */
+  public void begin(Message jmsMessage, Object payload) {
+    Record record = records.get();
+    record.active = auditLogger.isInfoEnabled() && sampling > 0
+            && (sampling >= 1 || ThreadLocalRandom.current().nextDouble() < sampling);
+    if (!record.active) {
+      return;
+    }
+    record.reset();
+    StringBuilder line = record.line;
+    line.append("endpoint=").append(endpointId);
+    if (jmsMessage != null) {
+      try {
+        line.append(" messageId=").append(jmsMessage.getJMSMessageID());
+        if (jmsMessage.getJMSCorrelationID() != null) {
+          line.append(" correlationId=").append(jmsMessage.getJMSCorrelationID());
+        }
+      } catch (JMSException jmse) {
+        // Ids are optional in the record
+      }
+    }
+    int payloadSize = getPayloadSize(payload);
+    if (payloadSize >= 0) {
+      line.append(" payloadSize=").append(payloadSize);
+    }
+    if (payloadLength > 0) {
+      CharSequence dump = (payload instanceof CharSequence ? (CharSequence) payload : String.valueOf(payload));
+      line.append(" payload=\"").append(dump, 0, Math.min(dump.length(), payloadLength));
+      line.append(dump.length() > payloadLength ? "...\"" : "\"");
+    }
+  }
+
+  private static int getPayloadSize(Object payload) {
+    if (payload instanceof CharSequence) {
+      return ((CharSequence) payload).length();
+    }
+    if (payload instanceof byte[]) {
+      return ((byte[]) payload).length;
+    }
+    if (payload instanceof Map) {
+      return ((Map<?, ?>) payload).size();
+    }
+    if (payload instanceof BytesMessage) {
+      try {
+        return (int) ((BytesMessage) payload).getBodyLength();
+      } catch (JMSException jmse) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Record the number of data entries extracted from the payload
+   * @param entries number of data entries
+   */
+  public static void recordEntries(int entries) {
+    Record record = records.get();
+    if (record.active) {
+      record.line.append(" entries=").append(entries);
+    }
+  }
+
+  /**
+   * Record the duration of a processing stage of the current message
+   * @param stage name of the stage (see {@code EndpointMetrics})
+   * @param duration duration (ns)
+   */
+  public static void recordStage(String stage, long duration) {
+    Record record = records.get();
+    if (record.active) {
+      record.line.append(' ').append(stage).append("Us=").append(TimeUnit.NANOSECONDS.toMicros(duration));
+    }
+  }
+
+  /**
+   * Record that the current message has been spooled (processed later)
+   */
+  public static void recordSpooled() {
+    Record record = records.get();
+    if (record.active) {
+      record.spooled = true;
+    }
+  }
+
+  /**
+   * Detach the record of the current message from the consumer thread, to hand it off with the message
+   * @return Record record of the message, null if the message is not audited
+   */
+  public static Record detach() {
+    Record record = records.get();
+    if (!record.active) {
+      return null;
+    }
+    records.set(new Record());
+    return record;
+  }
+
+  /**
+   * Attach the record of a message handed off to the current thread
+   * @param record record of the message (null if the message is not audited)
+   */
+  public static void attach(Record record) {
+    if (record != null) {
+      records.set(record);
+    } else if (records.get().active) {
+      records.get().active = false;
+    }
+  }
+
+  /**
+   * Write the record of the current message
+   * @param outcome outcome of the message (see OUTCOME_*, spooled if recorded so)
+   * @param result result of the processing, or error message (may be null)
+   */
+  public void end(String outcome, String result) {
+    Record record = records.get();
+    if (!record.active) {
+      return;
+    }
+    record.active = false;
+    record.line.append(" outcome=").append(record.spooled ? OUTCOME_SPOOLED : outcome);
+    if (result != null) {
+      record.line.append(" result=").append(result);
+    }
+    auditLogger.info(record.line.toString());
+  }
+
+  /**
+   * Audit record of the message handled by a thread
+   */
+  public static final class Record {
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+
+    private StringBuilder line = new StringBuilder(256);
+    private boolean active;
+    private boolean spooled;
+
+    private void reset() {
+      spooled = false;
+      if (line.capacity() > MAX_RETAINED_CAPACITY) {
+        // Do not retain the buffer of a huge payload dump
+        line = new StringBuilder(256);
+      } else {
+        line.setLength(0);
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package eu.w4.contrib.bpmnplus.module.jms.circuitbreaker;
+
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.contrib.bpmnplus.module.jms.identification.User;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.ConcurrencyRamp;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.W4MessageListenerContainer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Circuit breaker around the calls to the engine.
+ * <ul>
+ * <li>closed : calls are allowed, consecutive failures (engine unreachable, including while logging in) are counted</li>
+ * <li>open : once the failure threshold is reached, calls are rejected and registered containers are stopped</li>
+ * <li>half open : periodically, a login is attempted through the {@code ConnectionManager} ; if it succeeds, the circuit
+ * is closed and the containers it stopped are restarted with a {@code ConcurrencyRamp}, capping the concurrency the
+ * container owns (configured maximum or adaptive limit)</li>
+ * </ul>
+ * Disabled (always closed) if the failure threshold is 0. Should be thread safe.
+ */
+@Named
+public class EngineCircuitBreaker implements DisposableBean {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final ConnectionManager connectionManager;
+
+  private volatile State state = State.CLOSED;
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicLong rejectedCalls = new AtomicLong();
+  private final AtomicLong openings = new AtomicLong();
+
+  // Consecutive failures opening the circuit, 0 to disable the circuit breaker
+  private volatile int failureThreshold = 0;
+  // Interval between two probes while open (ms)
+  private volatile long probeInterval = 10000;
+  // Interval between two steps of the restart of the containers (ms)
+  private volatile long rampInterval = 5000;
+
+  // User logged in by the probes (default principal, or the last user whose call failed)
+  private volatile User probeUser;
+  private volatile User lastFailedUser;
+
+  // Registered containers, and whether they have been stopped while open (to restart them once closed)
+  private final Map<DefaultMessageListenerContainer, Boolean> containers = new LinkedHashMap<DefaultMessageListenerContainer, Boolean>();
+
+  private ScheduledExecutorService scheduler;
+
+  @Inject
+  public EngineCircuitBreaker(ConnectionManager connectionManager) {
+    this.connectionManager = connectionManager;
+  }
+
+  /**
+   * Register a container to stop while the circuit is open
+   * @param container container
+   */
+  public synchronized void register(DefaultMessageListenerContainer container) {
+    containers.put(container, Boolean.FALSE);
+  }
+
+  /**
+   * Unregister a container (eg. released on configuration reload)
+   * @param container container
+   */
+  public synchronized void unregister(DefaultMessageListenerContainer container) {
+    containers.remove(container);
+  }
+
+  /**
+   * Is a call to the engine allowed?
+   * @return boolean true if the circuit is closed
+   */
+  public boolean allowRequest() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    rejectedCalls.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Record a successful call to the engine
+   */
+  public void recordSuccess() {
+    if (consecutiveFailures.get() != 0) {
+      consecutiveFailures.set(0);
+    }
+  }
+
+  /**
+   * Record a failed call to the engine (engine unreachable), open the circuit once the threshold is reached
+   * @param user user of the call
+   */
+  public void recordFailure(User user) {
+    if (failureThreshold <= 0) {
+      return;
+    }
+    lastFailedUser = user;
+    if (consecutiveFailures.incrementAndGet() >= failureThreshold && state == State.CLOSED) {
+      open();
+    }
+  }
+
+  /**
+   * Open the circuit : stop registered containers and schedule a probe
+   */
+  private synchronized void open() {
+    if (state != State.CLOSED) {
+      return;
+    }
+    state = State.OPEN;
+    openings.incrementAndGet();
+    logger.warn("Engine circuit breaker open after {} consecutive failures : consumption stopped", consecutiveFailures.get());
+
+    for (Map.Entry<DefaultMessageListenerContainer, Boolean> container : containers.entrySet()) {
+      // Containers not started yet (startup) are left to the startup coordinator
+      DefaultMessageListenerContainer dmlc = container.getKey();
+      if (dmlc.isRunning()) {
+        container.setValue(Boolean.TRUE);
+        dmlc.stop();
+      }
+    }
+    scheduleProbe();
+  }
+
+  private void scheduleProbe() {
+    if (scheduler == null) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-circuit-breaker-");
+      threadFactory.setDaemon(true);
+      scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        probe();
+      }
+    }, probeInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Half open : check the engine is reachable again by logging in
+   */
+  private void probe() {
+    User user = (probeUser != null ? probeUser : lastFailedUser);
+    synchronized (this) {
+      if (state != State.OPEN) {
+        return;
+      }
+      state = State.HALF_OPEN;
+    }
+    try {
+      if (user != null) {
+        connectionManager.invalidate(user);
+        connectionManager.login(user);
+      }
+    } catch (RuntimeException rex) {
+      logger.debug("Engine still unavailable ({})", rex.getMessage());
+      synchronized (this) {
+        if (state == State.HALF_OPEN) {
+          state = State.OPEN;
+          scheduleProbe();
+        }
+      }
+      return;
+    }
+    close();
+  }
+
+  /**
+   * Close the circuit : restart the containers progressively
+   */
+  private synchronized void close() {
+    if (state == State.CLOSED) {
+      return;
+    }
+    state = State.CLOSED;
+    consecutiveFailures.set(0);
+    logger.info("Engine circuit breaker closed : consumption restarted");
+
+    for (Map.Entry<DefaultMessageListenerContainer, Boolean> container : containers.entrySet()) {
+      if (!container.getValue()) {
+        continue;
+      }
+      container.setValue(Boolean.FALSE);
+      if (container.getKey() instanceof W4MessageListenerContainer) {
+        new ConcurrencyRamp((W4MessageListenerContainer) container.getKey()).start(scheduler, rampInterval);
+      } else {
+        container.getKey().start();
+      }
+    }
+  }
+
+  /**
+   * Close the circuit without waiting for a probe
+   */
+  public void reset() {
+    close();
+  }
+
+  public String getState() {
+    return state.name();
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures.get();
+  }
+
+  public long getRejectedCalls() {
+    return rejectedCalls.get();
+  }
+
+  public long getOpenings() {
+    return openings.get();
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  public synchronized int getStoppedContainers() {
+    int stopped = 0;
+    for (Boolean containerStopped : containers.values()) {
+      if (containerStopped) {
+        stopped++;
+      }
+    }
+    return stopped;
+  }
+
+  /**
+   * Set the number of consecutive failures opening the circuit
+   * @param failureThreshold number of failures, 0 to disable the circuit breaker
+   */
+  @Value("${module.jms.circuit_breaker.failure_threshold:0}")
+  public void setFailureThreshold(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+
+  /**
+   * Set the interval between two probes of the engine while the circuit is open
+   * @param probeInterval interval (ms)
+   */
+  @Value("${module.jms.circuit_breaker.probe_interval:10000}")
+  public void setProbeInterval(long probeInterval) {
+    this.probeInterval = probeInterval;
+  }
+
+  /**
+   * Set the interval between two steps of the restart of the containers (number of consumers doubled at each step)
+   * @param rampInterval interval (ms), 0 to restart containers with all their consumers at once
+   */
+  @Value("${module.jms.circuit_breaker.ramp_interval:5000}")
+  public void setRampInterval(long rampInterval) {
+    this.rampInterval = rampInterval;
+  }
+
+  /**
+   * Set the user logged in by the probes
+   * @param login login of the user (default : last user whose call failed)
+   * @param password password of the user
+   */
+  public void setProbeUser(String login, String password) {
+    if (StringUtils.isEmpty(login)) {
+      this.probeUser = null;
+      return;
+    }
+    User user = new User(login);
+    user.setPassword(password);
+    this.probeUser = user;
+  }
+
+  @Override
+  public synchronized void destroy() throws Exception {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package eu.w4.contrib.bpmnplus.module.jms.deduplication;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free Bloom filter of strings (double hashing of {@code String.hashCode}), used as a prefilter :
+ * a negative answer is definitive, a positive one has to be checked. Should be thread safe.
+ */
+class BloomFilter {
+
+  private static final int BITS_PER_ELEMENT = 10;
+  private static final int HASH_FUNCTIONS = 4;
+
+  private final AtomicLongArray bits;
+  private final int size;
+
+  /**
+   * Default constructor
+   * @param expectedElements expected number of elements (about 1% of false positives)
+   */
+  BloomFilter(int expectedElements) {
+    long requested = Math.max(64L, (long) expectedElements * BITS_PER_ELEMENT);
+    this.size = (int) Math.min(requested, Integer.MAX_VALUE - 63L);
+    this.bits = new AtomicLongArray((size + 63) / 64);
+  }
+
+  /**
+   * Add an element
+   * @param element element to add
+   */
+  void add(String element) {
+    int hash1 = element.hashCode();
+    int hash2 = mix(hash1);
+    for (int i = 0; i < HASH_FUNCTIONS; i++) {
+      int bit = index(hash1 + i * hash2);
+      int word = bit >>> 6;
+      long mask = 1L << bit;
+      long current;
+      do {
+        current = bits.get(word);
+        if ((current & mask) != 0) {
+          break;
+        }
+      } while (!bits.compareAndSet(word, current, current | mask));
+    }
+  }
+
+  /**
+   * Might the element have been added?
+   * @param element searched element
+   * @return false if the element has never been added
+   */
+  boolean mightContain(String element) {
+    int hash1 = element.hashCode();
+    int hash2 = mix(hash1);
+    for (int i = 0; i < HASH_FUNCTIONS; i++) {
+      int bit = index(hash1 + i * hash2);
+      if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int index(int hash) {
+    return (hash & Integer.MAX_VALUE) % size;
+  }
+
+  /**
+   * Second hash derived from the first one (murmur3 finalizer)
+   */
+  private static int mix(int hash) {
+    int h = hash;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h | 1;
+  }
+}
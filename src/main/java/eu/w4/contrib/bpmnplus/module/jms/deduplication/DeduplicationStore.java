@@ -0,0 +1,233 @@
+package eu.w4.contrib.bpmnplus.module.jms.deduplication;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded store of the keys of the messages already processed, used to suppress duplicates (eg. redeliveries).
+ * <ul>
+ * <li>keys are kept in memory in LRU order, up to the capacity of the store</li>
+ * <li>a Bloom filter answers (lock free) for keys that have never been stored, which is the common case</li>
+ * <li>if a file is given, stored keys are appended to it (one per line) and reloaded at startup. The file is
+ * compacted to the keys in memory when it grows too much.</li>
+ * </ul>
+ * Should be thread safe.
+ */
+public class DeduplicationStore implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final int capacity;
+  private final Map<String, Boolean> keys;
+
+  private volatile BloomFilter bloomFilter;
+  private int bloomFilterInsertions;
+
+  // Append only log of the stored keys (null if not persisted)
+  private final File file;
+  private Writer writer;
+  private int fileEntries;
+
+  private final AtomicLong duplicates = new AtomicLong();
+
+  /**
+   * In memory store
+   * @param capacity maximum number of keys
+   */
+  public DeduplicationStore(int capacity) throws IOException {
+    this(capacity, null);
+  }
+
+  /**
+   * Persisted store
+   * @param capacity maximum number of keys
+   * @param file file the keys are persisted to (null for an in memory store)
+   * @throws IOException the file cannot be read or written
+   */
+  public DeduplicationStore(final int capacity, File file) throws IOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Deduplication store capacity should be positive (found " + capacity + ")");
+    }
+    this.capacity = capacity;
+    this.keys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+        return size() > capacity;
+      }
+    };
+    this.bloomFilter = new BloomFilter(capacity * 2);
+    this.file = file;
+
+    if (file != null) {
+      load();
+      writer = openWriter();
+    }
+  }
+
+  /**
+   * Has the key already been stored?
+   * @param key message key
+   * @return true if the message is a duplicate
+   */
+  public boolean contains(String key) {
+    if (!bloomFilter.mightContain(key)) {
+      return false;
+    }
+    boolean duplicate;
+    synchronized (this) {
+      // get (not containsKey) refreshes the access order : least recently seen keys are evicted first
+      duplicate = keys.get(key) != null;
+    }
+    if (duplicate) {
+      duplicates.incrementAndGet();
+    }
+    return duplicate;
+  }
+
+  /**
+   * Store the key of a processed message
+   * @param key message key
+   */
+  public synchronized void add(String key) {
+    if (keys.put(key, Boolean.TRUE) != null) {
+      return;
+    }
+    addToBloomFilter(key);
+
+    if (writer != null) {
+      if (key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+        logger.debug("Key '{}' cannot be persisted (line break)", key);
+        return;
+      }
+      try {
+        writer.write(key);
+        writer.write('\n');
+        writer.flush();
+        if (++fileEntries > 2 * capacity) {
+          compact();
+        }
+      } catch (IOException ioe) {
+        logger.warn("Cannot persist deduplication key to {}", file, ioe);
+      }
+    }
+  }
+
+  /**
+   * Add a key to the Bloom filter, rebuild it from the keys in memory once too many keys have been evicted
+   */
+  private void addToBloomFilter(String key) {
+    if (++bloomFilterInsertions > 2 * capacity) {
+      BloomFilter rebuilt = new BloomFilter(capacity * 2);
+      for (String storedKey : keys.keySet()) {
+        rebuilt.add(storedKey);
+      }
+      bloomFilter = rebuilt;
+      bloomFilterInsertions = keys.size();
+    } else {
+      bloomFilter.add(key);
+    }
+  }
+
+  /**
+   * Load the keys of the file (the last ones being the most recent)
+   */
+  private void load() throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+    try {
+      String key;
+      while ((key = reader.readLine()) != null) {
+        if (!key.isEmpty()) {
+          keys.put(key, Boolean.TRUE);
+          fileEntries++;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    for (String storedKey : keys.keySet()) {
+      bloomFilter.add(storedKey);
+    }
+    bloomFilterInsertions = keys.size();
+    logger.info("{} deduplication key(s) loaded from {}", keys.size(), file);
+  }
+
+  /**
+   * Rewrite the file with the keys in memory only
+   */
+  private void compact() throws IOException {
+    File compacted = new File(file.getPath() + ".tmp");
+    Writer compactedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compacted), UTF_8));
+    try {
+      for (String storedKey : keys.keySet()) {
+        compactedWriter.write(storedKey);
+        compactedWriter.write('\n');
+      }
+    } finally {
+      compactedWriter.close();
+    }
+
+    writer.close();
+    try {
+      Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      fileEntries = keys.size();
+    } finally {
+      writer = openWriter();
+    }
+    logger.debug("Deduplication file {} compacted ({} keys)", file, fileEntries);
+  }
+
+  private Writer openWriter() throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Cannot create directory " + parent);
+    }
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+  }
+
+  public synchronized int getSize() {
+    return keys.size();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Get the number of duplicates found
+   * @return long number of duplicates
+   */
+  public long getDuplicates() {
+    return duplicates.get();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+}
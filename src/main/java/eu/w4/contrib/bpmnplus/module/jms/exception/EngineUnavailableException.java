@@ -0,0 +1,16 @@
+package eu.w4.contrib.bpmnplus.module.jms.exception;
+
+/**
+ * Exception thrown when the engine is not called because it is known to be unavailable (circuit breaker open).
+ */
+public class EngineUnavailableException extends JMSModuleException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new engine unavailable exception with the specified detail message.
+     * @param   message   the detail message.
+     */
+    public EngineUnavailableException(final String message) {
+        super(message);
+    }
+}
@@ -7,31 +7,52 @@ import eu.w4.engine.client.service.AuthenticationService;
 import eu.w4.engine.client.service.EngineService;
 import java.rmi.RemoteException;
 import java.security.Principal;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
 import javax.inject.Named;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
- * Class that helps to manage W4 connections
+ * Class that helps to manage W4 connections.
+ * Principals are cached per user and leased : a principal is only validated against the engine once its lease has
+ * expired. Concurrent logins (or validations) for the same user share the same request to the engine.
+ * Leases are only replaced if unchanged since the renewal started, and logouts are counted per user : a principal
+ * logged out meanwhile (even on first login) is never cached again, and a session opened meanwhile for nothing is closed.
  */
 @Named
 public class ConnectionManager implements DisposableBean {
 
   private static final Logger logger = LogManager.getLogger();
 
-  // Cached user/principal mapping
-  private final Map<User, Principal> usersPrincipals = Collections.synchronizedMap(new HashMap<User, Principal>());
+  private static final long DEFAULT_LEASE_TIME = 30; //s
+
+  // Cached user/principal leases
+  private final ConcurrentMap<User, PrincipalLease> usersPrincipals = new ConcurrentHashMap<User, PrincipalLease>();
+
+  // Logins (or validations) in progress
+  private final ConcurrentMap<User, FutureTask<PrincipalLease>> pendingLogins = new ConcurrentHashMap<User, FutureTask<PrincipalLease>>();
+
+  // Number of logouts per user (a renewal started before a logout must not lease its principal)
+  private final ConcurrentMap<User, AtomicLong> usersLogouts = new ConcurrentHashMap<User, AtomicLong>();
 
   // W4 authentication service
   private final AuthenticationService authenticationService;
 
+  // Time during which a principal is reused without validation (ns)
+  private volatile long leaseTime = TimeUnit.SECONDS.toNanos(DEFAULT_LEASE_TIME);
+
   @Inject
   public ConnectionManager(EngineService engineService) throws CheckedException, RemoteException {
     this.authenticationService = engineService.getAuthenticationService();
@@ -51,32 +72,175 @@ public class ConnectionManager implements DisposableBean {
       throw new IllegalArgumentException("User login cannot be null");
     }
 
-    Principal principal;
-    synchronized (usersPrincipals) {
-      principal = usersPrincipals.get(user);
+    // Most common case : principal leased, no need to ask the engine
+    PrincipalLease lease = usersPrincipals.get(user);
+    if (lease != null && !lease.isExpired()) {
+      return lease.getPrincipal();
+    }
+
+    return renewLease(user).getPrincipal();
+  }
+
+  /**
+   * Renew the lease of a user principal, sharing any renewal already in progress for this user
+   *
+   * @param user w4 user
+   * @return PrincipalLease renewed lease
+   */
+  private PrincipalLease renewLease(final User user) {
+    FutureTask<PrincipalLease> renewal = new FutureTask<PrincipalLease>(new Callable<PrincipalLease>() {
+      @Override
+      public PrincipalLease call() {
+        return doRenewLease(user);
+      }
+    });
 
+    FutureTask<PrincipalLease> pendingRenewal = pendingLogins.putIfAbsent(user, renewal);
+    if (pendingRenewal == null) {
+      pendingRenewal = renewal;
       try {
-        if (principal != null) {
-          if (authenticationService.getEnginePrincipalState(principal).equals(EnginePrincipalState.VALID)) {
-            logger.debug("No need to login, reuse existing valid principal for '{}'", principal.getName());
-            return principal;
-          } 
-          else {
-            logger.debug("Principal for '{}' found in cache, but not valid anymore", principal.getName());
-          }
+        renewal.run();
+      } finally {
+        pendingLogins.remove(user, renewal);
+      }
+    }
+
+    try {
+      return pendingRenewal.get();
+    } catch (InterruptedException iex) {
+      Thread.currentThread().interrupt();
+      throw new JMSModuleException("Interrupted while waiting for login against engine", iex);
+    } catch (ExecutionException eex) {
+      if (eex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) eex.getCause();
+      }
+      throw new JMSModuleException("Cannot login against engine", eex.getCause());
+    }
+  }
+
+  /**
+   * Validate the cached principal of a user or log him on
+   *
+   * @param user w4 user
+   * @return PrincipalLease new lease
+   */
+  private PrincipalLease doRenewLease(User user) {
+    // Read before the lease : logouts are counted before the lease is removed
+    long logouts = getLogouts(user);
+    PrincipalLease lease = usersPrincipals.get(user);
+    if (lease != null && !lease.isExpired()) {
+      // Renewed in the meantime
+      return lease;
+    }
+
+    try {
+      if (lease != null) {
+        Principal principal = lease.getPrincipal();
+        if (EnginePrincipalState.VALID.equals(authenticationService.getEnginePrincipalState(principal))) {
+          logger.debug("No need to login, reuse existing valid principal for '{}'", principal.getName());
+          return lease(user, lease, logouts, principal);
+        }
+        else {
+          logger.debug("Principal for '{}' found in cache, but not valid anymore", principal.getName());
+        }
+      }
+      logger.info("Log on {} to W4 BPMN+ Engine", user.getLogin());
+      return lease(user, lease, logouts, authenticationService.login(user.getLogin(), user.getPassword()));
+    } catch (CheckedException cex) {
+      logger.error("Error on login", cex);
+      throw new JMSModuleException("Cannot login against engine", cex);
+    } catch (RemoteException rex) {
+      logger.error("Error on login", rex);
+      throw new JMSModuleException("Cannot login against engine", rex);
+    }
+  }
+
+  /**
+   * Lease a principal to a user, unless the user has been logged out (or logged in again) since the renewal started
+   *
+   * @param user w4 user
+   * @param expected lease of the user when the renewal started (null if none)
+   * @param logouts number of logouts of the user when the renewal started
+   * @param principal authenticated user principal (validated or new)
+   * @return PrincipalLease new lease (or the lease of a login done meanwhile)
+   */
+  private PrincipalLease lease(User user, PrincipalLease expected, long logouts, Principal principal) {
+    PrincipalLease lease = new PrincipalLease(principal, System.nanoTime() + leaseTime);
+    boolean newSession = (expected == null || !principal.equals(expected.getPrincipal()));
+    PrincipalLease current = expected;
+    while (true) {
+      if (current == null ? usersPrincipals.putIfAbsent(user, lease) == null : usersPrincipals.replace(user, current, lease)) {
+        if (getLogouts(user) == logouts) {
+          return lease;
+        }
+        // Logged out before the lease was cached (eg. on first login) : uncache it
+        usersPrincipals.remove(user, lease);
+        break;
+      }
+      PrincipalLease concurrent = usersPrincipals.get(user);
+      if (concurrent == null && (current != null || getLogouts(user) != logouts)) {
+        // Logged out meanwhile
+        break;
+      }
+      if (concurrent != null && !principal.equals(concurrent.getPrincipal())) {
+        // Logged in again meanwhile : keep that principal
+        if (newSession) {
+          doLogout(principal);
         }
-        logger.info("Log on {} to W4 BPMN+ Engine", user.getLogin());
-        principal = authenticationService.login(user.getLogin(), user.getPassword());
-        usersPrincipals.put(user, principal);
-      } catch (CheckedException cex) {
-        logger.error("Error on login", cex);
-        throw new JMSModuleException("Cannot login against engine", cex);
-      } catch (RemoteException rex) {
-        logger.error("Error on login", rex);
-        throw new JMSModuleException("Cannot login against engine", rex);
+        return concurrent;
       }
+      // Invalidated meanwhile (same principal) : lease it again
+      current = concurrent;
+    }
+
+    // The principal must not be cached again
+    if (newSession) {
+      doLogout(principal);
+    }
+    throw new JMSModuleException("User " + user.getLogin() + " logged out while logging in");
+  }
+
+  /**
+   * Get the number of logouts of a user
+   *
+   * @param user w4 user
+   * @return long number of logouts
+   */
+  private long getLogouts(User user) {
+    AtomicLong logouts = usersLogouts.get(user);
+    return (logouts == null ? 0 : logouts.get());
+  }
+
+  /**
+   * Count a logout of a user, before its lease is removed
+   *
+   * @param user w4 user
+   */
+  private void countLogout(User user) {
+    AtomicLong logouts = usersLogouts.get(user);
+    if (logouts == null) {
+      AtomicLong created = new AtomicLong();
+      logouts = usersLogouts.putIfAbsent(user, created);
+      if (logouts == null) {
+        logouts = created;
+      }
+    }
+    logouts.incrementAndGet();
+  }
+
+  /**
+   * Force the principal of a user to be validated against the engine on next login (eg. after an error)
+   *
+   * @param user w4 user
+   */
+  public void invalidate(User user) {
+    if (user == null) {
+      return;
+    }
+    PrincipalLease lease = usersPrincipals.get(user);
+    if (lease != null && !lease.isExpired()) {
+      usersPrincipals.replace(user, lease, new PrincipalLease(lease.getPrincipal(), System.nanoTime()));
     }
-    return principal;
   }
 
   /**
@@ -89,27 +253,15 @@ public class ConnectionManager implements DisposableBean {
       return;
     }
 
-    synchronized (usersPrincipals) {
-      Principal principal = usersPrincipals.get(user);
-      if (principal == null) {
-        logger.debug("User {} cannot be found from cache (cannot log him out from W4 BPMN+ Engine)", user.getLogin());
-        return;
-      }
-
-      logger.info("Log out {} from W4 BPMN+ Engine", user.getLogin());
-      try {
-        usersPrincipals.remove(user);
-        authenticationService.logout(principal);
-      } catch (CheckedException cex) {
-        // Not an error if principal has already been logged out
-        //logger.error("Error on logout", cex);
-        //throw new JMSModuleException("Cannot sign out of the engine", cex);
-        logger.debug("Cannot logout ({})", cex.getClass().getName());
-      } catch (RemoteException rex) {
-        logger.error("Error on logout (remote access to the engine)", rex);
-        throw new JMSModuleException("Cannot sign out of the engine", rex);
-      }
+    countLogout(user);
+    PrincipalLease lease = usersPrincipals.remove(user);
+    if (lease == null) {
+      logger.debug("User {} cannot be found from cache (cannot log him out from W4 BPMN+ Engine)", user.getLogin());
+      return;
     }
+
+    logger.info("Log out {} from W4 BPMN+ Engine", user.getLogin());
+    doLogout(lease.getPrincipal());
   }
 
   /**
@@ -122,19 +274,26 @@ public class ConnectionManager implements DisposableBean {
       return;
     }
     logger.info("Log out {} from W4 BPMN+ Engine", principal.getName());
-    synchronized (usersPrincipals) {
-      try {
-        removePrincipal(principal);
-        authenticationService.logout(principal);
-      } catch (CheckedException cex) {
-        // Not an error if principal has already been logged out
-        //logger.error("Error on logout", cex);
-        //throw new JMSModuleException("Cannot sign out of the engine", cex);
-        logger.debug("Cannot logout ({})", cex.getClass().getName());
-      } catch (RemoteException rex) {
-        logger.error("Error on logout (remote access to the engine)", rex);
-        throw new JMSModuleException("Cannot sign out of the engine", rex);
-      }
+    removePrincipal(principal);
+    doLogout(principal);
+  }
+
+  /**
+   * Log out a principal from W4 BPMN+ Engine
+   *
+   * @param principal authenticated user principal
+   */
+  private void doLogout(Principal principal) {
+    try {
+      authenticationService.logout(principal);
+    } catch (CheckedException cex) {
+      // Not an error if principal has already been logged out
+      //logger.error("Error on logout", cex);
+      //throw new JMSModuleException("Cannot sign out of the engine", cex);
+      logger.debug("Cannot logout ({})", cex.getClass().getName());
+    } catch (RemoteException rex) {
+      logger.error("Error on logout (remote access to the engine)", rex);
+      throw new JMSModuleException("Cannot sign out of the engine", rex);
     }
   }
 
@@ -142,29 +301,60 @@ public class ConnectionManager implements DisposableBean {
    * Log out everybody from W4 BPMN+ Engine
    */
   private void logoutEverybody() {
-    for (Principal principal : usersPrincipals.values()) {
-      logout(principal);
+    for (PrincipalLease lease : new ArrayList<PrincipalLease>(usersPrincipals.values())) {
+      logout(lease.getPrincipal());
     }
   }
 
   /**
-   * Remove the entry having the principal for value
+   * Remove the entries having the principal for value
    *
    * @param principal Principal to remove
    */
   private void removePrincipal(Principal principal) {
-    Iterator<Entry<User, Principal>> entryIterator = usersPrincipals.entrySet().iterator();
+    Iterator<Entry<User, PrincipalLease>> entryIterator = usersPrincipals.entrySet().iterator();
     while (entryIterator.hasNext()) {
-      Entry<User, Principal> entry = entryIterator.next();
-      if (principal.equals(entry.getValue())) {
+      Entry<User, PrincipalLease> entry = entryIterator.next();
+      if (principal.equals(entry.getValue().getPrincipal())) {
+        countLogout(entry.getKey());
         entryIterator.remove();
-        break;
       }
     }
   }
 
+  /**
+   * Set the time during which a principal is reused without being validated against the engine
+   *
+   * @param leaseTime lease time (s), 0 to validate the principal on each login
+   */
+  @Value("${module.jms.principal.lease_time:" + DEFAULT_LEASE_TIME + "}")
+  public void setLeaseTime(long leaseTime) {
+    this.leaseTime = TimeUnit.SECONDS.toNanos(leaseTime);
+  }
+
   @Override
   public void destroy() throws Exception {
     logoutEverybody();
   }
+
+  /**
+   * Principal leased to a user until an expiration time
+   */
+  private static final class PrincipalLease {
+    private final Principal principal;
+    private final long expirationTime;
+
+    PrincipalLease(Principal principal, long expirationTime) {
+      this.principal = principal;
+      this.expirationTime = expirationTime;
+    }
+
+    Principal getPrincipal() {
+      return principal;
+    }
+
+    boolean isExpired() {
+      return System.nanoTime() - expirationTime >= 0;
+    }
+  }
 }
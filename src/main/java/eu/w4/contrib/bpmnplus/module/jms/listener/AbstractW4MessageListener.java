@@ -1,288 +1,757 @@
-package eu.w4.contrib.bpmnplus.module.jms.listener;
-
-import eu.w4.common.exception.CheckedException;
-import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
-import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
-import eu.w4.contrib.bpmnplus.module.jms.identification.User;
-import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsIdentifier;
-import eu.w4.engine.client.service.EngineService;
-import eu.w4.engine.client.service.ObjectFactory;
-import eu.w4.engine.client.service.ProcessService;
-import java.rmi.RemoteException;
-import java.security.Principal;
-import java.util.HashMap;
-import java.util.Map;
-import javax.jms.Session;
-import javax.jms.StreamMessage;
-import ma.glasnost.orika.BoundMapperFacade;
-import ma.glasnost.orika.MapperFactory;
-import ma.glasnost.orika.impl.DefaultMapperFactory;
-import ma.glasnost.orika.metadata.Type;
-import ma.glasnost.orika.metadata.TypeBuilder;
-import ma.glasnost.orika.metadata.TypeFactory;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.springframework.beans.factory.DisposableBean;
-import org.springframework.beans.factory.InitializingBean;
-import org.springframework.messaging.Message;
-
-/**
- * Abstract JMS messages listener and processor for W4. Should be thread safe.
- */
-public abstract class AbstractW4MessageListener implements InitializingBean, DisposableBean {
-
-  private static final Logger logger = LogManager.getLogger();
-
-  // Service to communicate with W4 BPMN+ engine
-  protected EngineService engineService;
-
-  // Principal and credentials to authenticate on W4 BPMN+ engine
-  private User engineUser;
-
-  // Process definition name
-  protected String definitionsIdentifierName;
-  protected DefinitionsIdentifier lastVersionDefIdentifier;
-
-  // Only one data entry
-  private String dataEntryId;
-
-  // Several data entries
-  private Map<String, String> dataEntriesMapping;
-
-  // W4 connection manager
-  private ConnectionManager connectionManager;
-  
-  /**
-   * Handle received message. Please note that ByteMessage (without object
-   * mapping) and StreamMessage are not managed by the listener.
-   *
-   * @param message Spring generic message representation of the JMS message.
-   * @param session The JMS Session if needed.
-   * @param jmsMessage the original JMS message if needed.
-   * @return String Message to send back or null if none
-   */
-  public String handle(Message<?> message, Session session, javax.jms.Message jmsMessage) {
-    if (message.getPayload() instanceof byte[] || message.getPayload() instanceof StreamMessage) {
-      throw new IllegalArgumentException("Message payload type cannot be processed by this listener (" + message.getPayload().getClass().getName() + ")");
-    }
-
-    logger.debug("Received message: {}", message.getPayload().toString());
-
-    // Extract data
-    Map<String, Object> dataEntries = mapPayloadToData(message.getPayload());
-
-    // Process W4 action
-    String returnedMessage = processW4Action(message.getHeaders(), dataEntries);
-
-    return returnedMessage;
-  }
-
-  /**
-   * Map payload to a Map of data
-   *
-   * @param payload Message payload to map
-   * @return Map&lt;String, Object&gt; payload representation
-   */
-  private Map<String, Object> mapPayloadToData(Object payload) {
-    // Build data entries map
-    Map<String, Object> dataEntries = null;
-
-    if (dataEntryId != null) {
-      dataEntries = new HashMap<String, Object>();
-      if (payload instanceof String || payload instanceof Map) {
-        dataEntries.put(dataEntryId, payload);
-      } else {
-        // Convert the object to a map (XSD type in W4)
-        dataEntries.put(dataEntryId, convertObjectToMap(payload));
-      }
-    } else if (dataEntriesMapping != null) {
-      if (!(payload instanceof Map)) {
-        throw new IllegalArgumentException("With dataEntries mappings defined, message payload should be of Map type.");
-      }
-      dataEntries = new HashMap<String, Object>();
-      for (String mappingKey : dataEntriesMapping.keySet()) {
-        dataEntries.put(dataEntriesMapping.get(mappingKey), ((Map) payload).get(mappingKey));
-      }
-    }
-    return dataEntries;
-  }
-
-  /**
-   * Convert an object to a Map
-   *
-   * @param object object to convert
-   * @return Map&lt;String, Object&gt; converted object
-   */
-  protected Map<String, Object> convertObjectToMap(Object object) {
-    Type objectType = TypeFactory.valueOf(object.getClass());
-    Type mapType = new TypeBuilder<Map<String, Object>>() {
-    }.build();
-
-    MapperFactory mapperFactory = new DefaultMapperFactory.Builder().build();
-    mapperFactory.classMap(objectType, mapType).byDefault().register();
-    BoundMapperFacade boundMapper = mapperFactory.getMapperFacade(objectType, mapType);
-    Map<String, Object> convertedObject = (Map<String, Object>) boundMapper.map(object);
-
-    return convertedObject;
-  }
-
-  /**
-   * Process a W4 action :
-   * <ul>
-   * <li>Log in to the engine</li>
-   * <li>Do process the action as an authenticated user</li>
-   * <li>Log out of the enfine</li>
-   * </ul>
-   *
-   * @param properties Set of properties if needed to process the action
-   * @param dataEntries data that should (can) be used by the action
-   * @return any message to send back
-   */
-  private String processW4Action(Map<String, Object> properties, Map<String, Object> dataEntries) {
-    
-    // LOGIN
-    Principal principal = connectionManager.login(engineUser);
-    
-    long timeBefore = System.currentTimeMillis();
-
-    // PROCESS
-    String returnedMessage = doProcessW4Action(principal, properties, dataEntries);
-
-    logger.debug("Message processed in {}ms", System.currentTimeMillis() - timeBefore);
-
-    // Could return something (eg. process instance id) if needed. If return
-    //  value is not null, reply-to channel will be used
-    return returnedMessage;
-  }
-
-  /**
-   * Implements the W4 action to process as the authenticated Principal
-   *
-   * @param principal Authenticated Principal
-   * @param properties Set of properties if needed to process the action
-   * @param dataEntries data that should (can) be used by the action
-   * @return anything to send back to the emitter (null if nothing to return)
-   */
-  protected abstract String doProcessW4Action(Principal principal, Map<String, Object> properties, Map<String, Object> dataEntries);
-
-  /**
-   * Get W4 process engine service
-   *
-   * @return ProcessService W4 process service
-   */
-  final protected ProcessService getProcessService() {
-    ProcessService processService = null;
-    try {
-      processService = engineService.getProcessService();
-    } catch (CheckedException cex) {
-      logger.error(cex.getMessage(), cex);
-      throw new JMSModuleException("Cannot retrieve process service", cex);
-    } catch (RemoteException rex) {
-      logger.error(rex.getMessage(), rex);
-      throw new JMSModuleException("Cannot retrieve process service", rex);
-    }
-    return processService;
-  }
-
-  /**
-   * Initialize listener
-   * <ul>
-   * <li>define the lastVersionDefIdentifier</li>
-   * </ul>
-   * Can be overridden if others initializations must be done
-   *
-   * @throws Exception an error occured
-   */
-  @Override
-  //@PostConstruct
-  public void afterPropertiesSet() throws Exception {
-    //Assert.notNull(engineService, "EngineService must be set");
-    assert engineService != null : "EngineService must be set";
-    assert engineUser != null : "User must be set";
-    assert definitionsIdentifierName != null : "Definitions identifier must be set";
-
-    try {
-      ObjectFactory factory = engineService.getObjectFactory();
-      this.lastVersionDefIdentifier = factory.newDefinitionsIdentifier();
-      this.lastVersionDefIdentifier.setId(definitionsIdentifierName);
-    } catch (CheckedException cex) {
-      logger.error(cex.getMessage(), cex);
-      throw new JMSModuleException("Cannot retrieve identifiers", cex);
-    } catch (RemoteException rex) {
-      logger.error(rex.getMessage(), rex);
-      throw new JMSModuleException("Cannot retrieve identifiers", rex);
-    }
-  }
-
-  /**
-   * Setter for W4 BPMN+ Engine service
-   *
-   * @param engineService W4 engine service
-   */
-  public void setEngineService(EngineService engineService) {
-    this.engineService = engineService;
-  }
-
-  /**
-   * Setter for user
-   * @param user the engine user to use
-   */
-  public void setEngineUser(User user) {
-    this.engineUser = user;
-    // TODO : need to logout if user change?
-  }
-
-  /**
-   * Setter for definitions identifier name
-   *
-   * @param definitionsIdentifier the name of the definitions identifier to set
-   */
-  public void setDefinitionsIdentifier(String definitionsIdentifier) {
-    this.definitionsIdentifierName = definitionsIdentifier;
-  }
-
-  /**
-   * Add a data entry mapping
-   *
-   * @param jms JMS message map entry id
-   * @param w4 W4 data entry id
-   */
-  public synchronized void addDataEntryMapping(String jms, String w4) {
-    if (this.dataEntriesMapping == null) {
-      this.dataEntriesMapping = new HashMap<String, String>();
-    }
-    this.dataEntriesMapping.put(jms, w4);
-  }
-
-  /**
-   * Set data entries mapping from JMS to W4
-   *
-   * @param dataEntriesMapping the data entries to set
-   */
-  public void setDataEntriesMapping(final Map<String, String> dataEntriesMapping) {
-    this.dataEntriesMapping = dataEntriesMapping;
-  }
-
-  /**
-   * Set the only one data entry id
-   *
-   * @param dataEntryId the dataEntryId to set
-   */
-  public void setDataEntryId(String dataEntryId) {
-    this.dataEntryId = dataEntryId;
-  }
-  
-  /**
-   * Set the W4 connection manager
-   * @param connectionManager ConnectionManager
-   */
-  public void setConnectionManager(ConnectionManager connectionManager) {
-    this.connectionManager = connectionManager;
-  }
-  
-  @Override
-  public void destroy() throws Exception {
-    logger.debug("Destroy listener ({})", this.getClass().getName());
-    connectionManager.logout(engineUser);
-  }
-}
+package eu.w4.contrib.bpmnplus.module.jms.listener;
+
+import eu.w4.common.exception.CheckedException;
+import eu.w4.contrib.bpmnplus.module.jms.audit.MessageAudit;
+import eu.w4.contrib.bpmnplus.module.jms.circuitbreaker.EngineCircuitBreaker;
+import eu.w4.contrib.bpmnplus.module.jms.deduplication.DeduplicationStore;
+import eu.w4.contrib.bpmnplus.module.jms.exception.EngineUnavailableException;
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.contrib.bpmnplus.module.jms.identification.User;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.DataEntriesMappingPlan;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.JmsPayloadReader;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ObjectToMapConverterCache;
+import eu.w4.contrib.bpmnplus.module.jms.metrics.EndpointMetrics;
+import eu.w4.contrib.bpmnplus.module.jms.reply.ReplySender;
+import eu.w4.contrib.bpmnplus.module.jms.spool.MessageSpool;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsIdentifier;
+import eu.w4.engine.client.service.EngineService;
+import eu.w4.engine.client.service.ObjectFactory;
+import eu.w4.engine.client.service.ProcessService;
+import java.rmi.RemoteException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jms.support.JmsHeaders;
+import org.springframework.messaging.Message;
+
+/**
+ * Abstract JMS messages listener and processor for W4. Should be thread safe.
+ */
+public abstract class AbstractW4MessageListener implements InitializingBean, DisposableBean {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final String JMS_MESSAGE_ID = "JMSMessageID";
+  private static final String JMSX_DELIVERY_COUNT = "JMSXDeliveryCount";
+  private static final String DEDUPLICATION_KEY_PAYLOAD_PREFIX = "payload:";
+  private static final long DEFAULT_MAX_PAYLOAD_SIZE = 10 * 1024 * 1024;
+
+  // Service to communicate with W4 BPMN+ engine
+  protected EngineService engineService;
+
+  // Principal and credentials to authenticate on W4 BPMN+ engine
+  private User engineUser;
+
+  // Process definition name
+  protected String definitionsIdentifierName;
+  protected DefinitionsIdentifier lastVersionDefIdentifier;
+
+  // Only one data entry
+  private String dataEntryId;
+
+  // Several data entries (payload path -> data entry id) and its compiled extraction plan
+  private Map<String, String> dataEntriesMapping;
+  private volatile DataEntriesMappingPlan dataEntriesMappingPlan;
+
+  // W4 connection manager
+  private ConnectionManager connectionManager;
+
+  // Circuit breaker around the calls to the engine (null if none)
+  private EngineCircuitBreaker circuitBreaker;
+
+  // Compiled object to map converters (shared by all listeners)
+  private ObjectToMapConverterCache converterCache;
+
+  // Latencies of the processing stages
+  private EndpointMetrics metrics;
+
+  // Keys of the messages already processed (null if duplicates are not suppressed)...
+  private DeduplicationStore deduplicationStore;
+  // ... given by a message header (JMS property) or by a payload field
+  private String deduplicationHeader = JmsHeaders.MESSAGE_ID;
+  private DataEntriesMappingPlan deduplicationKeyPlan;
+
+  // Local spool of the messages received while the engine is unavailable (null if not spooled)
+  private MessageSpool spool;
+
+  // Sender of the replies to the requests (null if the endpoint does not reply)
+  private ReplySender replySender;
+  // Deliveries after which an engine unavailability is replied as an error (0 : never)
+  private int replyMaxDeliveries = 0;
+
+  // Audit records of the messages (null if not audited)
+  private MessageAudit audit;
+
+  // Reader of the payloads not converted (BytesMessage, StreamMessage, MapMessage)
+  private JmsPayloadReader payloadReader = new JmsPayloadReader(DEFAULT_MAX_PAYLOAD_SIZE);
+  
+  /**
+   * Handle received message. Please note that binary payloads (BytesMessage, StreamMessage of byte arrays) can only
+   * be mapped to one data entry.
+   *
+   * @param message Spring generic message representation of the JMS message.
+   * @param session The JMS Session if needed.
+   * @param jmsMessage the original JMS message if needed.
+   * @return String always null : replies (reply mode) are sent asynchronously by the {@code ReplySender}
+   */
+  public String handle(Message<?> message, Session session, javax.jms.Message jmsMessage) {
+    process(prepare(message, jmsMessage));
+    return null;
+  }
+
+  /**
+   * Prepare the processing of a received message, by the thread consuming it : everything needed is read from the
+   * JMS message (payload, headers, reply destination), so that the processing does not use the message (nor its
+   * session) and can be handed off to another thread. Errors are reported when the message is processed.
+   *
+   * @param message Spring generic message representation of the JMS message.
+   * @param jmsMessage the original JMS message
+   * @return PreparedMessage message to process
+   */
+  public PreparedMessage prepare(Message<?> message, javax.jms.Message jmsMessage) {
+    logger.debug("Received message: {}", message.getPayload());
+    if (audit != null) {
+      audit.begin(jmsMessage, message.getPayload());
+    }
+    PreparedMessage prepared = new PreparedMessage(message.getHeaders());
+    try {
+      if (replySender != null && jmsMessage != null) {
+        prepared.replyTo = jmsMessage.getJMSReplyTo();
+        prepared.correlationId = ReplySender.getCorrelationId(jmsMessage);
+        prepared.deliveryCount = getDeliveryCount(jmsMessage);
+      }
+
+      // Skip messages already processed (eg. redelivered after a failure following their processing)
+      prepared.deduplicationKey = getDeduplicationKey(message);
+      if (prepared.deduplicationKey != null && deduplicationStore.contains(prepared.deduplicationKey)) {
+        prepared.duplicate = true;
+        return prepared;
+      }
+
+      // Extract data
+      prepared.dataEntries = mapPayloadToData(message.getPayload());
+      long conversionTime = System.nanoTime() - prepared.receptionTime;
+      metrics.getConversion().record(conversionTime);
+      MessageAudit.recordStage(EndpointMetrics.STAGE_CONVERSION, conversionTime);
+      if (prepared.dataEntries != null) {
+        MessageAudit.recordEntries(prepared.dataEntries.size());
+      }
+    } catch (JMSException jmse) {
+      prepared.failure = new JMSModuleException("Cannot read message headers", jmse);
+    } catch (RuntimeException rex) {
+      prepared.failure = rex;
+    }
+    return prepared;
+  }
+
+  /**
+   * Process a prepared message (by any thread) : the W4 action is processed, or the message spooled,
+   * and the reply is sent (reply mode). In reply mode, a request failing for another reason than the engine being
+   * unavailable is replied an error and acknowledged (not redelivered).
+   *
+   * @param prepared message prepared by its consumer
+   */
+  public void process(PreparedMessage prepared) {
+    // Skip messages already processed (also by another thread since the message was prepared)
+    String deduplicationKey = prepared.deduplicationKey;
+    if (deduplicationKey != null && (prepared.duplicate || deduplicationStore.contains(deduplicationKey))) {
+      logger.info("Message with key '{}' already processed : ignored", deduplicationKey);
+      if (audit != null) {
+        audit.end(MessageAudit.OUTCOME_DUPLICATE, deduplicationKey);
+      }
+      return;
+    }
+
+    String outcome = MessageAudit.OUTCOME_PROCESSED;
+    String result = null;
+    try {
+      if (prepared.failure != null) {
+        throw prepared.failure;
+      }
+
+      // Process W4 action (or spool the message if the engine is unavailable)
+      String returnedMessage = processOrSpool(prepared);
+      result = returnedMessage;
+
+      if (deduplicationKey != null) {
+        deduplicationStore.add(deduplicationKey);
+      }
+
+      // Spooled messages are replied once replayed
+      if (replySender != null && !prepared.spooled) {
+        replySender.reply(prepared.replyTo, prepared.correlationId, returnedMessage, null,
+                prepared.receptionTime, metrics.getReply());
+      }
+    } catch (RuntimeException rex) {
+      metrics.getTotal().recordError();
+      outcome = MessageAudit.OUTCOME_ERROR;
+      result = rex.getMessage();
+      // Redelivered messages may still succeed : only the last failure is replied
+      if (replySender != null && prepared.replyTo != null && isFinalFailure(prepared, rex)) {
+        replySender.reply(prepared.replyTo, prepared.correlationId, null, rex,
+                prepared.receptionTime, metrics.getReply());
+        if (!MessageSpool.isEngineUnavailable(rex)) {
+          // Each redelivery would fail and reply again : the error reply ends the request
+          logger.error("Message processing failed, error replied to {} : message acknowledged", prepared.replyTo, rex);
+          return;
+        }
+      }
+      throw rex;
+    } finally {
+      long totalTime = System.nanoTime() - prepared.receptionTime;
+      metrics.getTotal().record(totalTime);
+      if (audit != null) {
+        MessageAudit.recordStage(EndpointMetrics.STAGE_TOTAL, totalTime);
+        audit.end(outcome, result);
+      }
+    }
+  }
+
+  /**
+   * Process a W4 action, or spool the message (acknowledged, replayed later) if the engine is unavailable
+   *
+   * @param prepared message prepared by its consumer
+   * @return any message to send back (null if spooled)
+   */
+  private String processOrSpool(PreparedMessage prepared) {
+    if (spool == null) {
+      return processW4Action(prepared.properties, prepared.dataEntries);
+    }
+    if (!spool.isActive()) {
+      try {
+        return processW4Action(prepared.properties, prepared.dataEntries);
+      } catch (RuntimeException rex) {
+        if (!MessageSpool.isEngineUnavailable(rex)) {
+          throw rex;
+        }
+        spool.engineUnavailable();
+      }
+    }
+    spool.spool(prepared.properties, prepared.dataEntries, prepared.replyTo, prepared.correlationId);
+    prepared.spooled = true;
+    MessageAudit.recordSpooled();
+    logger.debug("Message spooled ({} message(s) to replay)", spool.getPendingMessages());
+    return null;
+  }
+
+  /**
+   * Is the failure of a message final : not caused by the engine being unavailable (a redelivery would fail again),
+   * or the last delivery allowed?
+   *
+   * @param prepared failed message
+   * @param error error of the processing
+   * @return true if no redelivery may process the message
+   */
+  private boolean isFinalFailure(PreparedMessage prepared, RuntimeException error) {
+    if (!MessageSpool.isEngineUnavailable(error)) {
+      return true;
+    }
+    return replyMaxDeliveries > 0 && prepared.deliveryCount >= replyMaxDeliveries;
+  }
+
+  /**
+   * Get the number of deliveries of a message (JMSXDeliveryCount, or guessed from JMSRedelivered if not supported)
+   *
+   * @param jmsMessage received message
+   * @return int number of deliveries, including this one
+   * @throws JMSException the message headers cannot be read
+   */
+  private static int getDeliveryCount(javax.jms.Message jmsMessage) throws JMSException {
+    if (jmsMessage.propertyExists(JMSX_DELIVERY_COUNT)) {
+      return jmsMessage.getIntProperty(JMSX_DELIVERY_COUNT);
+    }
+    return (jmsMessage.getJMSRedelivered() ? 2 : 1);
+  }
+
+  /**
+   * Get the key used to detect duplicates
+   *
+   * @param message received message
+   * @return String key of the message, null if duplicates are not suppressed (or no key is found)
+   */
+  private String getDeduplicationKey(Message<?> message) {
+    if (deduplicationStore == null) {
+      return null;
+    }
+    Object key;
+    if (deduplicationKeyPlan != null) {
+      key = deduplicationKeyPlan.extract(message.getPayload()).get(deduplicationHeader);
+    } else {
+      key = message.getHeaders().get(deduplicationHeader);
+    }
+    if (key == null) {
+      logger.debug("No deduplication key ({}) found for message", deduplicationHeader);
+      return null;
+    }
+    return key.toString();
+  }
+
+  /**
+   * Map payload to a Map of data
+   *
+   * @param payload Message payload to map
+   * @return Map&lt;String, Object&gt; payload representation
+   */
+  Map<String, Object> mapPayloadToData(Object payload) {
+    // Build data entries map
+    Map<String, Object> dataEntries = null;
+
+    boolean binary = (payload instanceof byte[]);
+    try {
+      // Payloads read straight from the message (not converted)
+      if (payload instanceof MapMessage) {
+        dataEntries = new HashMap<String, Object>();
+        if (dataEntryId != null) {
+          Map<String, Object> fields = new HashMap<String, Object>();
+          payloadReader.readMap((MapMessage) payload, fields, null);
+          dataEntries.put(dataEntryId, fields);
+        } else {
+          payloadReader.readMap((MapMessage) payload, dataEntries, dataEntriesMapping);
+        }
+        return dataEntries;
+      } else if (payload instanceof BytesMessage) {
+        payload = payloadReader.readBytes((BytesMessage) payload);
+        binary = true;
+      } else if (payload instanceof StreamMessage) {
+        payload = payloadReader.readStream((StreamMessage) payload);
+        binary = true;
+      }
+    } catch (JMSException jmse) {
+      throw new JMSModuleException("Cannot read message payload", jmse);
+    }
+
+    if (binary) {
+      if (dataEntryId == null) {
+        throw new IllegalArgumentException("Binary payload can only be mapped to one data entry (data_entry_id)");
+      }
+      dataEntries = new HashMap<String, Object>();
+      dataEntries.put(dataEntryId, payload);
+    } else if (dataEntryId != null) {
+      dataEntries = new HashMap<String, Object>();
+      if (payload instanceof String || payload instanceof Map) {
+        dataEntries.put(dataEntryId, payload);
+      } else {
+        // Convert the object to a map (XSD type in W4)
+        dataEntries.put(dataEntryId, convertObjectToMap(payload));
+      }
+    } else if (dataEntriesMappingPlan != null) {
+      dataEntries = dataEntriesMappingPlan.extract(payload);
+    }
+    return dataEntries;
+  }
+
+  /**
+   * Convert an object to a Map
+   *
+   * @param object object to convert
+   * @return Map&lt;String, Object&gt; converted object
+   */
+  protected Map<String, Object> convertObjectToMap(Object object) {
+    return converterCache.convert(object);
+  }
+
+  /**
+   * Process a W4 action :
+   * <ul>
+   * <li>Log in to the engine</li>
+   * <li>Do process the action as an authenticated user</li>
+   * <li>Log out of the enfine</li>
+   * </ul>
+   * Not processed if the engine circuit breaker is open.
+   *
+   * @param properties Set of properties if needed to process the action
+   * @param dataEntries data that should (can) be used by the action
+   * @return any message to send back
+   */
+  private String processW4Action(Map<String, Object> properties, Map<String, Object> dataEntries) {
+    if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+      throw new EngineUnavailableException("Engine circuit breaker open : message not processed");
+    }
+    
+    // LOGIN
+    long timeBefore = System.nanoTime();
+    Principal principal;
+    try {
+      principal = connectionManager.login(engineUser);
+    } catch (RuntimeException rex) {
+      metrics.getLogin().recordError();
+      // Wrong credentials of an endpoint must not stop the other endpoints
+      if (circuitBreaker != null && MessageSpool.isEngineUnavailable(rex)) {
+        circuitBreaker.recordFailure(engineUser);
+      }
+      throw rex;
+    }
+    long timeLogged = System.nanoTime();
+    metrics.getLogin().record(timeLogged - timeBefore);
+    MessageAudit.recordStage(EndpointMetrics.STAGE_LOGIN, timeLogged - timeBefore);
+
+    // PROCESS
+    String returnedMessage;
+    try {
+      returnedMessage = doProcessW4Action(principal, properties, dataEntries);
+    } catch (RuntimeException rex) {
+      metrics.getEngine().recordError();
+      // Principal may be the cause of the error : validate it on next login
+      connectionManager.invalidate(engineUser);
+      if (circuitBreaker != null && MessageSpool.isEngineUnavailable(rex)) {
+        circuitBreaker.recordFailure(engineUser);
+      }
+      throw rex;
+    }
+    if (circuitBreaker != null) {
+      circuitBreaker.recordSuccess();
+    }
+    long processingTime = System.nanoTime() - timeLogged;
+    metrics.getEngine().record(processingTime);
+    MessageAudit.recordStage(EndpointMetrics.STAGE_ENGINE, processingTime);
+
+    logger.debug("Message processed in {}ms", TimeUnit.NANOSECONDS.toMillis(processingTime));
+
+    // Returned value (eg. process instance id) is sent to the reply-to destination in reply mode
+    return returnedMessage;
+  }
+
+  /**
+   * Implements the W4 action to process as the authenticated Principal
+   *
+   * @param principal Authenticated Principal
+   * @param properties Set of properties if needed to process the action
+   * @param dataEntries data that should (can) be used by the action
+   * @return anything to send back to the emitter (null if nothing to return)
+   */
+  protected abstract String doProcessW4Action(Principal principal, Map<String, Object> properties, Map<String, Object> dataEntries);
+
+  /**
+   * Get W4 process engine service
+   *
+   * @return ProcessService W4 process service
+   */
+  final protected ProcessService getProcessService() {
+    ProcessService processService = null;
+    try {
+      processService = engineService.getProcessService();
+    } catch (CheckedException cex) {
+      logger.error(cex.getMessage(), cex);
+      throw new JMSModuleException("Cannot retrieve process service", cex);
+    } catch (RemoteException rex) {
+      logger.error(rex.getMessage(), rex);
+      throw new JMSModuleException("Cannot retrieve process service", rex);
+    }
+    return processService;
+  }
+
+  /**
+   * Initialize listener
+   * <ul>
+   * <li>define the lastVersionDefIdentifier</li>
+   * </ul>
+   * Can be overridden if others initializations must be done
+   *
+   * @throws Exception an error occured
+   */
+  @Override
+  //@PostConstruct
+  public void afterPropertiesSet() throws Exception {
+    //Assert.notNull(engineService, "EngineService must be set");
+    assert engineService != null : "EngineService must be set";
+    assert engineUser != null : "User must be set";
+    assert definitionsIdentifierName != null : "Definitions identifier must be set";
+
+    if (converterCache == null) {
+      logger.debug("No shared converters cache set, use a dedicated one");
+      converterCache = new ObjectToMapConverterCache();
+    }
+    if (metrics == null) {
+      metrics = new EndpointMetrics(null, null);
+    }
+
+    try {
+      ObjectFactory factory = engineService.getObjectFactory();
+      this.lastVersionDefIdentifier = factory.newDefinitionsIdentifier();
+      this.lastVersionDefIdentifier.setId(definitionsIdentifierName);
+    } catch (CheckedException cex) {
+      logger.error(cex.getMessage(), cex);
+      throw new JMSModuleException("Cannot retrieve identifiers", cex);
+    } catch (RemoteException rex) {
+      logger.error(rex.getMessage(), rex);
+      throw new JMSModuleException("Cannot retrieve identifiers", rex);
+    }
+  }
+
+  /**
+   * Setter for W4 BPMN+ Engine service
+   *
+   * @param engineService W4 engine service
+   */
+  public void setEngineService(EngineService engineService) {
+    this.engineService = engineService;
+  }
+
+  /**
+   * Setter for user
+   * @param user the engine user to use
+   */
+  public void setEngineUser(User user) {
+    this.engineUser = user;
+    // TODO : need to logout if user change?
+  }
+
+  /**
+   * Setter for definitions identifier name
+   *
+   * @param definitionsIdentifier the name of the definitions identifier to set
+   */
+  public void setDefinitionsIdentifier(String definitionsIdentifier) {
+    this.definitionsIdentifierName = definitionsIdentifier;
+  }
+
+  /**
+   * Add a data entry mapping
+   *
+   * @param jms JMS message map entry id
+   * @param w4 W4 data entry id
+   */
+  public synchronized void addDataEntryMapping(String jms, String w4) {
+    if (this.dataEntriesMapping == null) {
+      this.dataEntriesMapping = new LinkedHashMap<String, String>();
+    }
+    this.dataEntriesMapping.put(jms, w4);
+    this.dataEntriesMappingPlan = DataEntriesMappingPlan.compile(dataEntriesMapping);
+  }
+
+  /**
+   * Set data entries mapping from JMS to W4
+   *
+   * @param dataEntriesMapping the data entries to set (payload path -&gt; W4 data entry id)
+   */
+  public synchronized void setDataEntriesMapping(final Map<String, String> dataEntriesMapping) {
+    this.dataEntriesMapping = (dataEntriesMapping != null ? new LinkedHashMap<String, String>(dataEntriesMapping) : null);
+    this.dataEntriesMappingPlan = (dataEntriesMapping != null ? DataEntriesMappingPlan.compile(dataEntriesMapping) : null);
+  }
+
+  /**
+   * Set data entries mapping from JMS to W4 as a list of "path:data entry id" (comma separated),
+   * eg. "order.customer.id:CustomerId, order.lines[0].code:FirstLineCode"
+   *
+   * @param dataEntries the data entries to set
+   */
+  public void setDataEntries(String dataEntries) {
+    Map<String, String> mapping = new LinkedHashMap<String, String>();
+    for (String dataEntry : dataEntries.split(",")) {
+      if (dataEntry.trim().isEmpty()) {
+        continue;
+      }
+      int separator = dataEntry.lastIndexOf(':');
+      if (separator <= 0 || separator == dataEntry.length() - 1) {
+        throw new IllegalArgumentException("Data entry mapping '" + dataEntry.trim() + "' should be formatted as 'path:data entry id'");
+      }
+      mapping.put(dataEntry.substring(0, separator).trim(), dataEntry.substring(separator + 1).trim());
+    }
+    setDataEntriesMapping(mapping);
+  }
+
+  /**
+   * Get the keys of the payload used to build data entries and the deduplication key
+   *
+   * @return Set&lt;String&gt; mapped keys, null if the whole payload is used (only one data entry)
+   */
+  public Set<String> getMappedKeys() {
+    DataEntriesMappingPlan plan = dataEntriesMappingPlan;
+    if (dataEntryId != null || plan == null) {
+      return null;
+    }
+    Set<String> mappedKeys = new HashSet<String>(plan.getRootKeys());
+    DataEntriesMappingPlan keyPlan = deduplicationKeyPlan;
+    if (keyPlan != null) {
+      // The deduplication key is extracted from the converted payload too
+      mappedKeys.addAll(keyPlan.getRootKeys());
+    }
+    return mappedKeys;
+  }
+
+  /**
+   * Set the only one data entry id
+   *
+   * @param dataEntryId the dataEntryId to set
+   */
+  public void setDataEntryId(String dataEntryId) {
+    this.dataEntryId = dataEntryId;
+  }
+  
+  /**
+   * Set the W4 connection manager
+   * @param connectionManager ConnectionManager
+   */
+  public void setConnectionManager(ConnectionManager connectionManager) {
+    this.connectionManager = connectionManager;
+  }
+
+  /**
+   * Set the circuit breaker around the calls to the engine
+   * @param circuitBreaker EngineCircuitBreaker (null if none)
+   */
+  public void setCircuitBreaker(EngineCircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Set the cache of compiled object to map converters
+   * @param converterCache ObjectToMapConverterCache
+   */
+  public void setConverterCache(ObjectToMapConverterCache converterCache) {
+    this.converterCache = converterCache;
+  }
+  
+  /**
+   * Set the latencies of the processing stages (of the endpoint)
+   * @param metrics EndpointMetrics
+   */
+  public void setMetrics(EndpointMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Get the latencies of the processing stages (of the endpoint)
+   * @return EndpointMetrics
+   */
+  public EndpointMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * Set the store of the keys of the messages already processed, to suppress duplicates
+   * @param deduplicationStore DeduplicationStore (null to process all messages)
+   */
+  public void setDeduplicationStore(DeduplicationStore deduplicationStore) {
+    this.deduplicationStore = deduplicationStore;
+  }
+
+  /**
+   * Set the key used to detect duplicates : a JMS property name (JMSMessageID by default)
+   * or a payload path prefixed by "payload:" (eg. "payload:order.reference")
+   * @param deduplicationKey key of the messages
+   */
+  public void setDeduplicationKey(String deduplicationKey) {
+    if (deduplicationKey == null || JMS_MESSAGE_ID.equals(deduplicationKey)) {
+      this.deduplicationHeader = JmsHeaders.MESSAGE_ID;
+      this.deduplicationKeyPlan = null;
+    } else if (deduplicationKey.startsWith(DEDUPLICATION_KEY_PAYLOAD_PREFIX)) {
+      String path = deduplicationKey.substring(DEDUPLICATION_KEY_PAYLOAD_PREFIX.length()).trim();
+      this.deduplicationHeader = path;
+      this.deduplicationKeyPlan = DataEntriesMappingPlan.compile(Collections.singletonMap(path, path));
+    } else {
+      this.deduplicationHeader = deduplicationKey;
+      this.deduplicationKeyPlan = null;
+    }
+  }
+
+  /**
+   * Set the reader of the payloads not converted (BytesMessage, StreamMessage, MapMessage)
+   * @param payloadReader JmsPayloadReader
+   */
+  public void setPayloadReader(JmsPayloadReader payloadReader) {
+    this.payloadReader = payloadReader;
+  }
+
+  /**
+   * Set the audit of the messages
+   * @param audit MessageAudit (null if not audited)
+   */
+  public void setAudit(MessageAudit audit) {
+    this.audit = audit;
+  }
+
+  /**
+   * Set the sender of the replies (reply mode : result or error sent to the JMSReplyTo of the requests)
+   * @param replySender ReplySender (null if the endpoint does not reply)
+   */
+  public void setReplySender(ReplySender replySender) {
+    this.replySender = replySender;
+  }
+
+  /**
+   * Set the number of deliveries after which a message failing because the engine is unavailable is replied an error
+   * (the broker redelivery limit)
+   * @param replyMaxDeliveries number of deliveries, 0 to only reply errors which redeliveries would not solve
+   */
+  public void setReplyMaxDeliveries(int replyMaxDeliveries) {
+    this.replyMaxDeliveries = replyMaxDeliveries;
+  }
+
+  /**
+   * Set the local spool of the messages received while the engine is unavailable, and start replaying them
+   * @param spool MessageSpool (null to let the broker redeliver messages)
+   */
+  public void setSpool(MessageSpool spool) {
+    this.spool = spool;
+    if (spool != null) {
+      spool.start(new MessageSpool.Processor() {
+        @Override
+        public void process(MessageSpool.SpooledMessage message) {
+          long replayTime = System.nanoTime();
+          String result = processW4Action(message.getProperties(), message.getDataEntries());
+          if (replySender != null) {
+            replySender.reply(message.getReplyTo(), message.getCorrelationId(), result, null, replayTime, metrics.getReply());
+          }
+        }
+
+        @Override
+        public void deadLettered(MessageSpool.SpooledMessage message, RuntimeException error) {
+          if (replySender != null) {
+            replySender.reply(message.getReplyTo(), message.getCorrelationId(), null, error, System.nanoTime(), metrics.getReply());
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    logger.debug("Destroy listener ({})", this.getClass().getName());
+    if (spool != null) {
+      spool.close();
+    }
+    if (deduplicationStore != null) {
+      deduplicationStore.close();
+    }
+    // The principal of the user may be shared with other endpoints (listeners are also destroyed when an endpoint is
+    // reloaded) : users are logged out by the ConnectionManager when the module shuts down
+  }
+
+  /**
+   * Received message, read by its consumer and ready to be processed by any thread
+   */
+  public static final class PreparedMessage {
+    private final Map<String, Object> properties;
+    private final long receptionTime = System.nanoTime();
+    private Map<String, Object> dataEntries;
+    private String deduplicationKey;
+    private boolean duplicate;
+    private Destination replyTo;
+    private String correlationId;
+    private int deliveryCount = 1;
+    private boolean spooled;
+    // Error while reading the message, reported when processed
+    private RuntimeException failure;
+
+    private PreparedMessage(Map<String, Object> properties) {
+      this.properties = properties;
+    }
+  }
+}
@@ -1,8 +1,10 @@
 package eu.w4.contrib.bpmnplus.module.jms.listener;
 
+import eu.w4.contrib.bpmnplus.module.jms.circuitbreaker.EngineCircuitBreaker;
 import eu.w4.contrib.bpmnplus.module.jms.configuration.BpmnAction;
 import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
 import eu.w4.contrib.bpmnplus.module.jms.identification.User;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ObjectToMapConverterCache;
 import eu.w4.engine.client.service.EngineService;
 import java.util.Map;
 import javax.inject.Inject;
@@ -23,6 +25,12 @@ public class MessageListenerFactory {
   
   @Inject
   ConnectionManager connectionManager;
+
+  @Inject
+  ObjectToMapConverterCache converterCache;
+
+  @Inject
+  EngineCircuitBreaker circuitBreaker;
   
   /**
    * Get the appropriate listener
@@ -56,6 +64,8 @@ public class MessageListenerFactory {
     user.setPassword(enginePassword);
     listener.setEngineUser(user);
     listener.setConnectionManager(connectionManager);
+    listener.setConverterCache(converterCache);
+    listener.setCircuitBreaker(circuitBreaker);
     
     logger.debug("Listener properties : {}", properties);
     
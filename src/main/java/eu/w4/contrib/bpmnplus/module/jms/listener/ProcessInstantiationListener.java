@@ -32,7 +32,7 @@ public class ProcessInstantiationListener extends AbstractW4MessageListener {
   @Override
   protected String doProcessW4Action(Principal principal, Map<String, Object> properties, Map<String, Object> dataEntries) {
     // Info about process to instantiate and passed data entries
-    logger.info("Instantiate process ({}) for data entries: {}", processIdentifier.getId(), dataEntries.toString());
+    logger.debug("Instantiate process ({}) for data entries: {}", processIdentifier.getId(), dataEntries);
 
     ProcessInstanceIdentifier processInstanceId = null;
 
@@ -51,8 +51,8 @@ public class ProcessInstantiationListener extends AbstractW4MessageListener {
       throw new JMSModuleException(ree.getMessage(), ree);
     }
 
-    //return processInstanceId.getId().toString();
-    return null;
+    // Replied to the emitter (endpoints in reply mode)
+    return String.valueOf(processInstanceId.getId());
   }
   
   @Override
@@ -1,165 +1,316 @@
-package eu.w4.contrib.bpmnplus.module.jms.listener;
-
-import eu.w4.common.exception.CheckedException;
-import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
-import eu.w4.engine.client.bpmn.SignalNotFoundException;
-import eu.w4.engine.client.bpmn.w4.events.SignalIdentifier;
-import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsFilter;
-import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsIdentifier;
-import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsInfo;
-import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsInfoFilter;
-import eu.w4.engine.client.service.ObjectFactory;
-import java.rmi.RemoteException;
-import java.security.Principal;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-/**
- * Message processor that will trigger a BPMN signal.
- */
-public class SignalTriggeringListener extends AbstractW4MessageListener {
-
-  private static final Logger logger = LogManager.getLogger();
-
-  // Property (message header) used to get dynamic message name
-  private static final String PROPERTY_SIGNAL_NAME = "SignalName";
-  
-  // Signal identification
-  private String signalId;
-  private String defaultSignalName;
-  //private SignalIdentifier lastVersionSignalIdentifier;
-
-  @Override
-  protected String doProcessW4Action(Principal principal, Map<String, Object> properties, Map<String, Object> dataEntries) {
-    if (dataEntries != null && dataEntries.size() > 1) {
-      // FIXME we could do better!?
-      throw new IllegalArgumentException("There is more than 1 data entry. Don't know what to signal...");
-    }
-    
-    String signalName = defaultSignalName;
-    if (properties.containsKey(PROPERTY_SIGNAL_NAME)) {
-      signalName = (String) properties.get(PROPERTY_SIGNAL_NAME);
-    }
-    else {
-      // If not default signal name is set, it should be passed through properties
-      if (StringUtils.isBlank(signalName)) {
-        throw new JMSModuleException("Cannot trigger signal since no signal name has been received.");
-      }
-    }
-    
-    // Info about process to instantiate and passed data entries
-    logger.info("Trigger signal ({}) with payload: {}", signalName, dataEntries);
-    
-    // Get 1st dataEntry if any
-    Object payload = null;
-    if (dataEntries != null && dataEntries.size() > 0) {
-      payload = dataEntries.values().toArray()[0];
-    }
-    
-    try {
-      long timeBefore = System.currentTimeMillis();
-      
-      // Retrieve all versions of the signal identifier
-      Collection<SignalIdentifier> signalIdentifiers = getSignalIdentifiers(principal);
-      
-      // Trigger the signal for all versions of the identifier
-      //   TODO : could be an option or rely on a version defined in message header
-      int versionsSent = 0;
-      for (SignalIdentifier signalIdentifier : signalIdentifiers) {
-        logger.debug("Trigger signal for identifier {}, version {}", signalIdentifier.getId(), signalIdentifier.getDefinitionsIdentifier().getVersion());
-        try {
-          engineService.getEventService().triggerSignal(principal, signalIdentifier, signalName, payload);
-          versionsSent++;
-        } catch (SignalNotFoundException snfe) {
-          logger.debug("    signal not found (version {})", signalIdentifier.getDefinitionsIdentifier().getVersion());
-        }
-      }
-      
-      logger.debug("Signal triggered (for {} versions) in {}ms", versionsSent, System.currentTimeMillis() - timeBefore);
-    } catch (CheckedException cex) {
-      logger.error(cex.getMessage(), cex);
-    } catch (RemoteException rex) {
-      logger.error(rex.getMessage(), rex);
-    }
-
-    return null;
-  }
-
-  @Override
-  public void afterPropertiesSet() throws Exception {
-    super.afterPropertiesSet();
-    
-    assert StringUtils.isNoneBlank(signalId) : "Signal id must be set";
-    
-    logger.debug("signalId={}-defaultSignalName={}", signalId, defaultSignalName);
-    
-//    ObjectFactory factory = engineService.getObjectFactory();
-//    this.lastVersionSignalIdentifier = factory.newSignalIdentifier();
-//    this.lastVersionSignalIdentifier.setDefinitionsIdentifier(lastVersionDefIdentifier);
-//    this.lastVersionSignalIdentifier.setId(signalId);
-  }
-  
-  public void setSignalIdentifier(String signalId) {
-    this.signalId = signalId;
-  }
-
-  public void setSignalName(String signalName) {
-    this.defaultSignalName = signalName;
-  }
-
-  /**
-   * Retrieve all the versions of a signal identifier
-   * @param principal Principal of the connected user
-   */
-  private Collection<SignalIdentifier> getSignalIdentifiers(Principal principal) throws CheckedException, RemoteException {
-    List<SignalIdentifier> signalIdentifiers = new ArrayList<SignalIdentifier>();
-    
-    List<DefinitionsInfo> definitionsInfos = null;
-    try {
-      DefinitionsInfoFilter dif = engineService.getObjectFactory().newDefinitionsInfoFilter();
-      DefinitionsFilter df = engineService.getObjectFactory().newDefinitionsFilter();
-      df.definitionsIdLike(definitionsIdentifierName);
-      dif.and(df);
-      
-      definitionsInfos = engineService.getDefinitionsService().searchDefinitionsInfos(principal, null, dif, null, 0, Integer.MAX_VALUE);
-    } catch (CheckedException cex) {
-      logger.error(cex.getMessage(), cex);
-      throw cex;
-    } catch (RemoteException rex) {
-      logger.error(rex.getMessage(), rex);
-      throw rex;
-    }
-    
-    if (definitionsInfos != null) {
-      logger.debug("{} definitions (versions) found", definitionsInfos.size());
-      if (logger.isDebugEnabled()) {
-        for (DefinitionsInfo definitionInfo : definitionsInfos) {
-          logger.debug("\tDefinition id:{} - version:{}", definitionInfo.getDefinitionsIdentifier().getId(), definitionInfo.getDefinitionsIdentifier().getVersion());
-        }
-      }
-    }
-    else {
-      logger.warn("No definition found for name '{}'", definitionsIdentifierName);
-    }
-    
-    ObjectFactory factory = engineService.getObjectFactory();
-    for (DefinitionsInfo definitionInfo : definitionsInfos) {
-      DefinitionsIdentifier definitionIdentifier = factory.newDefinitionsIdentifier();
-      definitionIdentifier.setId(definitionInfo.getDefinitionsIdentifier().getId());
-      definitionIdentifier.setVersion(definitionInfo.getDefinitionsIdentifier().getVersion());
-      
-      SignalIdentifier signalIdentifier = factory.newSignalIdentifier();
-      signalIdentifier.setDefinitionsIdentifier(definitionIdentifier);
-      signalIdentifier.setId(signalId);
-      
-      signalIdentifiers.add(signalIdentifier);
-    }
-    
-    return signalIdentifiers;
-  }
-}
+package eu.w4.contrib.bpmnplus.module.jms.listener;
+
+import eu.w4.common.exception.CheckedException;
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
+import eu.w4.contrib.bpmnplus.module.jms.metrics.EndpointMetrics;
+import eu.w4.engine.client.bpmn.SignalNotFoundException;
+import eu.w4.engine.client.bpmn.w4.events.SignalIdentifier;
+import java.rmi.RemoteException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Message processor that will trigger a BPMN signal.
+ * The signal is triggered for every version of the definitions : a failure is only rethrown (message redelivered, or
+ * spooled if the engine is unavailable) if no version has been signalled, otherwise a redelivery would signal the
+ * other versions twice.
+ */
+public class SignalTriggeringListener extends AbstractW4MessageListener {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  // Property (message header) used to get dynamic message name
+  private static final String PROPERTY_SIGNAL_NAME = "SignalName";
+
+  private static final long DEFAULT_SIGNAL_VERSIONS_TTL = 60; //s
+
+  // Signals waiting for a thread (per thread) before the caller triggers them itself
+  private static final int SIGNAL_QUEUE_CAPACITY_FACTOR = 4;
+  
+  // Signal identification
+  private String signalId;
+  private String defaultSignalName;
+  //private SignalIdentifier lastVersionSignalIdentifier;
+
+  // Resolved versions of the signal
+  private long signalVersionsTtl = DEFAULT_SIGNAL_VERSIONS_TTL;
+  private SignalVersionIndex signalVersionIndex;
+
+  // Versions triggered concurrently (1 : one after another)
+  private int signalParallelism = 1;
+  private ThreadPoolExecutor signalExecutor;
+
+  @Override
+  protected String doProcessW4Action(Principal principal, Map<String, Object> properties, Map<String, Object> dataEntries) {
+    if (dataEntries != null && dataEntries.size() > 1) {
+      // FIXME we could do better!?
+      throw new IllegalArgumentException("There is more than 1 data entry. Don't know what to signal...");
+    }
+    
+    String signalName = defaultSignalName;
+    if (properties.containsKey(PROPERTY_SIGNAL_NAME)) {
+      signalName = (String) properties.get(PROPERTY_SIGNAL_NAME);
+    }
+    else {
+      // If not default signal name is set, it should be passed through properties
+      if (StringUtils.isBlank(signalName)) {
+        throw new JMSModuleException("Cannot trigger signal since no signal name has been received.");
+      }
+    }
+    
+    // Info about process to instantiate and passed data entries
+    logger.debug("Trigger signal ({}) with payload: {}", signalName, dataEntries);
+    
+    // Get 1st dataEntry if any
+    Object payload = null;
+    if (dataEntries != null && dataEntries.size() > 0) {
+      payload = dataEntries.values().toArray()[0];
+    }
+    
+    try {
+      long timeBefore = System.currentTimeMillis();
+      
+      // Retrieve all versions of the signal identifier
+      Collection<SignalIdentifier> signalIdentifiers = signalVersionIndex.getSignalIdentifiers(principal);
+      
+      // Trigger the signal for all versions of the identifier
+      //   TODO : could be an option or rely on a version defined in message header
+      int versionsSent;
+      if (signalExecutor == null || signalIdentifiers.size() <= 1) {
+        versionsSent = triggerSignalSequentially(principal, signalIdentifiers, signalName, payload);
+      }
+      else {
+        versionsSent = triggerSignalConcurrently(principal, signalIdentifiers, signalName, payload);
+      }
+
+      // Signal not found at all : versions may have been deployed since last refresh
+      if (versionsSent == 0) {
+        signalVersionIndex.invalidate();
+      }
+      
+      logger.debug("Signal triggered (for {} versions) in {}ms", versionsSent, System.currentTimeMillis() - timeBefore);
+    } catch (CheckedException cex) {
+      logger.error(cex.getMessage(), cex);
+      // Not acknowledged : redelivered by the broker, or spooled if the engine is unavailable
+      throw new JMSModuleException(cex.getMessage(), cex);
+    } catch (RemoteException rex) {
+      logger.error(rex.getMessage(), rex);
+      throw new JMSModuleException(rex.getMessage(), rex);
+    }
+
+    return null;
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    super.afterPropertiesSet();
+    
+    assert StringUtils.isNoneBlank(signalId) : "Signal id must be set";
+    
+    logger.debug("signalId={}-defaultSignalName={}-signalVersionsTtl={}s", signalId, defaultSignalName, signalVersionsTtl);
+
+    this.signalVersionIndex = createSignalVersionIndex();
+
+    if (signalParallelism > 1) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-signal-" + definitionsIdentifierName + "-");
+      threadFactory.setDaemon(true);
+      this.signalExecutor = new ThreadPoolExecutor(signalParallelism, signalParallelism, 60L, TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(signalParallelism * SIGNAL_QUEUE_CAPACITY_FACTOR), threadFactory,
+              new ThreadPoolExecutor.CallerRunsPolicy());
+      this.signalExecutor.allowCoreThreadTimeOut(true);
+    }
+    
+//    ObjectFactory factory = engineService.getObjectFactory();
+//    this.lastVersionSignalIdentifier = factory.newSignalIdentifier();
+//    this.lastVersionSignalIdentifier.setDefinitionsIdentifier(lastVersionDefIdentifier);
+//    this.lastVersionSignalIdentifier.setId(signalId);
+  }
+  
+  /**
+   * Create the index of the versions of the signal
+   * @return SignalVersionIndex index
+   */
+  SignalVersionIndex createSignalVersionIndex() {
+    return new SignalVersionIndex(engineService, definitionsIdentifierName, signalId, TimeUnit.SECONDS.toMillis(signalVersionsTtl));
+  }
+
+  public void setSignalIdentifier(String signalId) {
+    this.signalId = signalId;
+  }
+
+  public void setSignalName(String signalName) {
+    this.defaultSignalName = signalName;
+  }
+
+  /**
+   * Set the number of versions triggered concurrently
+   * @param signalParallelism number of concurrent triggers, 1 to trigger versions one after another
+   */
+  public void setSignalParallelism(int signalParallelism) {
+    this.signalParallelism = signalParallelism;
+  }
+
+  /**
+   * Get the latencies of signals triggers per version (count, mean and max), exposed through JMX with the latencies
+   * of the endpoint
+   * @return Map&lt;String, String&gt; latencies per version
+   */
+  public Map<String, String> getVersionsLatencies() {
+    return getMetrics().getSignalVersions().getLatencies();
+  }
+
+  /**
+   * Trigger the signal for one version
+   * @param principal Principal of the connected user
+   * @param signalIdentifier signal identifier of the version
+   * @param signalName name of the signal
+   * @param payload signal payload
+   * @return true if the signal has been sent, false if not found in this version
+   */
+  private boolean triggerSignal(Principal principal, SignalIdentifier signalIdentifier, String signalName, Object payload) throws CheckedException, RemoteException {
+    String version = String.valueOf(signalIdentifier.getDefinitionsIdentifier().getVersion());
+    logger.debug("Trigger signal for identifier {}, version {}", signalIdentifier.getId(), version);
+
+    long timeBefore = System.nanoTime();
+    try {
+      engineService.getEventService().triggerSignal(principal, signalIdentifier, signalName, payload);
+      return true;
+    } catch (SignalNotFoundException snfe) {
+      logger.debug("    signal not found (version {})", version);
+      // No need to trigger this version anymore (until next refresh)
+      signalVersionIndex.remove(signalIdentifier);
+      return false;
+    } finally {
+      getMetrics().getSignalVersions().record(version, System.nanoTime() - timeBefore);
+    }
+  }
+
+  /**
+   * Trigger the signal for all versions one after another
+   * @param principal Principal of the connected user
+   * @param signalIdentifiers signal identifiers of all versions
+   * @param signalName name of the signal
+   * @param payload signal payload
+   * @return number of versions the signal has been sent to
+   */
+  private int triggerSignalSequentially(Principal principal, Collection<SignalIdentifier> signalIdentifiers, String signalName, Object payload) throws CheckedException, RemoteException {
+    int versionsSent = 0;
+    for (SignalIdentifier signalIdentifier : signalIdentifiers) {
+      try {
+        if (triggerSignal(principal, signalIdentifier, signalName, payload)) {
+          versionsSent++;
+        }
+      } catch (Exception ex) {
+        if (versionsSent == 0) {
+          // Nothing signalled yet : the message can be redelivered
+          throw ex;
+        }
+        logPartialFailure(signalName, versionsSent, ex);
+      }
+    }
+    return versionsSent;
+  }
+
+  private void logPartialFailure(String signalName, int versionsSent, Throwable failure) {
+    logger.error("Signal {} sent to {} version(s) but failed for another one : message not redelivered", signalName, versionsSent, failure);
+  }
+
+  /**
+   * Trigger the signal for all versions concurrently
+   * @param principal Principal of the connected user
+   * @param signalIdentifiers signal identifiers of all versions
+   * @param signalName name of the signal
+   * @param payload signal payload
+   * @return number of versions the signal has been sent to
+   */
+  private int triggerSignalConcurrently(final Principal principal, Collection<SignalIdentifier> signalIdentifiers, final String signalName, final Object payload) throws CheckedException, RemoteException {
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(signalIdentifiers.size());
+    for (final SignalIdentifier signalIdentifier : signalIdentifiers) {
+      results.add(signalExecutor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return triggerSignal(principal, signalIdentifier, signalName, payload);
+        }
+      }));
+    }
+
+    int versionsSent = 0;
+    Throwable failure = null;
+    for (Future<Boolean> result : results) {
+      try {
+        if (result.get()) {
+          versionsSent++;
+        }
+      } catch (ExecutionException eex) {
+        if (failure == null) {
+          failure = eex.getCause();
+        }
+        else {
+          logger.error(eex.getCause().getMessage(), eex.getCause());
+        }
+      } catch (InterruptedException iex) {
+        Thread.currentThread().interrupt();
+        throw new JMSModuleException("Interrupted while triggering signal", iex);
+      }
+    }
+
+    if (failure != null && versionsSent > 0) {
+      logPartialFailure(signalName, versionsSent, failure);
+      return versionsSent;
+    }
+    if (failure instanceof CheckedException) {
+      throw (CheckedException) failure;
+    }
+    if (failure instanceof RemoteException) {
+      throw (RemoteException) failure;
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    if (failure != null) {
+      throw new JMSModuleException(failure);
+    }
+    return versionsSent;
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    super.destroy();
+    if (signalExecutor != null) {
+      signalExecutor.shutdown();
+    }
+    logger.debug("Signal {} latencies per version: {}", signalId, getVersionsLatencies());
+  }
+
+  /**
+   * Set the time to live of resolved signal versions
+   * @param signalVersionsTtl time to live (s), 0 to resolve versions for each message
+   */
+  public void setSignalVersionsTtl(long signalVersionsTtl) {
+    this.signalVersionsTtl = signalVersionsTtl;
+  }
+
+  /**
+   * Set the latencies of the endpoint, measuring the signal triggers per version too
+   * @param metrics EndpointMetrics
+   */
+  @Override
+  public void setMetrics(EndpointMetrics metrics) {
+    super.setMetrics(metrics);
+    // Created before the latencies of the endpoint are registered through JMX
+    metrics.getSignalVersions();
+  }
+}
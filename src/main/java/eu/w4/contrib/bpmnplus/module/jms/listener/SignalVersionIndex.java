@@ -0,0 +1,178 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener;
+
+import eu.w4.common.exception.CheckedException;
+import eu.w4.engine.client.bpmn.w4.events.SignalIdentifier;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsFilter;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsIdentifier;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsInfo;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsInfoFilter;
+import eu.w4.engine.client.service.EngineService;
+import eu.w4.engine.client.service.ObjectFactory;
+import java.rmi.RemoteException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Index of all the versions of a signal (one signal identifier per deployed definitions version).
+ * The index is resolved once and reused until its time to live expires. Only one thread refreshes
+ * an expired index, others keep using the current one meanwhile. Without time to live, versions are resolved for
+ * each message, concurrently (no index is kept). Should be thread safe.
+ */
+class SignalVersionIndex {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private final EngineService engineService;
+  private final String definitionsIdentifierName;
+  private final String signalId;
+
+  // Time to live of the index (ms), 0 to resolve versions for each message
+  private final long timeToLive;
+
+  // Current (immutable) index and its expiration time
+  private volatile List<SignalIdentifier> signalIdentifiers;
+  private volatile long expirationTime;
+
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+
+  /**
+   * Default constructor
+   * @param engineService W4 engine service
+   * @param definitionsIdentifierName name of the definitions holding the signal
+   * @param signalId id of the signal
+   * @param timeToLive time to live of the index (ms)
+   */
+  SignalVersionIndex(EngineService engineService, String definitionsIdentifierName, String signalId, long timeToLive) {
+    this.engineService = engineService;
+    this.definitionsIdentifierName = definitionsIdentifierName;
+    this.signalId = signalId;
+    this.timeToLive = timeToLive;
+  }
+
+  /**
+   * Get all the versions of the signal identifier, resolve them if needed
+   * @param principal Principal of the connected user
+   * @return List&lt;SignalIdentifier&gt; signal identifiers (one per version)
+   * @throws CheckedException an error occured while resolving versions
+   * @throws RemoteException communication error with the engine
+   */
+  List<SignalIdentifier> getSignalIdentifiers(Principal principal) throws CheckedException, RemoteException {
+    if (timeToLive <= 0) {
+      // Not cached : resolved by each consumer on its own
+      return resolve(principal);
+    }
+
+    List<SignalIdentifier> current = signalIdentifiers;
+    if (current == null) {
+      // Nothing to serve yet : wait for the resolution
+      synchronized (this) {
+        if (signalIdentifiers == null) {
+          refresh(principal);
+        }
+        return signalIdentifiers;
+      }
+    }
+
+    if (System.currentTimeMillis() >= expirationTime && refreshing.compareAndSet(false, true)) {
+      try {
+        refresh(principal);
+      } catch (CheckedException cex) {
+        logger.warn("Cannot refresh versions of signal {}, keep using the current ones", signalId, cex);
+      } catch (RemoteException rex) {
+        logger.warn("Cannot refresh versions of signal {}, keep using the current ones", signalId, rex);
+      } finally {
+        refreshing.set(false);
+      }
+      return signalIdentifiers;
+    }
+    return current;
+  }
+
+  /**
+   * Remove a version from the index (eg. the signal is not found in this version anymore).
+   * It will be reconsidered on next refresh.
+   * @param signalIdentifier signal identifier to remove
+   */
+  synchronized void remove(SignalIdentifier signalIdentifier) {
+    List<SignalIdentifier> current = signalIdentifiers;
+    if (current == null || !current.contains(signalIdentifier)) {
+      return;
+    }
+    List<SignalIdentifier> updated = new ArrayList<SignalIdentifier>(current);
+    updated.remove(signalIdentifier);
+    signalIdentifiers = Collections.unmodifiableList(updated);
+  }
+
+  /**
+   * Force the index to be refreshed on next access
+   */
+  void invalidate() {
+    expirationTime = 0;
+  }
+
+  /**
+   * Resolve all the versions of the signal identifier and index them.
+   * Resolved without holding the lock, indexed under it so that concurrent removals are not interleaved.
+   * @param principal Principal of the connected user
+   */
+  private void refresh(Principal principal) throws CheckedException, RemoteException {
+    List<SignalIdentifier> resolved = resolve(principal);
+    synchronized (this) {
+      signalIdentifiers = resolved;
+      expirationTime = System.currentTimeMillis() + timeToLive;
+    }
+  }
+
+  /**
+   * Resolve all the versions of the signal identifier
+   * @param principal Principal of the connected user
+   * @return List&lt;SignalIdentifier&gt; signal identifiers (one per version, immutable)
+   */
+  List<SignalIdentifier> resolve(Principal principal) throws CheckedException, RemoteException {
+    List<DefinitionsInfo> definitionsInfos = null;
+    try {
+      DefinitionsInfoFilter dif = engineService.getObjectFactory().newDefinitionsInfoFilter();
+      DefinitionsFilter df = engineService.getObjectFactory().newDefinitionsFilter();
+      df.definitionsIdLike(definitionsIdentifierName);
+      dif.and(df);
+
+      definitionsInfos = engineService.getDefinitionsService().searchDefinitionsInfos(principal, null, dif, null, 0, Integer.MAX_VALUE);
+    } catch (CheckedException cex) {
+      logger.error(cex.getMessage(), cex);
+      throw cex;
+    } catch (RemoteException rex) {
+      logger.error(rex.getMessage(), rex);
+      throw rex;
+    }
+
+    List<SignalIdentifier> resolved = new ArrayList<SignalIdentifier>();
+    if (definitionsInfos != null) {
+      logger.debug("{} definitions (versions) found", definitionsInfos.size());
+
+      ObjectFactory factory = engineService.getObjectFactory();
+      for (DefinitionsInfo definitionInfo : definitionsInfos) {
+        logger.debug("\tDefinition id:{} - version:{}", definitionInfo.getDefinitionsIdentifier().getId(), definitionInfo.getDefinitionsIdentifier().getVersion());
+
+        DefinitionsIdentifier definitionIdentifier = factory.newDefinitionsIdentifier();
+        definitionIdentifier.setId(definitionInfo.getDefinitionsIdentifier().getId());
+        definitionIdentifier.setVersion(definitionInfo.getDefinitionsIdentifier().getVersion());
+
+        SignalIdentifier signalIdentifier = factory.newSignalIdentifier();
+        signalIdentifier.setDefinitionsIdentifier(definitionIdentifier);
+        signalIdentifier.setId(signalId);
+
+        resolved.add(signalIdentifier);
+      }
+    }
+    else {
+      logger.warn("No definition found for name '{}'", definitionsIdentifierName);
+    }
+
+    return Collections.unmodifiableList(resolved);
+  }
+}
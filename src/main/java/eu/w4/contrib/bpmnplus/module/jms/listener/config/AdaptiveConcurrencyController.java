@@ -0,0 +1,123 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import eu.w4.contrib.bpmnplus.module.jms.metrics.StageLatency;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Controller that adjusts the maximum number of consumers of a container to the engine capacity (AIMD) :
+ * <ul>
+ * <li>the limit is decreased (multiplicatively) when the engine latency (p99) exceeds the target or when
+ * the engine error rate is too high</li>
+ * <li>the limit is increased (by one consumer) when all the allowed consumers are in use and the engine is healthy</li>
+ * </ul>
+ * The limit stays within the configured bounds. It is read from the container before each decision and applied as the
+ * adaptive limit of the container, a ramp-up ceiling (startup, circuit breaker) capping it without being overwritten ;
+ * the limit is not increased while capped. Meant to be run periodically by a single thread.
+ */
+public class AdaptiveConcurrencyController implements Runnable {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final double DECREASE_FACTOR = 0.75;
+  private static final double MAXIMUM_ERROR_RATE = 0.05;
+
+  private final W4MessageListenerContainer container;
+  private final StageLatency engineLatency;
+
+  private final int minimumConsumers;
+  private final int maximumConsumers;
+  // p99 engine latency target (us)
+  private final long latencyTarget;
+
+  private long lastErrors;
+
+  /**
+   * Default constructor
+   * @param container controlled container
+   * @param engineLatency latency of the engine calls of the endpoint
+   * @param minimumConsumers lowest limit
+   * @param maximumConsumers highest limit
+   * @param latencyTarget p99 engine latency target (ms)
+   */
+  public AdaptiveConcurrencyController(W4MessageListenerContainer container, StageLatency engineLatency,
+          int minimumConsumers, int maximumConsumers, long latencyTarget) {
+    if (minimumConsumers < 1 || maximumConsumers < minimumConsumers) {
+      throw new IllegalArgumentException("Adaptive concurrency bounds should verify 1 <= minimum <= maximum (found "
+              + minimumConsumers + "-" + maximumConsumers + ")");
+    }
+    if (latencyTarget <= 0) {
+      throw new IllegalArgumentException("Adaptive concurrency latency target should be positive (found " + latencyTarget + ")");
+    }
+    this.container = container;
+    this.engineLatency = engineLatency;
+    this.minimumConsumers = minimumConsumers;
+    this.maximumConsumers = maximumConsumers;
+    this.latencyTarget = TimeUnit.MILLISECONDS.toMicros(latencyTarget);
+    this.lastErrors = engineLatency.getErrors();
+  }
+
+  @Override
+  public void run() {
+    try {
+      adjust();
+    } catch (RuntimeException rex) {
+      logger.warn("Cannot adjust concurrency of the consumers of {}", container.getDestinationName(), rex);
+    }
+  }
+
+  /**
+   * Adjust the limit of consumers to the engine latency and error rate observed since the previous adjustment
+   */
+  void adjust() {
+    Histogram window = engineLatency.drainWindow();
+    long errors = engineLatency.getErrors();
+    long newErrors = Math.max(0, errors - lastErrors);
+    lastErrors = errors;
+
+    if (!container.isRunning()) {
+      return;
+    }
+    long calls = window.getTotalCount() + newErrors;
+    if (calls == 0) {
+      // Idle : nothing to learn
+      return;
+    }
+
+    double errorRate = (double) newErrors / calls;
+    long p99 = (window.getTotalCount() > 0 ? window.getValueAtPercentile(99) : 0);
+
+    int current = getLimit();
+    int next = current;
+    if (errorRate > MAXIMUM_ERROR_RATE || p99 > latencyTarget) {
+      next = Math.max(minimumConsumers, (int) Math.floor(current * DECREASE_FACTOR));
+    } else if (container.getMaxConcurrentConsumers() >= current && container.getScheduledConsumerCount() >= current) {
+      // All the allowed consumers are busy (and not capped by a ramp-up)
+      next = Math.min(maximumConsumers, current + 1);
+    }
+
+    if (next != current) {
+      logger.info("Concurrency of the consumers of {} : {} -> {} (engine p99 {}us, error rate {}%)",
+              container.getDestinationName(), current, next, p99, Math.round(errorRate * 100));
+      apply(next);
+    }
+  }
+
+  /**
+   * Apply a new limit to the container (the concurrent consumers being kept lower by the container)
+   * @param consumers maximum number of consumers
+   */
+  private void apply(int consumers) {
+    container.setConcurrencyLimit(consumers);
+  }
+
+  /**
+   * Get the current maximum number of consumers, as set on the container (configured maximum until adjusted)
+   * @return int limit
+   */
+  public int getLimit() {
+    return Math.max(minimumConsumers, Math.min(maximumConsumers, container.getTargetMaxConcurrentConsumers()));
+  }
+}
@@ -0,0 +1,83 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Progressive start of a container : consumption starts with one consumer, then the ceiling of the container is
+ * doubled at each step until its maximum concurrency is reached, so that the engine is not flooded by all the consumers
+ * at once. The ramp only caps the concurrency owned by the container (configured maximum or adaptive limit), which is
+ * read at each step ; a ramp started later on the same container (eg. by the circuit breaker) takes over.
+ */
+public class ConcurrencyRamp implements Runnable {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private final W4MessageListenerContainer container;
+
+  private ScheduledExecutorService scheduler;
+  private long stepInterval;
+  // Current ceiling, 0 once the ramp is over
+  private int ceiling;
+
+  /**
+   * Default constructor
+   * @param container container to start
+   */
+  public ConcurrencyRamp(W4MessageListenerContainer container) {
+    this.container = container;
+  }
+
+  /**
+   * Start the container with one consumer and schedule the next steps
+   * @param scheduler scheduler of the steps
+   * @param stepInterval interval between two steps (ms), 0 to start the container with its maximum concurrency at once
+   */
+  public synchronized void start(ScheduledExecutorService scheduler, long stepInterval) {
+    this.scheduler = scheduler;
+    this.stepInterval = stepInterval;
+    this.ceiling = (stepInterval > 0 && container.getTargetMaxConcurrentConsumers() > 1 ? 1 : 0);
+    container.startConcurrencyRamp(this, ceiling);
+    container.start();
+    logger.info("Consumption of destination {} started with {} consumer(s)", container.getDestinationName(), container.getMaxConcurrentConsumers());
+    scheduleNextStep();
+  }
+
+  @Override
+  public synchronized void run() {
+    if (!container.isRunning()) {
+      // Stopped in the meantime : lift the ceiling (unless another ramp took over)
+      if (container.stepConcurrencyRamp(this, 0)) {
+        ceiling = 0;
+      }
+      return;
+    }
+    int next = ceiling * 2;
+    if (next >= container.getTargetMaxConcurrentConsumers()) {
+      next = 0;
+    }
+    if (!container.stepConcurrencyRamp(this, next)) {
+      logger.debug("Consumption of destination {} ramped up by another ramp", container.getDestinationName());
+      return;
+    }
+    ceiling = next;
+    logger.debug("Consumption of destination {} ramped up to {} consumer(s)", container.getDestinationName(), container.getMaxConcurrentConsumers());
+    scheduleNextStep();
+  }
+
+  private void scheduleNextStep() {
+    if (ceiling > 0) {
+      scheduler.schedule(this, stepInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Get the current ceiling of the ramp
+   * @return int ceiling, 0 once the ramp is over
+   */
+  public synchronized int getCeiling() {
+    return ceiling;
+  }
+}
@@ -1,36 +1,179 @@
 package eu.w4.contrib.bpmnplus.module.jms.listener.config;
 
+import eu.w4.contrib.bpmnplus.module.jms.circuitbreaker.EngineCircuitBreaker;
+import eu.w4.contrib.bpmnplus.module.jms.metrics.EndpointMetrics;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.config.JmsListenerEndpoint;
 import org.springframework.jms.listener.DefaultMessageListenerContainer;
 import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * Subclass of {@code org.springframework.jms.config.DefaultJmsListenerContainerFactory} that register created containers 
  *  as a managed resource through an existing MBeanExporter.
+ * Created containers are {@code W4MessageListenerContainer}s. Latencies of the endpoints (if any) are registered too.
+ * Containers of endpoints with adaptive concurrency are periodically adjusted by an {@code AdaptiveConcurrencyController}.
+ * Containers of endpoints without spool are stopped by the {@code EngineCircuitBreaker} while the engine is unavailable.
+ * Containers can be released (eg. endpoint removed on configuration reload) : they are then shut down, unregistered
+ * and their listener destroyed.
  */
 public class JmxAwareJmsListenerContainerFactory extends org.springframework.jms.config.DefaultJmsListenerContainerFactory implements DisposableBean {
+  private static final Logger logger = LogManager.getLogger();
+
   @Autowired(required = false)
   private MBeanExporter mbeanExporter;
+
+  @Autowired(required = false)
+  private EngineCircuitBreaker circuitBreaker;
   
   Set<Object> messageListeners = Collections.synchronizedSet(new HashSet<Object>());
+
+  // Interval between two adjustments of the adaptive concurrency (ms)
+  private long concurrencyControlInterval = 5000;
+  private ScheduledExecutorService concurrencyControllers;
+
+  // Managed resources and concurrency controller of each container (to be released)
+  private final Map<DefaultMessageListenerContainer, List<ObjectName>> managedResources = new ConcurrentHashMap<DefaultMessageListenerContainer, List<ObjectName>>();
+  private final Map<DefaultMessageListenerContainer, ScheduledFuture<?>> concurrencyControls = new ConcurrentHashMap<DefaultMessageListenerContainer, ScheduledFuture<?>>();
   
+  @Override
+  protected DefaultMessageListenerContainer createContainerInstance() {
+    return new W4MessageListenerContainer();
+  }
+
   @Override
   public DefaultMessageListenerContainer createListenerContainer(JmsListenerEndpoint endpoint) {
     DefaultMessageListenerContainer container = super.createListenerContainer(endpoint);
     messageListeners.add(container.getMessageListener());
     if (mbeanExporter != null) {
-      mbeanExporter.registerManagedResource(container);
+      List<ObjectName> names = new ArrayList<ObjectName>();
+      names.add(mbeanExporter.registerManagedResource(container));
+      if (endpoint instanceof W4JmsListenerEndpoint) {
+        registerMetrics(((W4JmsListenerEndpoint) endpoint).getMetrics(), names);
+        for (EndpointMetrics routedMetrics : ((W4JmsListenerEndpoint) endpoint).getRoutedMetrics()) {
+          registerMetrics(routedMetrics, names);
+        }
+      }
+      managedResources.put(container, names);
+    }
+    if (endpoint instanceof W4JmsListenerEndpoint) {
+      scheduleConcurrencyController(container, (W4JmsListenerEndpoint) endpoint);
+    }
+    if (circuitBreaker != null && !(endpoint instanceof W4JmsListenerEndpoint && ((W4JmsListenerEndpoint) endpoint).isSpooled())) {
+      // Spooled endpoints keep consuming : their messages are spooled while the circuit is open
+      circuitBreaker.register(container);
     }
     return container;
   }
 
+  /**
+   * Register the latencies of an endpoint as managed resources
+   * @param metrics endpoint metrics (may be null)
+   * @param names names of the registered resources
+   */
+  private void registerMetrics(EndpointMetrics metrics, List<ObjectName> names) {
+    if (metrics == null) {
+      return;
+    }
+    for (Object resource : metrics.getManagedResources()) {
+      names.add(mbeanExporter.registerManagedResource(resource));
+    }
+  }
+
+  /**
+   * Release a container created by this factory : shut it down, unregister it and destroy its listener
+   * @param container container to release
+   * @throws Exception an error occured while destroying the listener
+   */
+  public void releaseListenerContainer(DefaultMessageListenerContainer container) throws Exception {
+    container.stop();
+    container.shutdown();
+
+    ScheduledFuture<?> concurrencyControl = concurrencyControls.remove(container);
+    if (concurrencyControl != null) {
+      concurrencyControl.cancel(false);
+    }
+    if (circuitBreaker != null) {
+      circuitBreaker.unregister(container);
+    }
+    List<ObjectName> names = managedResources.remove(container);
+    if (names != null) {
+      for (ObjectName name : names) {
+        mbeanExporter.unregisterManagedResource(name);
+      }
+    }
+
+    Object listener = container.getMessageListener();
+    messageListeners.remove(listener);
+    if (listener instanceof DisposableBean) {
+      ((DisposableBean) listener).destroy();
+    }
+  }
+
+  /**
+   * Schedule the adjustment of the concurrency of a container (if enabled for the endpoint)
+   * @param container created container
+   * @param endpoint endpoint of the container
+   */
+  private synchronized void scheduleConcurrencyController(DefaultMessageListenerContainer container, W4JmsListenerEndpoint endpoint) {
+    if (!endpoint.isAdaptiveConcurrency()) {
+      return;
+    }
+    if (endpoint.getMetrics() == null) {
+      logger.warn("No engine latency for destination {} : adaptive concurrency disabled", container.getDestinationName());
+      return;
+    }
+
+    int maximum = (endpoint.getAdaptiveConcurrencyMaximum() > 0 ? endpoint.getAdaptiveConcurrencyMaximum() : container.getMaxConcurrentConsumers());
+    AdaptiveConcurrencyController controller;
+    try {
+      controller = new AdaptiveConcurrencyController((W4MessageListenerContainer) container, endpoint.getMetrics().getEngine(),
+              endpoint.getAdaptiveConcurrencyMinimum(), maximum, endpoint.getAdaptiveConcurrencyLatencyTarget());
+    } catch (IllegalArgumentException iae) {
+      logger.error("Wrong adaptive concurrency settings for destination {} : adaptive concurrency disabled", container.getDestinationName(), iae);
+      return;
+    }
+
+    if (concurrencyControllers == null) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-concurrency-controller-");
+      threadFactory.setDaemon(true);
+      concurrencyControllers = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+    concurrencyControls.put(container, concurrencyControllers.scheduleWithFixedDelay(controller, concurrencyControlInterval, concurrencyControlInterval, TimeUnit.MILLISECONDS));
+    logger.info("Adaptive concurrency for destination {} : {}-{} consumers, engine latency target {}ms", container.getDestinationName(),
+            endpoint.getAdaptiveConcurrencyMinimum(), maximum, endpoint.getAdaptiveConcurrencyLatencyTarget());
+  }
+
+  /**
+   * Set the interval between two adjustments of the adaptive concurrency
+   * @param concurrencyControlInterval interval (ms)
+   */
+  public void setConcurrencyControlInterval(long concurrencyControlInterval) {
+    this.concurrencyControlInterval = concurrencyControlInterval;
+  }
+
   @Override
   public void destroy() throws Exception {
+    synchronized (this) {
+      if (concurrencyControllers != null) {
+        concurrencyControllers.shutdownNow();
+      }
+    }
     // Destroy all listeners properly
     for (Object listener : messageListeners) {
       if (listener instanceof DisposableBean) {
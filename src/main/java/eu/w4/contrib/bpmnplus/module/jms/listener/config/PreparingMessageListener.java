@@ -0,0 +1,23 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+/**
+ * Listener able to split the handling of a message : the message is prepared by the thread consuming it (conversion,
+ * headers), which is the only one using the message and its session, and the returned processing can then be run by
+ * any thread (pipeline workers, ordered lanes of {@code W4MessageListenerContainer}).
+ */
+public interface PreparingMessageListener {
+
+  /**
+   * Prepare the processing of a received message (consumer thread)
+   *
+   * @param message received message
+   * @param session session of the consumer
+   * @return Runnable processing of the message, using neither the message nor the session
+   * @throws JMSException the message cannot be read
+   */
+  Runnable prepare(Message message, Session session) throws JMSException;
+}
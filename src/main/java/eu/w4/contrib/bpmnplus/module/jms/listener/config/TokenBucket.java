@@ -0,0 +1,98 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter : tokens are added at a constant rate, up to a burst capacity.
+ * A permit can be reserved even if no token is available : the caller is then told how long to wait,
+ * so that concurrent callers are served in turn at the configured rate. Should be thread safe.
+ */
+public class TokenBucket {
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  // Tokens added per second
+  private double rate;
+  // Maximum number of tokens
+  private double capacity;
+
+  // Available tokens (negative when permits have been reserved in advance)
+  private double tokens;
+  private long lastRefillTime;
+
+  /**
+   * Default constructor
+   * @param rate tokens added per second
+   * @param burst maximum number of tokens, 0 for the rate
+   */
+  public TokenBucket(int rate, int burst) {
+    this.lastRefillTime = System.nanoTime();
+    setRate(rate, burst);
+    this.tokens = capacity;
+  }
+
+  /**
+   * Reserve a permit
+   * @return long time to wait before using the permit (ns), 0 if it can be used immediately
+   */
+  public synchronized long reserve() {
+    refill();
+    tokens -= 1;
+    if (tokens >= 0) {
+      return 0;
+    }
+    return (long) Math.ceil(-tokens / rate * NANOS_PER_SECOND);
+  }
+
+  /**
+   * Acquire a permit only if it can be used immediately
+   * @return true if a permit has been acquired
+   */
+  public synchronized boolean tryAcquire() {
+    refill();
+    if (tokens >= 1) {
+      tokens -= 1;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Give back an unused permit
+   */
+  public synchronized void refund() {
+    tokens = Math.min(capacity, tokens + 1);
+  }
+
+  /**
+   * Change the rate
+   * @param rate tokens added per second
+   * @param burst maximum number of tokens, 0 for the rate
+   */
+  public synchronized void setRate(int rate, int burst) {
+    if (rate <= 0 || burst < 0) {
+      throw new IllegalArgumentException("Rate limit should be positive (found " + rate + "/s, burst " + burst + ")");
+    }
+    refill();
+    this.rate = rate;
+    this.capacity = (burst > 0 ? burst : rate);
+    this.tokens = Math.min(tokens, capacity);
+  }
+
+  public synchronized int getRate() {
+    return (int) rate;
+  }
+
+  public synchronized int getBurst() {
+    return (int) capacity;
+  }
+
+  /**
+   * Add the tokens earned since last refill
+   */
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefillTime) * rate / NANOS_PER_SECOND);
+    lastRefillTime = now;
+  }
+}
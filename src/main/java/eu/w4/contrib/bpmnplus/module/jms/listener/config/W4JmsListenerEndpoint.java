@@ -0,0 +1,237 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import eu.w4.contrib.bpmnplus.module.jms.metrics.EndpointMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.jms.config.SimpleJmsListenerEndpoint;
+import org.springframework.jms.listener.MessageListenerContainer;
+
+/**
+ * Subclass of {@code SimpleJmsListenerEndpoint} holding endpoint specific consumption settings, applied to
+ * the {@code W4MessageListenerContainer} created for this endpoint.
+ */
+public class W4JmsListenerEndpoint extends SimpleJmsListenerEndpoint {
+
+  private int batchSize = 1;
+  private Long batchTimeout;
+
+  private int pipelineWorkers = 0;
+  private int pipelineQueueCapacity = 0;
+
+  private int orderingLanes = 0;
+  private String orderingKey;
+
+  private int rateLimit = 0;
+  private int rateLimitBurst = 0;
+
+  private boolean adaptiveConcurrency = false;
+  private int adaptiveConcurrencyMinimum = 1;
+  private int adaptiveConcurrencyMaximum = 0;
+  private long adaptiveConcurrencyLatencyTarget = 1000;
+
+  private EndpointMetrics metrics;
+  private final List<EndpointMetrics> routedMetrics = new ArrayList<EndpointMetrics>();
+
+  private boolean spooled = false;
+
+  @Override
+  public void setupListenerContainer(MessageListenerContainer listenerContainer) {
+    super.setupListenerContainer(listenerContainer);
+
+    if (listenerContainer instanceof W4MessageListenerContainer) {
+      W4MessageListenerContainer container = (W4MessageListenerContainer) listenerContainer;
+      container.setBatchSize(batchSize);
+      if (batchTimeout != null) {
+        container.setBatchTimeout(batchTimeout);
+      }
+      container.setPipelineWorkers(pipelineWorkers);
+      container.setPipelineQueueCapacity(pipelineQueueCapacity);
+      container.setOrderingLanes(orderingLanes);
+      container.setOrderingKey(orderingKey);
+      container.setRateLimitBurst(rateLimitBurst);
+      container.setRateLimit(rateLimit);
+    }
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set the maximum number of messages consumed in a batch
+   * @param batchSize maximum number of messages, 1 to disable batches
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public Long getBatchTimeout() {
+    return batchTimeout;
+  }
+
+  /**
+   * Set the maximum time to wait for the messages of a batch
+   * @param batchTimeout batch timeout (ms), null for the container default
+   */
+  public void setBatchTimeout(Long batchTimeout) {
+    this.batchTimeout = batchTimeout;
+  }
+
+  public int getPipelineWorkers() {
+    return pipelineWorkers;
+  }
+
+  /**
+   * Set the number of workers processing received messages (pipeline mode)
+   * @param pipelineWorkers number of workers, 0 to disable pipeline mode
+   */
+  public void setPipelineWorkers(int pipelineWorkers) {
+    this.pipelineWorkers = pipelineWorkers;
+  }
+
+  public int getPipelineQueueCapacity() {
+    return pipelineQueueCapacity;
+  }
+
+  /**
+   * Set the capacity of the queue of messages waiting for a worker (pipeline mode)
+   * @param pipelineQueueCapacity queue capacity, 0 for the number of workers
+   */
+  public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+    this.pipelineQueueCapacity = pipelineQueueCapacity;
+  }
+
+  public int getOrderingLanes() {
+    return orderingLanes;
+  }
+
+  /**
+   * Set the number of lanes processing messages in order of their key
+   * @param orderingLanes number of lanes, 0 to disable ordered lanes mode
+   */
+  public void setOrderingLanes(int orderingLanes) {
+    this.orderingLanes = orderingLanes;
+  }
+
+  public String getOrderingKey() {
+    return orderingKey;
+  }
+
+  /**
+   * Set the JMS property holding the key of the messages to process in order
+   * @param orderingKey property name, null for the container default (JMSXGroupID)
+   */
+  public void setOrderingKey(String orderingKey) {
+    this.orderingKey = orderingKey;
+  }
+
+  public int getRateLimit() {
+    return rateLimit;
+  }
+
+  /**
+   * Set the maximum number of messages consumed per second
+   * @param rateLimit messages per second, 0 to disable the rate limit
+   */
+  public void setRateLimit(int rateLimit) {
+    this.rateLimit = rateLimit;
+  }
+
+  public int getRateLimitBurst() {
+    return rateLimitBurst;
+  }
+
+  /**
+   * Set the number of messages that can be consumed at once when the rate limit has not been reached for a while
+   * @param rateLimitBurst number of messages, 0 for the rate limit
+   */
+  public void setRateLimitBurst(int rateLimitBurst) {
+    this.rateLimitBurst = rateLimitBurst;
+  }
+
+  public boolean isAdaptiveConcurrency() {
+    return adaptiveConcurrency;
+  }
+
+  /**
+   * Should the number of consumers follow the engine latency and error rate?
+   * @param adaptiveConcurrency true to enable the adaptive concurrency controller
+   */
+  public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+    this.adaptiveConcurrency = adaptiveConcurrency;
+  }
+
+  public int getAdaptiveConcurrencyMinimum() {
+    return adaptiveConcurrencyMinimum;
+  }
+
+  /**
+   * Set the lowest number of consumers allowed by the adaptive concurrency controller
+   * @param adaptiveConcurrencyMinimum minimum number of consumers
+   */
+  public void setAdaptiveConcurrencyMinimum(int adaptiveConcurrencyMinimum) {
+    this.adaptiveConcurrencyMinimum = adaptiveConcurrencyMinimum;
+  }
+
+  public int getAdaptiveConcurrencyMaximum() {
+    return adaptiveConcurrencyMaximum;
+  }
+
+  /**
+   * Set the highest number of consumers allowed by the adaptive concurrency controller
+   * @param adaptiveConcurrencyMaximum maximum number of consumers, 0 for the container maximum
+   */
+  public void setAdaptiveConcurrencyMaximum(int adaptiveConcurrencyMaximum) {
+    this.adaptiveConcurrencyMaximum = adaptiveConcurrencyMaximum;
+  }
+
+  public long getAdaptiveConcurrencyLatencyTarget() {
+    return adaptiveConcurrencyLatencyTarget;
+  }
+
+  /**
+   * Set the engine latency (p99) above which the adaptive concurrency controller removes consumers
+   * @param adaptiveConcurrencyLatencyTarget latency target (ms)
+   */
+  public void setAdaptiveConcurrencyLatencyTarget(long adaptiveConcurrencyLatencyTarget) {
+    this.adaptiveConcurrencyLatencyTarget = adaptiveConcurrencyLatencyTarget;
+  }
+
+  public EndpointMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the latencies of the processing stages of the messages of this endpoint
+   * @param metrics endpoint metrics, registered through JMX with the container
+   */
+  public void setMetrics(EndpointMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public List<EndpointMetrics> getRoutedMetrics() {
+    return routedMetrics;
+  }
+
+  /**
+   * Add the latencies of an endpoint whose messages are routed by the listener of this endpoint (shared destination)
+   * @param metrics endpoint metrics, registered through JMX with the container
+   */
+  public void addRoutedMetrics(EndpointMetrics metrics) {
+    if (metrics != null) {
+      routedMetrics.add(metrics);
+    }
+  }
+
+  public boolean isSpooled() {
+    return spooled;
+  }
+
+  /**
+   * Are the messages of this endpoint spooled while the engine is unavailable?
+   * @param spooled true if the listener spools messages (the container is then kept running by the circuit breaker)
+   */
+  public void setSpooled(boolean spooled) {
+    this.spooled = spooled;
+  }
+}
@@ -0,0 +1,1011 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.TransactionStatus;
+
+/**
+ * Subclass of {@code DefaultMessageListenerContainer} that can consume messages by batches (opt-in) :
+ * up to {@code batchSize} messages are received within {@code batchTimeout} ms in the same session, processed,
+ * and then acknowledged (or committed) once.
+ * If any message of a batch fails, the whole batch is recovered : redelivered messages are then processed
+ * (and acknowledged) one by one, skipping the ones already processed.
+ * <p>
+ * In pipeline mode (opt-in), consumer threads receive and prepare messages (conversion, headers), handing their
+ * processing off to a separately sized pool of workers through a bounded queue as soon as they are received : messages
+ * and sessions are only used by consumer threads (a JMS session is single threaded), workers never touch them.
+ * Received messages are acknowledged once all of them have been processed (acknowledgement is per session). When the
+ * queue is full, consumer threads wait for a free slot and stop receiving messages meanwhile ; the message fails (and
+ * is redelivered) if the container is stopped while waiting. Listeners that cannot prepare their messages
+ * ({@code PreparingMessageListener}) are invoked by consumer threads.
+ * <p>
+ * In ordered lanes mode (opt-in), workers are replaced by single threaded lanes : messages are dispatched to a lane
+ * by the hash of a key (JMS property, {@code JMSXGroupID} by default), so that messages having the same key are
+ * processed in order while messages having different keys are processed in parallel. Received messages are still
+ * acknowledged once all of them have been processed ; once a message fails, the next ones having the same key are not
+ * processed, so that they are redelivered after it (redelivered messages go through their lane too). Order only holds
+ * within the receive window of a consumer : the container is then limited to a single consumer.
+ * <p>
+ * Consumption can be rate limited (opt-in, adjustable at runtime) : consumer threads wait for a permit of a token
+ * bucket shared by all of them before receiving a message, so that throttled messages stay in the broker.
+ * <p>
+ * The maximum number of consumers is owned by the container : the configured maximum is replaced by the limit of the
+ * adaptive concurrency controller (if any), and capped by a ceiling while consumption ramps up (startup, circuit
+ * breaker), so that neither overwrites the other.
+ */
+public class W4MessageListenerContainer extends DefaultMessageListenerContainer {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final long DEFAULT_BATCH_TIMEOUT = 100; //ms
+
+  // Number of ids of already processed messages remembered
+  private static final int PROCESSED_MESSAGE_IDS_SIZE = 10000;
+
+  private static final long WORKERS_TERMINATION_TIMEOUT = 30; //s
+
+  private static final String DEFAULT_ORDERING_KEY = "JMSXGroupID";
+
+  // Processing of the messages already processed by the consumer thread
+  private static final Runnable NO_PROCESSING = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  // Maximum time waited for a permit before checking the container is still running
+  private static final long PERMIT_WAIT_SLICE = TimeUnit.MILLISECONDS.toNanos(500);
+
+  // Maximum time waited for a worker before checking the container is still running
+  private static final long HAND_OFF_WAIT_SLICE = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private int batchSize = 1;
+  private long batchTimeout = DEFAULT_BATCH_TIMEOUT;
+
+  // Pipeline mode : workers processing the received messages
+  private int pipelineWorkers = 0;
+  private int pipelineQueueCapacity = 0;
+  private ThreadPoolExecutor workersExecutor;
+
+  // Ordered lanes mode : messages dispatched to single threaded lanes by key
+  private int orderingLanes = 0;
+  private String orderingKey = DEFAULT_ORDERING_KEY;
+  private ThreadPoolExecutor[] lanesExecutors;
+  private final AtomicInteger unkeyedMessages = new AtomicInteger();
+
+  // Rate limit (messages per second and burst), null if not limited
+  private volatile TokenBucket rateLimiter;
+  private int rateLimitBurst = 0;
+
+  // Ids of messages successfully processed in failed batches (skipped when redelivered)
+  private final Set<String> processedMessageIds = Collections.newSetFromMap(Collections.synchronizedMap(
+          new LinkedHashMap<String, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+              return size() > PROCESSED_MESSAGE_IDS_SIZE;
+            }
+          }));
+
+  // Concurrency set by the configuration (or through JMX), maximum replaced by the adaptive limit and capped by the
+  // ramp-up ceiling (0 : none) (guarded by concurrencyMonitor)
+  private final Object concurrencyMonitor = new Object();
+  private int configuredConcurrentConsumers = 1;
+  private int configuredMaxConcurrentConsumers = 1;
+  private int concurrencyLimit = 0;
+  private int concurrencyCeiling = 0;
+  // Ramp owning the ceiling (null if none, or if the ceiling has been set directly)
+  private ConcurrencyRamp concurrencyRamp;
+
+  // Ids of the messages to process one by one per session (redelivered after a failed batch)
+  private final Map<Session, Set<String>> sessionsPendingRedeliveries = Collections.synchronizedMap(new WeakHashMap<Session, Set<String>>());
+
+  @Override
+  protected void doInitialize() throws JMSException {
+    if (isOrderingEnabled()) {
+      if (isPipelineEnabled()) {
+        logger.warn("Ordered lanes and pipeline mode both set for destination {} : pipeline workers ignored", getDestinationName());
+      }
+      if (getConfiguredMaxConcurrentConsumers() > 1) {
+        logger.warn("Ordered lanes for destination {} : concurrency limited to a single consumer", getDestinationName());
+      }
+      int queueCapacity = (pipelineQueueCapacity > 0 ? pipelineQueueCapacity : orderingLanes);
+      logger.info("Ordered lanes for destination {} : {} lane(s) keyed by {}, queue capacity {}", getDestinationName(), orderingLanes, orderingKey, queueCapacity);
+
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-" + getDestinationName() + "-lane-");
+      threadFactory.setDaemon(true);
+      lanesExecutors = new ThreadPoolExecutor[orderingLanes];
+      for (int i = 0; i < orderingLanes; i++) {
+        lanesExecutors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new BlockingHandOffPolicy());
+      }
+    }
+    else if (isPipelineEnabled()) {
+      int queueCapacity = (pipelineQueueCapacity > 0 ? pipelineQueueCapacity : pipelineWorkers);
+      logger.info("Pipeline mode for destination {} : {} worker(s), queue capacity {}", getDestinationName(), pipelineWorkers, queueCapacity);
+
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-" + getDestinationName() + "-worker-");
+      threadFactory.setDaemon(true);
+      workersExecutor = new ThreadPoolExecutor(pipelineWorkers, pipelineWorkers, 0L, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new BlockingHandOffPolicy());
+    }
+    super.doInitialize();
+  }
+
+  @Override
+  protected void doShutdown() throws JMSException {
+    super.doShutdown();
+    if (workersExecutor != null) {
+      shutdownExecutor(workersExecutor);
+    }
+    if (lanesExecutors != null) {
+      for (ThreadPoolExecutor laneExecutor : lanesExecutors) {
+        laneExecutor.shutdown();
+      }
+      for (ThreadPoolExecutor laneExecutor : lanesExecutors) {
+        shutdownExecutor(laneExecutor);
+      }
+    }
+  }
+
+  /**
+   * Shut an executor down and wait for its running tasks
+   *
+   * @param executor workers or lane executor
+   */
+  private void shutdownExecutor(ThreadPoolExecutor executor) {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(WORKERS_TERMINATION_TIMEOUT, TimeUnit.SECONDS)) {
+        logger.warn("Workers of destination {} still running after {}s", getDestinationName(), WORKERS_TERMINATION_TIMEOUT);
+      }
+    } catch (InterruptedException iex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  protected boolean doReceiveAndExecute(Object invoker, Session session, MessageConsumer consumer, TransactionStatus status) throws JMSException {
+    // Throttled : do not receive anything until a permit is available
+    TokenBucket limiter = rateLimiter;
+    if (limiter != null && !awaitPermit(limiter)) {
+      return false;
+    }
+
+    // Batches require a cached session and consumer (no external transaction)
+    if (getWindowSize() <= 1 || session == null || consumer == null || status != null) {
+      boolean received = super.doReceiveAndExecute(invoker, session, consumer, status);
+      if (!received && limiter != null) {
+        limiter.refund();
+      }
+      return received;
+    }
+
+    // Pipeline and ordered lanes : messages are handed off as soon as received
+    HandOff handOff = (isHandOffEnabled() ? new HandOff(session) : null);
+    List<Message> messages = receiveBatch(session, consumer, handOff);
+    if (messages.isEmpty()) {
+      if (limiter != null) {
+        limiter.refund();
+      }
+      noMessageReceived(invoker, session);
+      return false;
+    }
+    messageReceived(invoker, session);
+
+    // Messages handed off are processed (or rejected once the container is stopped) before being acknowledged
+    if (handOff == null && !isAcceptMessagesWhileStopping() && !isRunning()) {
+      logger.debug("Rejecting {} received message(s) because of the listener container having been stopped in the meantime", messages.size());
+      rollbackIfNecessary(session);
+      return true;
+    }
+
+    if (messages.size() == 1 && isPendingRedelivery(session, messages.get(0))) {
+      executeRedelivered(session, messages.get(0));
+    }
+    else {
+      executeBatch(session, messages, handOff);
+    }
+    return true;
+  }
+
+  /**
+   * Receive a batch of messages : until batch size is reached or batch timeout expires
+   *
+   * @param session JMS session
+   * @param consumer JMS consumer
+   * @return List&lt;Message&gt; received messages (may be empty)
+   * @throws JMSException an error occured while receiving messages
+   */
+  protected List<Message> receiveBatch(Session session, MessageConsumer consumer) throws JMSException {
+    return receiveBatch(session, consumer, null);
+  }
+
+  /**
+   * Receive a batch of messages, handing each one off as soon as received
+   *
+   * @param session JMS session
+   * @param consumer JMS consumer
+   * @param handOff hand-off of the messages of the batch (null to only receive them)
+   * @return List&lt;Message&gt; received messages (may be empty)
+   * @throws JMSException an error occured while receiving messages
+   */
+  private List<Message> receiveBatch(Session session, MessageConsumer consumer, HandOff handOff) throws JMSException {
+    Message first = receiveMessage(consumer);
+    if (first == null) {
+      // Nothing left to redeliver
+      sessionsPendingRedeliveries.remove(session);
+      return Collections.emptyList();
+    }
+    // Messages redelivered after a failed batch are processed on their own, until another message is received
+    if (isPendingRedelivery(session, first)) {
+      return Collections.singletonList(first);
+    }
+    sessionsPendingRedeliveries.remove(session);
+
+    int windowSize = getWindowSize();
+    List<Message> messages = new ArrayList<Message>(windowSize);
+    messages.add(first);
+    if (handOff != null) {
+      handOff.dispatch(first);
+    }
+    long deadline = System.currentTimeMillis() + batchTimeout;
+    TokenBucket limiter = rateLimiter;
+    while (messages.size() < windowSize) {
+      // Throttled : do not wait for a permit while holding received messages
+      if (limiter != null && !limiter.tryAcquire()) {
+        break;
+      }
+      long remaining = deadline - System.currentTimeMillis();
+      Message message = (remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait());
+      if (message == null) {
+        if (limiter != null) {
+          limiter.refund();
+        }
+        break;
+      }
+      messages.add(message);
+      if (handOff != null) {
+        handOff.dispatch(message);
+      }
+    }
+    return messages;
+  }
+
+  /**
+   * Wait for a permit to receive a message, as long as the container is running
+   *
+   * @param limiter rate limiter
+   * @return true if a permit has been acquired, false if the container has been stopped (or the thread interrupted) meanwhile
+   */
+  private boolean awaitPermit(TokenBucket limiter) {
+    long wait = limiter.reserve();
+    long deadline = System.nanoTime() + wait;
+    while (wait > 0) {
+      if (!isRunning()) {
+        limiter.refund();
+        return false;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(Math.min(wait, PERMIT_WAIT_SLICE));
+      } catch (InterruptedException iex) {
+        Thread.currentThread().interrupt();
+        limiter.refund();
+        return false;
+      }
+      wait = deadline - System.nanoTime();
+    }
+    return true;
+  }
+
+  /**
+   * Process a batch of messages and acknowledge (or commit) them at once.
+   * If any message fails, the whole batch is recovered (or rolled back).
+   *
+   * @param session JMS session
+   * @param messages messages of the batch
+   * @throws JMSException an error occured while acknowledging or recovering
+   */
+  protected void executeBatch(Session session, List<Message> messages) throws JMSException {
+    executeBatch(session, messages, null);
+  }
+
+  /**
+   * Process a batch of messages (or wait for the ones already handed off) and acknowledge (or commit) them at once
+   *
+   * @param session JMS session
+   * @param messages messages of the batch
+   * @param handOff hand-off of the messages of the batch (null if not handed off yet)
+   * @throws JMSException an error occured while acknowledging or recovering
+   */
+  private void executeBatch(Session session, List<Message> messages, HandOff handOff) throws JMSException {
+    long timeBefore = System.currentTimeMillis();
+
+    List<Throwable> failures = (handOff != null ? handOff.awaitFailures() : process(session, messages));
+
+    List<String> succeededIds = new ArrayList<String>(messages.size());
+    Throwable firstFailure = null;
+    for (int i = 0; i < messages.size(); i++) {
+      Throwable failure = failures.get(i);
+      if (failure == null) {
+        succeededIds.add(messages.get(i).getJMSMessageID());
+      }
+      else if (firstFailure == null) {
+        firstFailure = failure;
+      }
+    }
+
+    if (firstFailure == null) {
+      commitIfNecessary(session, messages.get(messages.size() - 1));
+      logger.debug("Batch of {} message(s) processed in {}ms", messages.size(), System.currentTimeMillis() - timeBefore);
+      return;
+    }
+
+    logger.warn("{} of {} message(s) of the batch failed : recover the batch, failed messages will be processed on their own",
+            messages.size() - succeededIds.size(), messages.size());
+    for (String messageId : succeededIds) {
+      if (messageId != null) {
+        processedMessageIds.add(messageId);
+      }
+    }
+    Set<String> pendingIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    for (Message message : messages) {
+      String messageId = message.getJMSMessageID();
+      if (messageId != null) {
+        pendingIds.add(messageId);
+      }
+    }
+    if (!pendingIds.isEmpty()) {
+      sessionsPendingRedeliveries.put(session, pendingIds);
+    }
+    rollbackOnExceptionIfNecessary(session, firstFailure);
+  }
+
+  /**
+   * Process (alone) a message redelivered after a failed batch : skip it if it has already been processed
+   *
+   * @param session JMS session
+   * @param message redelivered message
+   * @throws JMSException an error occured while acknowledging or recovering
+   */
+  protected void executeRedelivered(Session session, Message message) throws JMSException {
+    String messageId = message.getJMSMessageID();
+    if (messageId != null && processedMessageIds.remove(messageId)) {
+      logger.debug("Message {} already processed in a previous batch : acknowledge it", messageId);
+      removePendingRedelivery(session, messageId);
+      commitIfNecessary(session, message);
+      return;
+    }
+
+    // Through its lane in ordered lanes mode : after the messages of its key still being processed
+    Throwable failure = process(session, Collections.singletonList(message)).get(0);
+    if (failure == null) {
+      removePendingRedelivery(session, messageId);
+      commitIfNecessary(session, message);
+    }
+    else {
+      rollbackOnExceptionIfNecessary(session, failure);
+    }
+  }
+
+  /**
+   * Process messages, sequentially, by workers in pipeline mode or by lanes in ordered lanes mode
+   *
+   * @param session JMS session
+   * @param messages messages to process
+   * @return List&lt;Throwable&gt; failure of each message (null if processed successfully)
+   */
+  protected List<Throwable> process(Session session, List<Message> messages) {
+    if (isHandOffEnabled()) {
+      HandOff handOff = new HandOff(session);
+      for (Message message : messages) {
+        handOff.dispatch(message);
+      }
+      return handOff.awaitFailures();
+    }
+    List<Throwable> failures = new ArrayList<Throwable>(messages.size());
+    for (Message message : messages) {
+      failures.add(invokeListenerSafely(session, message));
+    }
+    return failures;
+  }
+
+  /**
+   * Are messages handed off to workers (pipeline mode) or lanes (ordered lanes mode)?
+   *
+   * @return true if messages are not processed by the consumer threads
+   */
+  private boolean isHandOffEnabled() {
+    return workersExecutor != null || lanesExecutors != null;
+  }
+
+  /**
+   * Prepare the processing of a message by the listener (consumer thread)
+   *
+   * @param session JMS session
+   * @param message message to process
+   * @return Runnable processing of the message, not using the message nor the session
+   * @throws JMSException the message cannot be read
+   */
+  private Runnable prepareListener(Session session, Message message) throws JMSException {
+    Object listener = getMessageListener();
+    if (listener instanceof PreparingMessageListener) {
+      return ((PreparingMessageListener) listener).prepare(message, session);
+    }
+    // Messages of other listeners are processed by the consumer thread
+    invokeListener(session, message);
+    return NO_PROCESSING;
+  }
+
+  /**
+   * Get the ordering key of a message
+   *
+   * @param message received message
+   * @return String key (JMS property), null if the message has none
+   */
+  private String readOrderingKey(Message message) {
+    try {
+      return message.getStringProperty(orderingKey);
+    } catch (JMSException jex) {
+      logger.debug("Cannot read ordering key {} of message", orderingKey, jex);
+      return null;
+    }
+  }
+
+  /**
+   * Get the lane of a key
+   *
+   * @param key ordering key (null if none : any lane)
+   * @return int index of the lane
+   */
+  private int getLane(String key) {
+    int hash = (key != null ? key.hashCode() : unkeyedMessages.getAndIncrement());
+    return (hash & Integer.MAX_VALUE) % lanesExecutors.length;
+  }
+
+  /**
+   * Wait for the processing of a message by a worker
+   *
+   * @param result pending processing result
+   * @return Throwable failure (null if processed successfully)
+   */
+  private Throwable waitFor(Future<Throwable> result) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return result.get();
+        } catch (InterruptedException iex) {
+          // Acknowledgement requires the processing to be completed
+          interrupted = true;
+        } catch (ExecutionException eex) {
+          return eex.getCause();
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Invoke the listener without letting it fail
+   *
+   * @param session JMS session
+   * @param message message to process
+   * @return Throwable failure if the listener failed, null otherwise
+   */
+  private Throwable invokeListenerSafely(Session session, Message message) {
+    try {
+      invokeListener(session, message);
+      return null;
+    } catch (JMSException ex) {
+      handleListenerException(ex);
+      return ex;
+    } catch (RuntimeException ex) {
+      handleListenerException(ex);
+      return ex;
+    }
+  }
+
+  /**
+   * Is this message redelivered after a failed batch of this session (and not processed successfully yet)?
+   *
+   * @param session JMS session
+   * @param message received message
+   * @return true if the message should be processed on its own
+   * @throws JMSException an error occured while reading the message id
+   */
+  private boolean isPendingRedelivery(Session session, Message message) throws JMSException {
+    Set<String> pendingIds = sessionsPendingRedeliveries.get(session);
+    if (pendingIds == null) {
+      return false;
+    }
+    String messageId = message.getJMSMessageID();
+    return messageId != null && pendingIds.contains(messageId);
+  }
+
+  /**
+   * A redelivered message has been processed : the session gets back to batches once all of them have been
+   *
+   * @param session JMS session
+   * @param messageId id of the processed message
+   */
+  private void removePendingRedelivery(Session session, String messageId) {
+    if (messageId == null) {
+      return;
+    }
+    synchronized (sessionsPendingRedeliveries) {
+      Set<String> pendingIds = sessionsPendingRedeliveries.get(session);
+      if (pendingIds != null && pendingIds.remove(messageId) && pendingIds.isEmpty()) {
+        sessionsPendingRedeliveries.remove(session);
+      }
+    }
+  }
+
+  @Override
+  public void setConcurrentConsumers(int concurrentConsumers) {
+    if (concurrentConsumers <= 0) {
+      throw new IllegalArgumentException("'concurrentConsumers' value must be at least 1 (one)");
+    }
+    synchronized (concurrencyMonitor) {
+      configuredConcurrentConsumers = concurrentConsumers;
+      configuredMaxConcurrentConsumers = Math.max(configuredMaxConcurrentConsumers, concurrentConsumers);
+      applyConcurrency();
+    }
+  }
+
+  @Override
+  public void setMaxConcurrentConsumers(int maxConcurrentConsumers) {
+    if (maxConcurrentConsumers <= 0) {
+      throw new IllegalArgumentException("'maxConcurrentConsumers' value must be at least 1 (one)");
+    }
+    synchronized (concurrencyMonitor) {
+      configuredMaxConcurrentConsumers = Math.max(maxConcurrentConsumers, configuredConcurrentConsumers);
+      applyConcurrency();
+    }
+  }
+
+  /**
+   * Set the maximum number of consumers chosen by the adaptive concurrency controller, replacing the configured one
+   *
+   * @param concurrencyLimit maximum number of consumers, 0 for the configured maximum
+   */
+  public void setConcurrencyLimit(int concurrencyLimit) {
+    synchronized (concurrencyMonitor) {
+      this.concurrencyLimit = Math.max(0, concurrencyLimit);
+      applyConcurrency();
+    }
+  }
+
+  public int getConcurrencyLimit() {
+    synchronized (concurrencyMonitor) {
+      return concurrencyLimit;
+    }
+  }
+
+  /**
+   * Cap the maximum number of consumers while consumption ramps up
+   *
+   * @param concurrencyCeiling highest number of consumers, 0 for no ceiling
+   */
+  public void setConcurrencyCeiling(int concurrencyCeiling) {
+    synchronized (concurrencyMonitor) {
+      this.concurrencyRamp = null;
+      this.concurrencyCeiling = Math.max(0, concurrencyCeiling);
+      applyConcurrency();
+    }
+  }
+
+  /**
+   * Set the ceiling of a ramp starting the container, taking over any previous ramp
+   *
+   * @param ramp starting ramp
+   * @param concurrencyCeiling highest number of consumers, 0 for no ceiling
+   */
+  void startConcurrencyRamp(ConcurrencyRamp ramp, int concurrencyCeiling) {
+    synchronized (concurrencyMonitor) {
+      this.concurrencyRamp = ramp;
+      stepConcurrencyRamp(ramp, concurrencyCeiling);
+    }
+  }
+
+  /**
+   * Set the ceiling of the next step of a ramp, if it still owns the ceiling
+   *
+   * @param ramp ramp
+   * @param concurrencyCeiling highest number of consumers, 0 once the ramp is over
+   * @return true if the ceiling has been set, false if another ramp took over
+   */
+  boolean stepConcurrencyRamp(ConcurrencyRamp ramp, int concurrencyCeiling) {
+    synchronized (concurrencyMonitor) {
+      if (concurrencyRamp != ramp) {
+        return false;
+      }
+      this.concurrencyRamp = (concurrencyCeiling > 0 ? ramp : null);
+      this.concurrencyCeiling = Math.max(0, concurrencyCeiling);
+      applyConcurrency();
+      return true;
+    }
+  }
+
+  public int getConcurrencyCeiling() {
+    synchronized (concurrencyMonitor) {
+      return concurrencyCeiling;
+    }
+  }
+
+  /**
+   * Get the maximum number of consumers without ceiling
+   *
+   * @return int adaptive limit, or configured maximum if none (1 in ordered lanes mode)
+   */
+  public int getTargetMaxConcurrentConsumers() {
+    synchronized (concurrencyMonitor) {
+      if (orderingLanes > 0) {
+        return 1;
+      }
+      return (concurrencyLimit > 0 ? concurrencyLimit : configuredMaxConcurrentConsumers);
+    }
+  }
+
+  private int getConfiguredMaxConcurrentConsumers() {
+    synchronized (concurrencyMonitor) {
+      return configuredMaxConcurrentConsumers;
+    }
+  }
+
+  /**
+   * Apply the configured concurrency, the adaptive limit and the ramp-up ceiling to the container
+   * (a single consumer in ordered lanes mode)
+   */
+  private void applyConcurrency() {
+    // Single consumer in ordered lanes mode : messages of a key received by several consumers would be processed
+    // out of order
+    int maxConcurrent = (orderingLanes > 0 ? 1 : (concurrencyLimit > 0 ? concurrencyLimit : configuredMaxConcurrentConsumers));
+    if (concurrencyCeiling > 0) {
+      maxConcurrent = Math.min(maxConcurrent, concurrencyCeiling);
+    }
+    // Concurrent consumers first : the maximum cannot be lower than them
+    super.setConcurrentConsumers(Math.min(configuredConcurrentConsumers, maxConcurrent));
+    super.setMaxConcurrentConsumers(maxConcurrent);
+  }
+
+  /**
+   * Get the maximum number of messages received at once
+   *
+   * @return window size (batch size or number of workers in pipeline mode)
+   */
+  private int getWindowSize() {
+    if (isBatchEnabled()) {
+      return batchSize;
+    }
+    if (isOrderingEnabled()) {
+      return orderingLanes;
+    }
+    return (isPipelineEnabled() ? pipelineWorkers : 1);
+  }
+
+  /**
+   * Is batch consumption enabled?
+   *
+   * @return true if messages are consumed by batches
+   */
+  public boolean isBatchEnabled() {
+    return batchSize > 1;
+  }
+
+  /**
+   * Set the maximum number of messages consumed in a batch
+   *
+   * @param batchSize maximum number of messages, 1 to disable batches
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size should be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set the maximum time to wait for the messages of a batch once the first one has been received
+   *
+   * @param batchTimeout batch timeout (ms)
+   */
+  public void setBatchTimeout(long batchTimeout) {
+    this.batchTimeout = batchTimeout;
+  }
+
+  public long getBatchTimeout() {
+    return batchTimeout;
+  }
+
+  /**
+   * Is pipeline mode enabled?
+   *
+   * @return true if messages are processed by workers
+   */
+  public boolean isPipelineEnabled() {
+    return pipelineWorkers > 0;
+  }
+
+  /**
+   * Set the number of workers processing messages (pipeline mode). Must be set before initialization.
+   *
+   * @param pipelineWorkers number of workers, 0 to disable pipeline mode
+   */
+  public void setPipelineWorkers(int pipelineWorkers) {
+    this.pipelineWorkers = pipelineWorkers;
+  }
+
+  public int getPipelineWorkers() {
+    return pipelineWorkers;
+  }
+
+  /**
+   * Set the capacity of the queue of messages waiting for a worker (pipeline mode). Must be set before initialization.
+   *
+   * @param pipelineQueueCapacity queue capacity, 0 for the number of workers
+   */
+  public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+    this.pipelineQueueCapacity = pipelineQueueCapacity;
+  }
+
+  public int getPipelineQueueCapacity() {
+    return pipelineQueueCapacity;
+  }
+
+  /**
+   * Number of messages waiting for a worker (pipeline mode)
+   *
+   * @return int size of the queue
+   */
+  public int getPipelineQueueSize() {
+    int size = (workersExecutor != null ? workersExecutor.getQueue().size() : 0);
+    if (lanesExecutors != null) {
+      for (ThreadPoolExecutor laneExecutor : lanesExecutors) {
+        size += laneExecutor.getQueue().size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Is ordered lanes mode enabled?
+   *
+   * @return true if messages are processed by lanes, in order of their key
+   */
+  public boolean isOrderingEnabled() {
+    return orderingLanes > 0;
+  }
+
+  /**
+   * Set the number of ordered lanes (limiting the container to a single consumer). Must be set before initialization.
+   *
+   * @param orderingLanes number of lanes, 0 to disable ordered lanes mode
+   */
+  public void setOrderingLanes(int orderingLanes) {
+    synchronized (concurrencyMonitor) {
+      this.orderingLanes = orderingLanes;
+      applyConcurrency();
+    }
+  }
+
+  public int getOrderingLanes() {
+    return orderingLanes;
+  }
+
+  /**
+   * Set the JMS property holding the key of the messages to process in order. Must be set before initialization.
+   *
+   * @param orderingKey property name, null for JMSXGroupID
+   */
+  public void setOrderingKey(String orderingKey) {
+    this.orderingKey = (orderingKey != null ? orderingKey : DEFAULT_ORDERING_KEY);
+  }
+
+  public String getOrderingKey() {
+    return orderingKey;
+  }
+
+  /**
+   * Set the maximum number of messages consumed per second (shared by all the consumers). Can be changed at runtime.
+   *
+   * @param rateLimit messages per second, 0 to disable the rate limit
+   */
+  public synchronized void setRateLimit(int rateLimit) {
+    if (rateLimit <= 0) {
+      if (rateLimiter != null) {
+        logger.info("Rate limit for destination {} disabled", getDestinationName());
+      }
+      rateLimiter = null;
+      return;
+    }
+    if (rateLimiter == null) {
+      rateLimiter = new TokenBucket(rateLimit, rateLimitBurst);
+    }
+    else {
+      rateLimiter.setRate(rateLimit, rateLimitBurst);
+    }
+    logger.info("Rate limit for destination {} : {} message(s)/s, burst {}", getDestinationName(), rateLimit, rateLimiter.getBurst());
+  }
+
+  public int getRateLimit() {
+    TokenBucket limiter = rateLimiter;
+    return (limiter != null ? limiter.getRate() : 0);
+  }
+
+  /**
+   * Set the number of messages that can be consumed at once when the rate limit has not been reached for a while.
+   * Can be changed at runtime.
+   *
+   * @param rateLimitBurst number of messages, 0 for the rate limit
+   */
+  public synchronized void setRateLimitBurst(int rateLimitBurst) {
+    if (rateLimitBurst < 0) {
+      throw new IllegalArgumentException("Rate limit burst should not be negative");
+    }
+    this.rateLimitBurst = rateLimitBurst;
+    if (rateLimiter != null) {
+      rateLimiter.setRate(rateLimiter.getRate(), rateLimitBurst);
+    }
+  }
+
+  public int getRateLimitBurst() {
+    return rateLimitBurst;
+  }
+
+  /**
+   * Messages of a receive window handed off to workers (or lanes). Messages are prepared by the consumer thread, only
+   * their processing being handed off ; a message that cannot be prepared or handed off fails.
+   * In ordered lanes mode, once a message fails, the next messages having the same key are not processed (they fail too),
+   * so that they are redelivered after it.
+   */
+  private final class HandOff {
+    private final Session session;
+    private final List<Future<Throwable>> results = new ArrayList<Future<Throwable>>();
+    private final Set<String> failedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    HandOff(Session session) {
+      this.session = session;
+    }
+
+    /**
+     * Prepare a message and hand its processing off to a worker, or to the lane of its key (blocks while the queue
+     * is full)
+     *
+     * @param message received message
+     */
+    void dispatch(Message message) {
+      final String key = (lanesExecutors != null ? readOrderingKey(message) : null);
+      final Runnable processing;
+      try {
+        processing = prepareListener(session, message);
+      } catch (JMSException ex) {
+        handleListenerException(ex);
+        fail(key, ex);
+        return;
+      } catch (RuntimeException ex) {
+        handleListenerException(ex);
+        fail(key, ex);
+        return;
+      }
+
+      ThreadPoolExecutor executor = (lanesExecutors != null ? lanesExecutors[getLane(key)] : workersExecutor);
+      try {
+        results.add(executor.submit(new Callable<Throwable>() {
+          @Override
+          public Throwable call() {
+            if (key != null && failedKeys.contains(key)) {
+              return new IllegalStateException("Previous message with key '" + key + "' failed : message not processed");
+            }
+            try {
+              processing.run();
+              return null;
+            } catch (RuntimeException ex) {
+              handleListenerException(ex);
+              if (key != null) {
+                failedKeys.add(key);
+              }
+              return ex;
+            }
+          }
+        }));
+      } catch (RejectedExecutionException rex) {
+        logger.debug("Message of destination {} not handed off : {}", getDestinationName(), rex.getMessage());
+        fail(key, rex);
+      }
+    }
+
+    /**
+     * Record the failure of a message not handed off
+     *
+     * @param key ordering key of the message (null if none)
+     * @param failure failure of the message
+     */
+    private void fail(String key, final Throwable failure) {
+      if (key != null) {
+        failedKeys.add(key);
+      }
+      FutureTask<Throwable> result = new FutureTask<Throwable>(new Callable<Throwable>() {
+        @Override
+        public Throwable call() {
+          return failure;
+        }
+      });
+      result.run();
+      results.add(result);
+    }
+
+    /**
+     * Wait for all the messages handed off to be processed (workers and lanes complete out of order)
+     *
+     * @return List&lt;Throwable&gt; failure of each message, in reception order (null if processed successfully)
+     */
+    List<Throwable> awaitFailures() {
+      List<Throwable> failures = new ArrayList<Throwable>(results.size());
+      for (Future<Throwable> result : results) {
+        failures.add(waitFor(result));
+      }
+      return failures;
+    }
+  }
+
+  /**
+   * Policy that makes the submitting thread wait for a free slot in the queue, as long as the container is running
+   * (the message is rejected otherwise)
+   */
+  private class BlockingHandOffPolicy implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      try {
+        while (!executor.isShutdown()) {
+          if (!isRunning() && !isAcceptMessagesWhileStopping()) {
+            throw new RejectedExecutionException("Listener container stopped while waiting for a worker");
+          }
+          if (executor.getQueue().offer(task, HAND_OFF_WAIT_SLICE, TimeUnit.NANOSECONDS)) {
+            // Shut down meanwhile : the task would never be run
+            if (executor.isShutdown() && executor.remove(task)) {
+              break;
+            }
+            return;
+          }
+        }
+      } catch (InterruptedException iex) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while waiting for a worker", iex);
+      }
+      throw new RejectedExecutionException("Workers have been shut down");
+    }
+  }
+}
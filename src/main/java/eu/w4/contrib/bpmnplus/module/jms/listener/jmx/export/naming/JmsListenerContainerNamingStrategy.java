@@ -1,68 +1,104 @@
-package eu.w4.contrib.bpmnplus.module.jms.listener.jmx.export.naming;
-
-import java.util.Hashtable;
-import javax.management.MalformedObjectNameException;
-import javax.management.ObjectName;
-import org.springframework.jms.listener.DefaultMessageListenerContainer;
-import org.springframework.jmx.export.naming.IdentityNamingStrategy;
-import static org.springframework.jmx.export.naming.IdentityNamingStrategy.TYPE_KEY;
-import org.springframework.jmx.support.ObjectNameManager;
-import org.springframework.util.ClassUtils;
-import org.springframework.util.StringUtils;
-
-/**
- * Subclass of {@code IdentityNamingStrategy} that builds a custom object name
- *  for all registered {@code DefaultMessageListenerContainer}.
- */
-public class JmsListenerContainerNamingStrategy extends IdentityNamingStrategy {
-  private static final String SELECTOR_KEY = "selector";
-  private static final String DESTINATION_KEY = "destination";
-  
-  private static final String MESSAGE_LISTENER_CONTAINERS_DEFAULT_DOMAIN = "eu.w4.contrib.bpmnplus.module.jms";
-
-  private static final String DOUBLE_QUOTES = "\"";
-
-  @Override
-  public ObjectName getObjectName(Object managedBean, String beanKey) throws MalformedObjectNameException {
-    ObjectName name = null;
-
-    if (managedBean instanceof DefaultMessageListenerContainer) {
-      DefaultMessageListenerContainer container = (DefaultMessageListenerContainer) managedBean;
-      String domain = MESSAGE_LISTENER_CONTAINERS_DEFAULT_DOMAIN;
-      Hashtable<String, String> keys = new Hashtable<String, String>();
-      
-      // Type : container type
-      keys.put(TYPE_KEY, ClassUtils.getShortName(managedBean.getClass()));
-      
-      // Add destination...
-      keys.put(DESTINATION_KEY, container.getDestinationName());
-      
-      // ... and selector to distinguish them
-      if (!StringUtils.isEmpty(container.getMessageSelector())) {
-        keys.put(SELECTOR_KEY, escapeSelector(container.getMessageSelector()));
-      }
-      name = ObjectNameManager.getInstance(domain, keys);
-    } else {
-      name = super.getObjectName(managedBean, beanKey);
-    }
-
-    return name;
-  }
-
-  /**
-   * Escape JMS selector so that it can be used in an ObjectName
-   * @param selector JMS selector
-   * @return String the escaped selector
-   * See also the method {@link javax.jms.Message}.
-   */
-  private String escapeSelector(String selector) {
-    StringBuilder escapedSelector = new StringBuilder(selector.length() + 2);
-    if (selector.startsWith(DOUBLE_QUOTES) && selector.endsWith(DOUBLE_QUOTES)) {
-      escapedSelector.append(selector);
-    }
-    else {
-      escapedSelector.append(DOUBLE_QUOTES).append(selector).append(DOUBLE_QUOTES);
-    }
-    return escapedSelector.toString();
-  }
-}
+package eu.w4.contrib.bpmnplus.module.jms.listener.jmx.export.naming;
+
+import eu.w4.contrib.bpmnplus.module.jms.metrics.SignalVersionLatencies;
+import eu.w4.contrib.bpmnplus.module.jms.metrics.StageLatency;
+import java.util.Hashtable;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jmx.export.naming.IdentityNamingStrategy;
+import static org.springframework.jmx.export.naming.IdentityNamingStrategy.TYPE_KEY;
+import org.springframework.jmx.support.ObjectNameManager;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Subclass of {@code IdentityNamingStrategy} that builds a custom object name
+ *  for all registered {@code DefaultMessageListenerContainer}.
+ * Endpoints latencies ({@code StageLatency}, {@code SignalVersionLatencies}) are named after their container (same
+ * destination and selector).
+ * Other beans registered with a bean key being a valid object name keep this name.
+ */
+public class JmsListenerContainerNamingStrategy extends IdentityNamingStrategy {
+  private static final String SELECTOR_KEY = "selector";
+  private static final String DESTINATION_KEY = "destination";
+  private static final String STAGE_KEY = "stage";
+  
+  private static final String MESSAGE_LISTENER_CONTAINERS_DEFAULT_DOMAIN = "eu.w4.contrib.bpmnplus.module.jms";
+
+  private static final String DOUBLE_QUOTES = "\"";
+
+  @Override
+  public ObjectName getObjectName(Object managedBean, String beanKey) throws MalformedObjectNameException {
+    ObjectName name = null;
+
+    if (managedBean instanceof DefaultMessageListenerContainer) {
+      DefaultMessageListenerContainer container = (DefaultMessageListenerContainer) managedBean;
+      String domain = MESSAGE_LISTENER_CONTAINERS_DEFAULT_DOMAIN;
+      Hashtable<String, String> keys = new Hashtable<String, String>();
+      
+      // Type : container type
+      keys.put(TYPE_KEY, ClassUtils.getShortName(managedBean.getClass()));
+      
+      // Add destination...
+      keys.put(DESTINATION_KEY, container.getDestinationName());
+      
+      // ... and selector to distinguish them
+      if (!StringUtils.isEmpty(container.getMessageSelector())) {
+        keys.put(SELECTOR_KEY, escapeSelector(container.getMessageSelector()));
+      }
+      name = ObjectNameManager.getInstance(domain, keys);
+    } else if (managedBean instanceof StageLatency) {
+      StageLatency latency = (StageLatency) managedBean;
+      Hashtable<String, String> keys = new Hashtable<String, String>();
+      keys.put(TYPE_KEY, ClassUtils.getShortName(managedBean.getClass()));
+      keys.put(DESTINATION_KEY, latency.getDestinationName());
+      if (!StringUtils.isEmpty(latency.getMessageSelector())) {
+        keys.put(SELECTOR_KEY, escapeSelector(latency.getMessageSelector()));
+      }
+      keys.put(STAGE_KEY, latency.getStage());
+      name = ObjectNameManager.getInstance(MESSAGE_LISTENER_CONTAINERS_DEFAULT_DOMAIN, keys);
+    } else if (managedBean instanceof SignalVersionLatencies) {
+      SignalVersionLatencies latencies = (SignalVersionLatencies) managedBean;
+      Hashtable<String, String> keys = new Hashtable<String, String>();
+      keys.put(TYPE_KEY, ClassUtils.getShortName(managedBean.getClass()));
+      keys.put(DESTINATION_KEY, latencies.getDestinationName());
+      if (!StringUtils.isEmpty(latencies.getMessageSelector())) {
+        keys.put(SELECTOR_KEY, escapeSelector(latencies.getMessageSelector()));
+      }
+      name = ObjectNameManager.getInstance(MESSAGE_LISTENER_CONTAINERS_DEFAULT_DOMAIN, keys);
+    } else if (isObjectName(beanKey)) {
+      name = ObjectNameManager.getInstance(beanKey);
+    } else {
+      name = super.getObjectName(managedBean, beanKey);
+    }
+
+    return name;
+  }
+
+  /**
+   * Is the bean key an object name (eg. "domain:type=MyBean")?
+   * @param beanKey key of the bean
+   * @return true if the key can be used as an object name
+   */
+  private boolean isObjectName(String beanKey) {
+    return beanKey != null && beanKey.indexOf(':') > 0 && beanKey.indexOf('=') > 0;
+  }
+
+  /**
+   * Escape JMS selector so that it can be used in an ObjectName
+   * @param selector JMS selector
+   * @return String the escaped selector
+   * See also the method {@link javax.jms.Message}.
+   */
+  private String escapeSelector(String selector) {
+    StringBuilder escapedSelector = new StringBuilder(selector.length() + 2);
+    if (selector.startsWith(DOUBLE_QUOTES) && selector.endsWith(DOUBLE_QUOTES)) {
+      escapedSelector.append(selector);
+    }
+    else {
+      escapedSelector.append(DOUBLE_QUOTES).append(selector).append(DOUBLE_QUOTES);
+    }
+    return escapedSelector.toString();
+  }
+}
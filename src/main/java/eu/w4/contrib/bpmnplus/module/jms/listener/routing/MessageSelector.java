@@ -0,0 +1,579 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * JMS message selector compiled to be evaluated in-process (against received messages).
+ * Supported syntax (subset of the JMS selector syntax) :
+ * <ul>
+ * <li>identifiers (message properties, JMSPriority, JMSType, JMSCorrelationID, JMSMessageID, JMSTimestamp,
+ * JMSDeliveryMode) and string, numeric and boolean literals</li>
+ * <li>comparisons ({@code = <> < > <= >=}), {@code [NOT] IN}, {@code [NOT] BETWEEN}, {@code [NOT] LIKE [ESCAPE]},
+ * {@code IS [NOT] NULL}</li>
+ * <li>{@code AND}, {@code OR}, {@code NOT} and parentheses</li>
+ * </ul>
+ * Arithmetic expressions are not supported. As in JMS, comparisons involving a missing property are unknown, and a
+ * message only matches if the selector is true. Compiled selectors are immutable and thread safe.
+ */
+public final class MessageSelector {
+
+  private final String selector;
+  private final Node root;
+
+  private MessageSelector(String selector, Node root) {
+    this.selector = selector;
+    this.root = root;
+  }
+
+  /**
+   * Compile a selector
+   * @param selector JMS message selector
+   * @return MessageSelector compiled selector
+   * @throws IllegalArgumentException the selector is malformed or not supported
+   */
+  public static MessageSelector compile(String selector) {
+    if (selector == null || selector.trim().isEmpty()) {
+      throw new IllegalArgumentException("Selector cannot be empty");
+    }
+    Parser parser = new Parser(selector);
+    Node root = parser.parseExpression();
+    parser.expectEnd();
+    return new MessageSelector(selector, root);
+  }
+
+  /**
+   * Does a message match the selector?
+   * @param message received message
+   * @return boolean true if the selector is true for the message (false if false or unknown)
+   * @throws JMSException a property of the message cannot be read
+   */
+  public boolean matches(Message message) throws JMSException {
+    return Boolean.TRUE.equals(root.evaluate(message));
+  }
+
+  @Override
+  public String toString() {
+    return selector;
+  }
+
+  /**
+   * Node of a compiled selector : boolean nodes evaluate to TRUE, FALSE or null (unknown), value nodes to their value
+   */
+  private interface Node {
+    Object evaluate(Message message) throws JMSException;
+  }
+
+  private static final class Literal implements Node {
+    private final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object evaluate(Message message) {
+      return value;
+    }
+  }
+
+  private static final class Identifier implements Node {
+    private final String name;
+
+    Identifier(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      if ("JMSPriority".equals(name)) {
+        return message.getJMSPriority();
+      } else if ("JMSType".equals(name)) {
+        return message.getJMSType();
+      } else if ("JMSCorrelationID".equals(name)) {
+        return message.getJMSCorrelationID();
+      } else if ("JMSMessageID".equals(name)) {
+        return message.getJMSMessageID();
+      } else if ("JMSTimestamp".equals(name)) {
+        return message.getJMSTimestamp();
+      } else if ("JMSDeliveryMode".equals(name)) {
+        return (message.getJMSDeliveryMode() == javax.jms.DeliveryMode.PERSISTENT ? "PERSISTENT" : "NON_PERSISTENT");
+      }
+      return message.getObjectProperty(name);
+    }
+  }
+
+  private static final class Comparison implements Node {
+    private final String operator;
+    private final Node left;
+    private final Node right;
+
+    Comparison(String operator, Node left, Node right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      return compare(operator, left.evaluate(message), right.evaluate(message));
+    }
+  }
+
+  private static final class In implements Node {
+    private final Node operand;
+    private final List<String> values;
+    private final boolean negated;
+
+    In(Node operand, List<String> values, boolean negated) {
+      this.operand = operand;
+      this.values = values;
+      this.negated = negated;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      Object value = operand.evaluate(message);
+      if (!(value instanceof String)) {
+        return null;
+      }
+      return values.contains(value) != negated;
+    }
+  }
+
+  private static final class Between implements Node {
+    private final Node operand;
+    private final Node lower;
+    private final Node upper;
+    private final boolean negated;
+
+    Between(Node operand, Node lower, Node upper, boolean negated) {
+      this.operand = operand;
+      this.lower = lower;
+      this.upper = upper;
+      this.negated = negated;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      Object value = operand.evaluate(message);
+      Boolean between = and(compare(">=", value, lower.evaluate(message)), compare("<=", value, upper.evaluate(message)));
+      return (between == null ? null : between != negated);
+    }
+  }
+
+  private static final class Like implements Node {
+    private final Node operand;
+    private final Pattern pattern;
+    private final boolean negated;
+
+    Like(Node operand, Pattern pattern, boolean negated) {
+      this.operand = operand;
+      this.pattern = pattern;
+      this.negated = negated;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      Object value = operand.evaluate(message);
+      if (!(value instanceof String)) {
+        return null;
+      }
+      return pattern.matcher((String) value).matches() != negated;
+    }
+  }
+
+  private static final class IsNull implements Node {
+    private final Node operand;
+    private final boolean negated;
+
+    IsNull(Node operand, boolean negated) {
+      this.operand = operand;
+      this.negated = negated;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      return (operand.evaluate(message) == null) != negated;
+    }
+  }
+
+  private static final class Not implements Node {
+    private final Node operand;
+
+    Not(Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      Boolean value = asBoolean(operand.evaluate(message));
+      return (value == null ? null : !value);
+    }
+  }
+
+  private static final class Logical implements Node {
+    private final boolean conjunction;
+    private final List<Node> operands;
+
+    Logical(boolean conjunction, List<Node> operands) {
+      this.conjunction = conjunction;
+      this.operands = operands;
+    }
+
+    @Override
+    public Object evaluate(Message message) throws JMSException {
+      boolean unknown = false;
+      for (Node operand : operands) {
+        Boolean value = asBoolean(operand.evaluate(message));
+        if (value == null) {
+          unknown = true;
+        } else if (value != conjunction) {
+          // false in a conjunction, true in a disjunction
+          return value;
+        }
+      }
+      return (unknown ? null : conjunction);
+    }
+  }
+
+  private static Boolean asBoolean(Object value) {
+    return (value instanceof Boolean ? (Boolean) value : null);
+  }
+
+  private static Boolean and(Boolean left, Boolean right) {
+    if (Boolean.FALSE.equals(left) || Boolean.FALSE.equals(right)) {
+      return false;
+    }
+    return (left == null || right == null ? null : true);
+  }
+
+  /**
+   * Compare two values
+   * @return Boolean result of the comparison, null if unknown (missing value or incompatible types)
+   */
+  private static Boolean compare(String operator, Object left, Object right) {
+    if (left == null || right == null) {
+      return null;
+    }
+    int comparison;
+    if (left instanceof Number && right instanceof Number) {
+      comparison = compareNumbers((Number) left, (Number) right);
+    } else if (left instanceof String && right instanceof String || left instanceof Boolean && right instanceof Boolean) {
+      if (!"=".equals(operator) && !"<>".equals(operator)) {
+        return null;
+      }
+      comparison = (left.equals(right) ? 0 : 1);
+    } else {
+      return null;
+    }
+
+    if ("=".equals(operator)) {
+      return comparison == 0;
+    } else if ("<>".equals(operator)) {
+      return comparison != 0;
+    } else if ("<".equals(operator)) {
+      return comparison < 0;
+    } else if (">".equals(operator)) {
+      return comparison > 0;
+    } else if ("<=".equals(operator)) {
+      return comparison <= 0;
+    }
+    return comparison >= 0;
+  }
+
+  private static int compareNumbers(Number left, Number right) {
+    if (isIntegral(left) && isIntegral(right)) {
+      long l = left.longValue();
+      long r = right.longValue();
+      return (l < r ? -1 : (l == r ? 0 : 1));
+    }
+    return Double.compare(left.doubleValue(), right.doubleValue());
+  }
+
+  private static boolean isIntegral(Number number) {
+    return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+  }
+
+  /**
+   * Recursive descent parser of selectors
+   */
+  private static final class Parser {
+    private final String selector;
+    private final List<String> tokens;
+    private int position;
+
+    Parser(String selector) {
+      this.selector = selector;
+      this.tokens = tokenize(selector);
+    }
+
+    Node parseExpression() {
+      List<Node> operands = new ArrayList<Node>();
+      operands.add(parseConjunction());
+      while (acceptKeyword("OR")) {
+        operands.add(parseConjunction());
+      }
+      return (operands.size() == 1 ? operands.get(0) : new Logical(false, operands));
+    }
+
+    private Node parseConjunction() {
+      List<Node> operands = new ArrayList<Node>();
+      operands.add(parseNegation());
+      while (acceptKeyword("AND")) {
+        operands.add(parseNegation());
+      }
+      return (operands.size() == 1 ? operands.get(0) : new Logical(true, operands));
+    }
+
+    private Node parseNegation() {
+      if (acceptKeyword("NOT")) {
+        return new Not(parseNegation());
+      }
+      return parsePredicate();
+    }
+
+    private Node parsePredicate() {
+      if (accept("(")) {
+        Node expression = parseExpression();
+        expect(")");
+        return expression;
+      }
+      Node operand = parseOperand();
+
+      if (acceptKeyword("IS")) {
+        boolean negated = acceptKeyword("NOT");
+        expectKeyword("NULL");
+        return new IsNull(operand, negated);
+      }
+      boolean negated = acceptKeyword("NOT");
+      if (acceptKeyword("IN")) {
+        expect("(");
+        List<String> values = new ArrayList<String>();
+        do {
+          values.add(parseString());
+        } while (accept(","));
+        expect(")");
+        return new In(operand, values, negated);
+      }
+      if (acceptKeyword("BETWEEN")) {
+        Node lower = parseOperand();
+        expectKeyword("AND");
+        return new Between(operand, lower, parseOperand(), negated);
+      }
+      if (acceptKeyword("LIKE")) {
+        String pattern = parseString();
+        Character escape = null;
+        if (acceptKeyword("ESCAPE")) {
+          String escapeString = parseString();
+          if (escapeString.length() != 1) {
+            throw error("ESCAPE should be a single character");
+          }
+          escape = escapeString.charAt(0);
+        }
+        return new Like(operand, toRegex(pattern, escape), negated);
+      }
+      if (negated) {
+        throw error("IN, BETWEEN or LIKE expected after NOT");
+      }
+
+      String token = peek();
+      if (token != null && ("=".equals(token) || "<>".equals(token) || "<".equals(token) || ">".equals(token)
+              || "<=".equals(token) || ">=".equals(token))) {
+        position++;
+        return new Comparison(token, operand, parseOperand());
+      }
+      if (token != null && ("+".equals(token) || "-".equals(token) || "*".equals(token) || "/".equals(token))) {
+        throw error("arithmetic expressions are not supported");
+      }
+      // Boolean operand on its own (eg. boolean property)
+      return operand;
+    }
+
+    private Node parseOperand() {
+      String token = next();
+      if (token.startsWith("'")) {
+        return new Literal(token.substring(1, token.length() - 1).replace("''", "'"));
+      }
+      if ("TRUE".equalsIgnoreCase(token) || "FALSE".equalsIgnoreCase(token)) {
+        return new Literal(Boolean.valueOf(token));
+      }
+      char first = token.charAt(0);
+      if (Character.isDigit(first) || first == '.' || ((first == '-' || first == '+') && token.length() > 1)) {
+        return new Literal(parseNumber(token));
+      }
+      if (Character.isJavaIdentifierStart(first)) {
+        if (isKeyword(token)) {
+          throw error("unexpected keyword " + token);
+        }
+        return new Identifier(token);
+      }
+      throw error("unexpected token " + token);
+    }
+
+    private String parseString() {
+      String token = next();
+      if (!token.startsWith("'")) {
+        throw error("string literal expected instead of " + token);
+      }
+      return token.substring(1, token.length() - 1).replace("''", "'");
+    }
+
+    private Number parseNumber(String token) {
+      try {
+        String number = token.endsWith("L") || token.endsWith("l") ? token.substring(0, token.length() - 1) : token;
+        if (number.contains(".") || number.contains("e") || number.contains("E")) {
+          return Double.valueOf(number);
+        }
+        return Long.valueOf(number);
+      } catch (NumberFormatException nfe) {
+        throw error("malformed number " + token);
+      }
+    }
+
+    private static Pattern toRegex(String pattern, Character escape) {
+      StringBuilder regex = new StringBuilder();
+      for (int i = 0; i < pattern.length(); i++) {
+        char c = pattern.charAt(i);
+        if (escape != null && c == escape && i + 1 < pattern.length()) {
+          regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+        } else if (c == '%') {
+          regex.append(".*");
+        } else if (c == '_') {
+          regex.append('.');
+        } else {
+          regex.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+      return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static boolean isKeyword(String token) {
+      String keyword = token.toUpperCase();
+      return "AND".equals(keyword) || "OR".equals(keyword) || "NOT".equals(keyword) || "IN".equals(keyword)
+              || "IS".equals(keyword) || "NULL".equals(keyword) || "LIKE".equals(keyword) || "BETWEEN".equals(keyword)
+              || "ESCAPE".equals(keyword);
+    }
+
+    private String peek() {
+      return (position < tokens.size() ? tokens.get(position) : null);
+    }
+
+    private String next() {
+      if (position >= tokens.size()) {
+        throw error("unexpected end");
+      }
+      return tokens.get(position++);
+    }
+
+    private boolean accept(String token) {
+      if (token.equals(peek())) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean acceptKeyword(String keyword) {
+      String token = peek();
+      if (token != null && keyword.equalsIgnoreCase(token)) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String token) {
+      if (!accept(token)) {
+        throw error("'" + token + "' expected");
+      }
+    }
+
+    private void expectKeyword(String keyword) {
+      if (!acceptKeyword(keyword)) {
+        throw error(keyword + " expected");
+      }
+    }
+
+    void expectEnd() {
+      if (position < tokens.size()) {
+        throw error("unexpected token " + tokens.get(position));
+      }
+    }
+
+    private IllegalArgumentException error(String reason) {
+      return new IllegalArgumentException("Selector \"" + selector + "\" not supported : " + reason);
+    }
+
+    private List<String> tokenize(String selector) {
+      List<String> result = new ArrayList<String>();
+      int i = 0;
+      int length = selector.length();
+      while (i < length) {
+        char c = selector.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if (c == '\'') {
+          int end = i + 1;
+          while (true) {
+            if (end >= length) {
+              throw error("unterminated string literal");
+            }
+            if (selector.charAt(end) == '\'') {
+              if (end + 1 < length && selector.charAt(end + 1) == '\'') {
+                end += 2;
+                continue;
+              }
+              break;
+            }
+            end++;
+          }
+          result.add(selector.substring(i, end + 1));
+          i = end + 1;
+        } else if (Character.isJavaIdentifierStart(c)) {
+          int end = i + 1;
+          while (end < length && Character.isJavaIdentifierPart(selector.charAt(end))) {
+            end++;
+          }
+          result.add(selector.substring(i, end));
+          i = end;
+        } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(selector.charAt(i + 1)))) {
+          int end = i + 1;
+          while (end < length && (Character.isLetterOrDigit(selector.charAt(end)) || selector.charAt(end) == '.'
+                  || ((selector.charAt(end) == '-' || selector.charAt(end) == '+') && Character.toUpperCase(selector.charAt(end - 1)) == 'E'))) {
+            end++;
+          }
+          result.add(selector.substring(i, end));
+          i = end;
+        } else if ((c == '<' || c == '>') && i + 1 < length && (selector.charAt(i + 1) == '=' || (c == '<' && selector.charAt(i + 1) == '>'))) {
+          result.add(selector.substring(i, i + 2));
+          i += 2;
+        } else if ((c == '-' || c == '+') && i + 1 < length && Character.isDigit(selector.charAt(i + 1)) && isOperandExpected(result)) {
+          int end = i + 1;
+          while (end < length && (Character.isLetterOrDigit(selector.charAt(end)) || selector.charAt(end) == '.')) {
+            end++;
+          }
+          result.add(selector.substring(i, end));
+          i = end;
+        } else if ("=<>(),+-*/".indexOf(c) >= 0) {
+          result.add(String.valueOf(c));
+          i++;
+        } else {
+          throw error("unexpected character '" + c + "'");
+        }
+      }
+      return result;
+    }
+
+    private static boolean isOperandExpected(List<String> tokens) {
+      if (tokens.isEmpty()) {
+        return true;
+      }
+      String last = tokens.get(tokens.size() - 1);
+      return "=<>(,".contains(last) || "<=".equals(last) || ">=".equals(last) || "<>".equals(last) || isKeyword(last);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.routing;
+
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.PreparingMessageListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jms.listener.SessionAwareMessageListener;
+
+/**
+ * Listener of a destination shared by several endpoints : each received message is dispatched to the listener of the
+ * first endpoint whose (compiled) selector matches it, or to the fallback listener if none matches.
+ * The consumer only receives messages matching one of the selectors (or all of them with a fallback) : a message
+ * matching nothing without fallback fails, so that it is not acknowledged (the broker may deliver it to another
+ * consumer). Should be thread safe once configured.
+ */
+public class RoutingMessageListener implements SessionAwareMessageListener<Message>, PreparingMessageListener, DisposableBean {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  // Processing of the messages already processed
+  private static final Runnable NO_PROCESSING = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  private final String destinationName;
+  private final List<Route> routes = new ArrayList<Route>();
+  private Object fallback;
+  private String fallbackId;
+
+  /**
+   * Default constructor
+   * @param destinationName name of the shared destination
+   */
+  public RoutingMessageListener(String destinationName) {
+    this.destinationName = destinationName;
+  }
+
+  /**
+   * Add a route (routes are evaluated in order)
+   * @param endpointId id of the endpoint
+   * @param selector compiled selector of the endpoint
+   * @param listener listener of the endpoint ({@code MessageListener} or {@code SessionAwareMessageListener})
+   */
+  public void addRoute(String endpointId, MessageSelector selector, Object listener) {
+    routes.add(new Route(endpointId, selector, listener));
+  }
+
+  /**
+   * Set the listener of the messages matching no route
+   * @param endpointId id of the endpoint
+   * @param listener listener of the endpoint ({@code MessageListener} or {@code SessionAwareMessageListener})
+   */
+  public void setFallback(String endpointId, Object listener) {
+    this.fallbackId = endpointId;
+    this.fallback = listener;
+  }
+
+  @Override
+  public void onMessage(Message message, Session session) throws JMSException {
+    dispatch(route(message), message, session);
+  }
+
+  /**
+   * Prepare the processing of a message by the listener of its route. Messages of listeners that cannot prepare them
+   * are processed right away (by the consumer thread).
+   */
+  @Override
+  public Runnable prepare(Message message, Session session) throws JMSException {
+    Object listener = route(message);
+    if (listener instanceof PreparingMessageListener) {
+      return ((PreparingMessageListener) listener).prepare(message, session);
+    }
+    dispatch(listener, message, session);
+    return NO_PROCESSING;
+  }
+
+  /**
+   * Get the listener of a message
+   * @param message received message
+   * @return Object listener of the first route matching the message, or the fallback listener
+   * @throws JMSException the message cannot be read, or matches no route without fallback
+   */
+  private Object route(Message message) throws JMSException {
+    for (Route route : routes) {
+      if (route.selector.matches(message)) {
+        logger.trace("Message routed to endpoint {}", route.endpointId);
+        return route.listener;
+      }
+    }
+    if (fallback != null) {
+      logger.debug("Message matching no selector of destination {} : routed to fallback endpoint {}", destinationName, fallbackId);
+      return fallback;
+    }
+    // Not acknowledged : the message may belong to another consumer of the destination
+    throw new JMSException("Message " + message.getJMSMessageID() + " matching no selector of destination "
+            + destinationName + " (and no fallback endpoint) : not processed");
+  }
+
+  @SuppressWarnings("unchecked")
+  private void dispatch(Object listener, Message message, Session session) throws JMSException {
+    if (listener instanceof SessionAwareMessageListener) {
+      ((SessionAwareMessageListener<Message>) listener).onMessage(message, session);
+    } else {
+      ((MessageListener) listener).onMessage(message);
+    }
+  }
+
+  public String getDestinationName() {
+    return destinationName;
+  }
+
+  /**
+   * Get the ids of the endpoints routed by this listener (fallback last)
+   * @return List&lt;String&gt; endpoint ids
+   */
+  public List<String> getEndpointIds() {
+    List<String> endpointIds = new ArrayList<String>();
+    for (Route route : routes) {
+      endpointIds.add(route.endpointId);
+    }
+    if (fallbackId != null) {
+      endpointIds.add(fallbackId);
+    }
+    return Collections.unmodifiableList(endpointIds);
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    for (Route route : routes) {
+      if (route.listener instanceof DisposableBean) {
+        ((DisposableBean) route.listener).destroy();
+      }
+    }
+    if (fallback instanceof DisposableBean) {
+      ((DisposableBean) fallback).destroy();
+    }
+  }
+
+  /**
+   * Selector and listener of an endpoint
+   */
+  private static final class Route {
+    private final String endpointId;
+    private final MessageSelector selector;
+    private final Object listener;
+
+    Route(String endpointId, MessageSelector selector, Object listener) {
+      this.endpointId = endpointId;
+      this.selector = selector;
+      this.listener = listener;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Input stream reading the body of a BytesMessage
+ */
+class BytesMessageInputStream extends InputStream {
+  private final BytesMessage message;
+
+  BytesMessageInputStream(BytesMessage message) {
+    this.message = message;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return (read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    try {
+      if (offset == 0) {
+        return message.readBytes(buffer, length);
+      }
+      byte[] chunk = new byte[length];
+      int read = message.readBytes(chunk, length);
+      if (read > 0) {
+        System.arraycopy(chunk, 0, buffer, offset, read);
+      }
+      return read;
+    } catch (JMSException jex) {
+      throw new IOException("Cannot read message body", jex);
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Decoder of the compressed payloads (BytesMessage), according to their {@code ContentEncoding} property :
+ * "gzip" (single member) or "deflate" (zlib). Payloads are decompressed as a stream, read by the mapping stage, and
+ * bounded : reading more than the maximum size fails (malformed or malicious payload).
+ * Inflaters and payload buffers are reused per consumer thread (the gzip header and trailer are read here, the
+ * compressed data by a raw inflater). Should be thread safe.
+ */
+public class ContentDecoder {
+
+  public static final String JMS_PROPERTY_CONTENT_ENCODING = "ContentEncoding";
+  public static final String ENCODING_GZIP = "gzip";
+  public static final String ENCODING_DEFLATE = "deflate";
+  public static final String ENCODING_IDENTITY = "identity";
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_RETAINED_PAYLOAD_BUFFER = 1024 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
+
+  private static final ThreadLocal<Inflater> gzipInflaters = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater(true);
+    }
+  };
+
+  private static final ThreadLocal<PayloadBuffer> payloadBuffers = new ThreadLocal<PayloadBuffer>() {
+    @Override
+    protected PayloadBuffer initialValue() {
+      return new PayloadBuffer();
+    }
+  };
+
+  // Maximum size of a decompressed payload (bytes)
+  private final long maxSize;
+
+  /**
+   * Default constructor
+   * @param maxSize maximum size of a decompressed payload (bytes)
+   */
+  public ContentDecoder(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Get the encoding of a message payload
+   * @param message received message
+   * @return String encoding (lower case), null if the payload is not encoded
+   * @throws JMSException property cannot be read
+   */
+  public static String getContentEncoding(Message message) throws JMSException {
+    String encoding = message.getStringProperty(JMS_PROPERTY_CONTENT_ENCODING);
+    if (encoding == null || encoding.isEmpty() || ENCODING_IDENTITY.equalsIgnoreCase(encoding)) {
+      return null;
+    }
+    return encoding.toLowerCase();
+  }
+
+  /**
+   * Decompress the body of a BytesMessage as a stream
+   * @param message received message
+   * @param encoding encoding of the body (see getContentEncoding)
+   * @return InputStream decompressed body (bounded)
+   * @throws IOException unsupported encoding or unreadable body
+   */
+  public InputStream decode(BytesMessage message, String encoding) throws IOException {
+    InputStream body = new BytesMessageInputStream(message);
+    InputStream decoded;
+    if (ENCODING_GZIP.equals(encoding)) {
+      Inflater inflater = gzipInflaters.get();
+      inflater.reset();
+      decoded = new GzipInputStream(body, inflater);
+    } else if (ENCODING_DEFLATE.equals(encoding)) {
+      Inflater inflater = inflaters.get();
+      inflater.reset();
+      decoded = new InflaterInputStream(body, inflater, BUFFER_SIZE);
+    } else {
+      throw new IOException("Unsupported content encoding '" + encoding + "' (only '" + ENCODING_GZIP + "' or '" + ENCODING_DEFLATE + "')");
+    }
+    return new BoundedInputStream(decoded, maxSize);
+  }
+
+  /**
+   * Decompress the body of a BytesMessage as bytes
+   * @param message received message
+   * @param encoding encoding of the body (see getContentEncoding)
+   * @return byte[] decompressed body
+   * @throws IOException unsupported encoding or unreadable body
+   */
+  public byte[] decodeBytes(BytesMessage message, String encoding) throws IOException {
+    PayloadBuffer payload = payloadBuffers.get();
+    try {
+      read(message, encoding, payload);
+      return payload.toByteArray();
+    } finally {
+      payload.release();
+    }
+  }
+
+  /**
+   * Decompress the body of a BytesMessage as text (UTF-8)
+   * @param message received message
+   * @param encoding encoding of the body (see getContentEncoding)
+   * @return String decompressed text
+   * @throws IOException unsupported encoding or unreadable body
+   */
+  public String decodeText(BytesMessage message, String encoding) throws IOException {
+    PayloadBuffer payload = payloadBuffers.get();
+    try {
+      read(message, encoding, payload);
+      return payload.text(UTF_8);
+    } finally {
+      payload.release();
+    }
+  }
+
+  private void read(BytesMessage message, String encoding, PayloadBuffer payload) throws IOException {
+    payload.reset();
+    InputStream decoded = decode(message, encoding);
+    try {
+      int read;
+      while ((read = decoded.read(payload.chunk)) >= 0) {
+        payload.write(payload.chunk, 0, read);
+      }
+    } finally {
+      decoded.close();
+    }
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Stream failing once more than a maximum number of bytes is read
+   */
+  private static class BoundedInputStream extends FilterInputStream {
+    private final long maxSize;
+    private long size;
+
+    BoundedInputStream(InputStream in, long maxSize) {
+      super(in);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      if (value >= 0) {
+        count(1);
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = super.read(buffer, offset, length);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    private void count(int read) throws IOException {
+      size += read;
+      if (size > maxSize) {
+        throw new IOException("Decompressed payload larger than " + maxSize + " bytes");
+      }
+    }
+  }
+
+  /**
+   * Stream decompressing a gzip member (RFC 1952) with a reused raw inflater : the header is read when the stream is
+   * created, the trailer (CRC-32 and size of the data) checked once the compressed data is read
+   */
+  private static class GzipInputStream extends InflaterInputStream {
+    private static final int MAGIC = 0x8b1f;
+    private static final int METHOD_DEFLATE = 8;
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FLAG_HCRC = 2;
+    private static final int FLAG_EXTRA = 4;
+    private static final int FLAG_NAME = 8;
+    private static final int FLAG_COMMENT = 16;
+
+    private final CRC32 crc = new CRC32();
+    private boolean ended;
+
+    GzipInputStream(InputStream in, Inflater inflater) throws IOException {
+      super(in, inflater, BUFFER_SIZE);
+      readHeader();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (ended) {
+        return -1;
+      }
+      int read = super.read(buffer, offset, length);
+      if (read < 0) {
+        ended = true;
+        readTrailer();
+      } else {
+        crc.update(buffer, offset, read);
+      }
+      return read;
+    }
+
+    private void readHeader() throws IOException {
+      byte[] header = new byte[HEADER_SIZE];
+      readFully(header, 0, HEADER_SIZE);
+      crc.update(header, 0, HEADER_SIZE);
+      if (getUnsignedShort(header, 0) != MAGIC) {
+        throw new ZipException("Not in gzip format");
+      }
+      if ((header[2] & 0xFF) != METHOD_DEFLATE) {
+        throw new ZipException("Unsupported gzip compression method");
+      }
+      int flags = header[3] & 0xFF;
+      // Optional fields (rare) : skipped
+      if ((flags & FLAG_EXTRA) != 0) {
+        byte[] extraLength = new byte[2];
+        readFully(extraLength, 0, 2);
+        crc.update(extraLength, 0, 2);
+        for (int extra = getUnsignedShort(extraLength, 0); extra > 0; extra--) {
+          readHeaderByte();
+        }
+      }
+      if ((flags & FLAG_NAME) != 0) {
+        while (readHeaderByte() != 0) {
+          // Skip file name
+        }
+      }
+      if ((flags & FLAG_COMMENT) != 0) {
+        while (readHeaderByte() != 0) {
+          // Skip comment
+        }
+      }
+      if ((flags & FLAG_HCRC) != 0) {
+        byte[] headerCrc = new byte[2];
+        readFully(headerCrc, 0, 2);
+        if (getUnsignedShort(headerCrc, 0) != ((int) crc.getValue() & 0xFFFF)) {
+          throw new ZipException("Corrupt gzip header");
+        }
+      }
+      crc.reset();
+    }
+
+    private int readHeaderByte() throws IOException {
+      int value = in.read();
+      if (value < 0) {
+        throw new EOFException("Unexpected end of gzip header");
+      }
+      crc.update(value);
+      return value;
+    }
+
+    private void readTrailer() throws IOException {
+      // Trailer read by the inflater with the end of the compressed data
+      byte[] trailer = new byte[TRAILER_SIZE];
+      int remaining = Math.min(inf.getRemaining(), TRAILER_SIZE);
+      System.arraycopy(buf, len - inf.getRemaining(), trailer, 0, remaining);
+      readFully(trailer, remaining, TRAILER_SIZE - remaining);
+      if (getInt(trailer, 0) != (int) crc.getValue() || getInt(trailer, 4) != (int) inf.getBytesWritten()) {
+        throw new ZipException("Corrupt gzip trailer");
+      }
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+      while (length > 0) {
+        int read = in.read(buffer, offset, length);
+        if (read < 0) {
+          throw new EOFException("Unexpected end of gzip payload");
+        }
+        offset += read;
+        length -= read;
+      }
+    }
+
+    private static int getUnsignedShort(byte[] buffer, int offset) {
+      return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int getInt(byte[] buffer, int offset) {
+      return getUnsignedShort(buffer, offset) | (getUnsignedShort(buffer, offset + 2) << 16);
+    }
+  }
+
+  /**
+   * Buffer of the decompressed payload of a consumer thread
+   */
+  private static class PayloadBuffer extends ByteArrayOutputStream {
+    private final byte[] chunk = new byte[BUFFER_SIZE];
+
+    PayloadBuffer() {
+      super(BUFFER_SIZE);
+    }
+
+    String text(Charset charset) {
+      return new String(buf, 0, count, charset);
+    }
+
+    void release() {
+      if (buf.length > MAX_RETAINED_PAYLOAD_BUFFER) {
+        // Do not retain the buffer of a huge payload
+        buf = new byte[BUFFER_SIZE];
+      }
+      count = 0;
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.BeanUtils;
+
+/**
+ * Extraction plan of data entries from a payload, compiled once from the data entries mapping
+ * (payload path -&gt; W4 data entry id). Paths can be nested and indexed (eg. {@code order.customer.id},
+ * {@code lines[0].code}) and are resolved on Maps, Lists, arrays and JavaBeans (DTOs) alike.
+ * JSON objects (String payload) are parsed, only the entries used by the plan being built.
+ * A path that cannot be resolved (missing entry, null value, index out of bounds) gives a null data entry.
+ * Should be thread safe.
+ */
+public class DataEntriesMappingPlan {
+
+  private final String[] dataEntryIds;
+  private final Step[][] paths;
+
+  // Top-level keys used by the plan
+  private final Set<String> rootKeys;
+  private final JsonEntriesReader jsonReader;
+
+  private DataEntriesMappingPlan(String[] dataEntryIds, Step[][] paths, Set<String> rootKeys) {
+    this.dataEntryIds = dataEntryIds;
+    this.paths = paths;
+    this.rootKeys = Collections.unmodifiableSet(rootKeys);
+    this.jsonReader = new JsonEntriesReader(rootKeys);
+  }
+
+  /**
+   * Compile a data entries mapping
+   * @param dataEntriesMapping payload path -&gt; W4 data entry id
+   * @return DataEntriesMappingPlan compiled plan
+   * @throws IllegalArgumentException if a path is malformed
+   */
+  public static DataEntriesMappingPlan compile(Map<String, String> dataEntriesMapping) {
+    int size = dataEntriesMapping.size();
+    String[] dataEntryIds = new String[size];
+    Step[][] paths = new Step[size][];
+    Set<String> rootKeys = new LinkedHashSet<String>();
+
+    int i = 0;
+    for (Map.Entry<String, String> mapping : dataEntriesMapping.entrySet()) {
+      dataEntryIds[i] = mapping.getValue();
+      paths[i] = parsePath(mapping.getKey());
+      if (paths[i][0] instanceof PropertyStep) {
+        rootKeys.add(((PropertyStep) paths[i][0]).name);
+      }
+      i++;
+    }
+    return new DataEntriesMappingPlan(dataEntryIds, paths, rootKeys);
+  }
+
+  /**
+   * Parse a path (eg. {@code order.lines[0].code})
+   * @param path path
+   * @return Step[] steps of the path
+   */
+  private static Step[] parsePath(String path) {
+    if (path == null || path.trim().isEmpty()) {
+      throw new IllegalArgumentException("Data entry mapping path cannot be empty");
+    }
+    List<Step> steps = new ArrayList<Step>();
+    for (String segment : path.trim().split("\\.", -1)) {
+      int bracket = segment.indexOf('[');
+      String name = (bracket < 0 ? segment : segment.substring(0, bracket));
+      if (!name.isEmpty()) {
+        steps.add(new PropertyStep(name));
+      } else if (bracket != 0) {
+        throw new IllegalArgumentException("Malformed data entry mapping path '" + path + "' (empty segment)");
+      }
+      while (bracket >= 0) {
+        int closing = segment.indexOf(']', bracket);
+        if (closing < 0) {
+          throw new IllegalArgumentException("Malformed data entry mapping path '" + path + "' (missing ']')");
+        }
+        try {
+          steps.add(new IndexStep(Integer.parseInt(segment.substring(bracket + 1, closing).trim())));
+        } catch (NumberFormatException nfe) {
+          throw new IllegalArgumentException("Malformed data entry mapping path '" + path + "' (wrong index)", nfe);
+        }
+        bracket = segment.indexOf('[', closing);
+        if (bracket < 0 && closing != segment.length() - 1) {
+          throw new IllegalArgumentException("Malformed data entry mapping path '" + path + "' (unexpected characters after ']')");
+        }
+      }
+    }
+    return steps.toArray(new Step[steps.size()]);
+  }
+
+  /**
+   * Extract data entries from a payload
+   * @param payload Map, JavaBean or JSON object (String)
+   * @return Map&lt;String, Object&gt; data entries
+   */
+  public Map<String, Object> extract(Object payload) {
+    Object root = payload;
+    if (payload instanceof String) {
+      String json = ((String) payload).trim();
+      if (!json.startsWith("{")) {
+        throw new IllegalArgumentException("With dataEntries mappings defined, a String payload should be a JSON object.");
+      }
+      root = jsonReader.read(json);
+    }
+
+    Map<String, Object> dataEntries = new HashMap<String, Object>((int) (dataEntryIds.length / 0.75f) + 1);
+    for (int i = 0; i < dataEntryIds.length; i++) {
+      dataEntries.put(dataEntryIds[i], resolve(root, paths[i]));
+    }
+    return dataEntries;
+  }
+
+  /**
+   * Resolve a path
+   * @param root root object
+   * @param path steps of the path
+   * @return Object resolved value, null if the path cannot be resolved
+   */
+  private static Object resolve(Object root, Step[] path) {
+    Object current = root;
+    for (Step step : path) {
+      if (current == null) {
+        return null;
+      }
+      current = step.apply(current);
+    }
+    return current;
+  }
+
+  /**
+   * Get the top-level keys used by the plan
+   * @return Set&lt;String&gt; top-level keys
+   */
+  public Set<String> getRootKeys() {
+    return rootKeys;
+  }
+
+  /**
+   * Step of a path
+   */
+  private interface Step {
+    Object apply(Object current);
+  }
+
+  /**
+   * Named step : Map entry or JavaBean property
+   */
+  private static final class PropertyStep implements Step {
+    private final String name;
+
+    // Last resolved getter (most payloads of an endpoint have the same class)
+    private volatile Getter cachedGetter;
+
+    PropertyStep(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Object apply(Object current) {
+      if (current instanceof Map) {
+        return ((Map<?, ?>) current).get(name);
+      }
+
+      Getter getter = cachedGetter;
+      if (getter == null || getter.type != current.getClass()) {
+        getter = new Getter(current.getClass(), name);
+        cachedGetter = getter;
+      }
+      return getter.get(current);
+    }
+  }
+
+  /**
+   * Indexed step : List or array element
+   */
+  private static final class IndexStep implements Step {
+    private final int index;
+
+    IndexStep(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public Object apply(Object current) {
+      if (current instanceof List) {
+        List<?> list = (List<?>) current;
+        return (index < list.size() ? list.get(index) : null);
+      }
+      if (current.getClass().isArray()) {
+        return (index < Array.getLength(current) ? Array.get(current, index) : null);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * JavaBean property getter of a class
+   */
+  private static final class Getter {
+    private final Class<?> type;
+    private final Method method;
+
+    Getter(Class<?> type, String property) {
+      this.type = type;
+      PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, property);
+      this.method = (descriptor != null ? descriptor.getReadMethod() : null);
+      if (this.method != null && !this.method.isAccessible()) {
+        this.method.setAccessible(true);
+      }
+    }
+
+    Object get(Object bean) {
+      if (method == null) {
+        return null;
+      }
+      try {
+        return method.invoke(bean);
+      } catch (IllegalAccessException iae) {
+        throw new IllegalStateException("Cannot read property " + method.getName() + " of " + type.getName(), iae);
+      } catch (InvocationTargetException ite) {
+        throw new IllegalStateException("Cannot read property " + method.getName() + " of " + type.getName(), ite.getCause());
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+import org.springframework.jms.support.converter.MessageType;
+
+/**
+ * JSON message converter ("json" mapping) also reading compressed BytesMessage payloads (see {@code ContentDecoder}) :
+ * the DTO is read straight from the decompressed stream.
+ * With a binary data format (CBOR, Smile : "cbor" and "smile" mappings), BytesMessage payloads are always read as a
+ * stream, never decoded as text, and replies are BytesMessages.
+ */
+public class DecodingJackson2MessageConverter extends MappingJackson2MessageConverter {
+
+  private final ContentDecoder contentDecoder;
+
+  private ObjectMapper objectMapper;
+
+  // Binary data format (payload not readable as text)
+  private boolean binary;
+
+  /**
+   * Default constructor (JSON)
+   * @param contentDecoder decoder of the compressed payloads
+   */
+  public DecodingJackson2MessageConverter(ContentDecoder contentDecoder) {
+    this(contentDecoder, new ObjectMapper());
+  }
+
+  /**
+   * Converter of a given data format
+   * @param contentDecoder decoder of the compressed payloads
+   * @param objectMapper object mapper of the data format (eg. built on a CBORFactory or a SmileFactory)
+   */
+  public DecodingJackson2MessageConverter(ContentDecoder contentDecoder, ObjectMapper objectMapper) {
+    this.contentDecoder = contentDecoder;
+    setObjectMapper(objectMapper);
+  }
+
+  @Override
+  public void setObjectMapper(ObjectMapper objectMapper) {
+    super.setObjectMapper(objectMapper);
+    this.objectMapper = objectMapper;
+    // Only binary formats (CBOR, Smile) handle binary data natively
+    this.binary = objectMapper.getFactory().canHandleBinaryNatively();
+    if (binary) {
+      setTargetType(MessageType.BYTES);
+    }
+  }
+
+  @Override
+  protected Object convertFromBytesMessage(BytesMessage message, JavaType targetJavaType) throws JMSException, IOException {
+    String encoding = ContentDecoder.getContentEncoding(message);
+    if (encoding == null && !binary) {
+      return super.convertFromBytesMessage(message, targetJavaType);
+    }
+    InputStream body = (encoding != null ? contentDecoder.decode(message, encoding) : new BytesMessageInputStream(message));
+    try {
+      return objectMapper.readValue(body, targetJavaType);
+    } finally {
+      body.close();
+    }
+  }
+}
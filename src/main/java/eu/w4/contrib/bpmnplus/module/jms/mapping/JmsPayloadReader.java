@@ -0,0 +1,122 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.StreamMessage;
+
+/**
+ * Reader of the payloads of the messages not converted by the {@code NativePayloadMessageConverter} :
+ * <ul>
+ * <li>BytesMessage : body read at once into a byte array of its exact size</li>
+ * <li>StreamMessage : byte array fields read by chunks, other fields as objects (a single field is returned as is,
+ * several fields as a List)</li>
+ * <li>MapMessage : fields read straight into the data entries</li>
+ * </ul>
+ * Binary payloads larger than the maximum size are rejected. Should be thread safe.
+ */
+public class JmsPayloadReader {
+
+  private static final int CHUNK_SIZE = 8192;
+
+  // Maximum size of a binary payload (bytes)
+  private final long maxSize;
+
+  /**
+   * Default constructor
+   * @param maxSize maximum size of a binary payload (bytes)
+   */
+  public JmsPayloadReader(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Read the body of a BytesMessage
+   * @param message received message
+   * @return byte[] body
+   * @throws JMSException body cannot be read
+   */
+  public byte[] readBytes(BytesMessage message) throws JMSException {
+    long length = message.getBodyLength();
+    checkSize(length);
+    byte[] body = new byte[(int) length];
+    if (length > 0 && message.readBytes(body) != length) {
+      throw new MessageEOFException("Body shorter than its length (" + length + " bytes)");
+    }
+    return body;
+  }
+
+  /**
+   * Read the fields of a StreamMessage
+   * @param message received message
+   * @return Object single field (byte[] for a byte array field), or List&lt;Object&gt; of the fields
+   * @throws JMSException fields cannot be read
+   */
+  public Object readStream(StreamMessage message) throws JMSException {
+    List<Object> fields = new ArrayList<Object>();
+    byte[] chunk = new byte[CHUNK_SIZE];
+    long size = 0;
+    while (true) {
+      try {
+        int read = message.readBytes(chunk);
+        if (read < 0) {
+          // Null byte array
+          fields.add(null);
+          continue;
+        }
+        ByteArrayOutputStream field = new ByteArrayOutputStream(read);
+        while (read > 0) {
+          size += read;
+          checkSize(size);
+          field.write(chunk, 0, read);
+          if (read < chunk.length) {
+            break;
+          }
+          read = message.readBytes(chunk);
+        }
+        fields.add(field.toByteArray());
+      } catch (MessageFormatException notBytes) {
+        // Not a byte array (read position unchanged)
+        fields.add(message.readObject());
+      } catch (MessageEOFException eof) {
+        break;
+      }
+    }
+    return (fields.size() == 1 ? fields.get(0) : fields);
+  }
+
+  /**
+   * Read the fields of a MapMessage into data entries
+   * @param message received message
+   * @param dataEntries data entries to fill
+   * @param fieldsMapping data entry id of each field (fields not mapped are skipped), null to use the fields names
+   * @throws JMSException fields cannot be read
+   */
+  public void readMap(MapMessage message, Map<String, Object> dataEntries, Map<String, String> fieldsMapping) throws JMSException {
+    Enumeration<?> names = message.getMapNames();
+    while (names.hasMoreElements()) {
+      String name = (String) names.nextElement();
+      String dataEntryId = (fieldsMapping == null ? name : fieldsMapping.get(name));
+      if (dataEntryId != null) {
+        dataEntries.put(dataEntryId, message.getObject(name));
+      }
+    }
+  }
+
+  private void checkSize(long size) {
+    if (size > maxSize) {
+      throw new IllegalArgumentException("Payload too large (more than " + maxSize + " bytes)");
+    }
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+}
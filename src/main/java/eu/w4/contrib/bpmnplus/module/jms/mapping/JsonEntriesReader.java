@@ -0,0 +1,114 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.jms.support.converter.MessageConversionException;
+
+/**
+ * Reader of the top-level entries of a JSON object with a streaming parser. Objects are read as Maps
+ * (W4 XSD types), arrays as Lists. If keys are given, only these entries are built, others are skipped
+ * without being parsed into objects. Should be thread safe.
+ */
+public class JsonEntriesReader {
+
+  static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  // Top-level entries to build, null for all of them
+  private final Set<String> keys;
+
+  /**
+   * Default constructor
+   * @param keys top-level entries to build, null for all of them
+   */
+  public JsonEntriesReader(Set<String> keys) {
+    this.keys = (keys != null ? Collections.unmodifiableSet(new HashSet<String>(keys)) : null);
+  }
+
+  /**
+   * Read the entries of a JSON object
+   * @param json JSON object
+   * @return Map&lt;String, Object&gt; entries
+   */
+  public Map<String, Object> read(String json) {
+    try {
+      JsonParser parser = JSON_FACTORY.createParser(json);
+      try {
+        return read(parser);
+      } finally {
+        parser.close();
+      }
+    } catch (IOException ioe) {
+      throw new MessageConversionException("Cannot parse JSON payload", ioe);
+    }
+  }
+
+  /**
+   * Read the entries of a JSON object
+   * @param parser JSON parser (before the object)
+   * @return Map&lt;String, Object&gt; entries
+   * @throws IOException an error occured while parsing
+   */
+  public Map<String, Object> read(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new MessageConversionException("JSON payload should be an object");
+    }
+    Map<String, Object> entries = new LinkedHashMap<String, Object>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (keys == null || keys.contains(name)) {
+        entries.put(name, readValue(parser));
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Read the current JSON value
+   * @param parser JSON parser positioned on the value
+   * @return Object Map, List, String, Number, Boolean or null
+   * @throws IOException an error occured while parsing
+   */
+  private Object readValue(JsonParser parser) throws IOException {
+    switch (parser.getCurrentToken()) {
+      case START_OBJECT:
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          object.put(name, readValue(parser));
+        }
+        return object;
+      case START_ARRAY:
+        List<Object> array = new ArrayList<Object>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          array.add(readValue(parser));
+        }
+        return array;
+      case VALUE_STRING:
+        return parser.getText();
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        return parser.getNumberValue();
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return null;
+      default:
+        throw new MessageConversionException("Unexpected JSON token " + parser.getCurrentToken());
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.io.IOException;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.jms.support.converter.SimpleMessageConverter;
+
+/**
+ * Message converter of the endpoints without mapping : BytesMessage, StreamMessage and MapMessage are not converted,
+ * their payload being read by the listener with a {@code JmsPayloadReader} (no intermediate copy or Map).
+ * Compressed BytesMessage payloads (see {@code ContentDecoder}) are decompressed as bytes, like the bodies of the other
+ * BytesMessage (binary payload, mapped as is to one data entry).
+ * Other messages (and replies) are converted by a {@code SimpleMessageConverter}. Should be thread safe.
+ */
+public class NativePayloadMessageConverter implements MessageConverter {
+
+  private final MessageConverter defaultConverter = new SimpleMessageConverter();
+
+  // Decoder of the compressed payloads (null if not supported)
+  private final ContentDecoder contentDecoder;
+
+  public NativePayloadMessageConverter() {
+    this(null);
+  }
+
+  /**
+   * Converter decompressing compressed payloads
+   * @param contentDecoder decoder of the compressed payloads (null if not supported)
+   */
+  public NativePayloadMessageConverter(ContentDecoder contentDecoder) {
+    this.contentDecoder = contentDecoder;
+  }
+
+  @Override
+  public Object fromMessage(Message message) throws JMSException, MessageConversionException {
+    if (message instanceof BytesMessage && contentDecoder != null) {
+      String encoding = ContentDecoder.getContentEncoding(message);
+      if (encoding != null) {
+        try {
+          return contentDecoder.decodeBytes((BytesMessage) message, encoding);
+        } catch (IOException ioe) {
+          throw new MessageConversionException("Cannot decompress payload", ioe);
+        }
+      }
+    }
+    if (message instanceof BytesMessage || message instanceof StreamMessage || message instanceof MapMessage) {
+      return message;
+    }
+    return defaultConverter.fromMessage(message);
+  }
+
+  @Override
+  public Message toMessage(Object object, Session session) throws JMSException, MessageConversionException {
+    return defaultConverter.toMessage(object, session);
+  }
+}
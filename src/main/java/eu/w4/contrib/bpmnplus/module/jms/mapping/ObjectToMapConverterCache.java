@@ -0,0 +1,286 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
+import java.beans.PropertyDescriptor;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Named;
+import javax.xml.datatype.XMLGregorianCalendar;
+import ma.glasnost.orika.BoundMapperFacade;
+import ma.glasnost.orika.MapperFactory;
+import ma.glasnost.orika.impl.DefaultMapperFactory;
+import ma.glasnost.orika.metadata.Type;
+import ma.glasnost.orika.metadata.TypeBuilder;
+import ma.glasnost.orika.metadata.TypeFactory;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Cache of compiled object to Map converters (Orika bound mappers), keyed by payload class and shared by all listeners.
+ * Nested objects are converted to nested Maps so that they can be used as W4 XSD types.
+ * Should be thread safe.
+ */
+@Named
+public class ObjectToMapConverterCache implements DisposableBean {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+  // Guard against cyclic object graphs
+  private static final int MAXIMUM_DEPTH = 32;
+
+  private static final Type<Map<String, Object>> MAP_TYPE = new TypeBuilder<Map<String, Object>>() {
+  }.build();
+
+  // Compiled mappers by payload class
+  private final ConcurrentMap<Class<?>, BoundMapperFacade> mappers = new ConcurrentHashMap<Class<?>, BoundMapperFacade>();
+
+  // Payload classes in insertion order (eviction order)
+  private final Queue<Class<?>> insertionOrder = new ConcurrentLinkedQueue<Class<?>>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+  /**
+   * Convert an object to a Map
+   *
+   * @param object object to convert
+   * @return Map&lt;String, Object&gt; converted object
+   */
+  public Map<String, Object> convert(Object object) {
+    if (object == null) {
+      return null;
+    }
+    return convertBean(object, 0);
+  }
+
+  /**
+   * Convert any value : simple values are kept as is, beans are converted to Maps
+   *
+   * @param value value to convert
+   * @param depth current depth in the object graph
+   * @return Object converted value
+   */
+  private Object convertValue(Object value, int depth) {
+    if (value == null || isSimpleType(value.getClass())) {
+      return value;
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> convertedMap = new LinkedHashMap<Object, Object>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        convertedMap.put(entry.getKey(), convertValue(entry.getValue(), depth + 1));
+      }
+      return convertedMap;
+    }
+    if (value instanceof Collection) {
+      List<Object> convertedList = new ArrayList<Object>(((Collection<?>) value).size());
+      for (Object element : (Collection<?>) value) {
+        convertedList.add(convertValue(element, depth + 1));
+      }
+      return convertedList;
+    }
+    if (value instanceof Object[]) {
+      Object[] array = (Object[]) value;
+      List<Object> convertedList = new ArrayList<Object>(array.length);
+      for (Object element : array) {
+        convertedList.add(convertValue(element, depth + 1));
+      }
+      return convertedList;
+    }
+    return convertBean(value, depth);
+  }
+
+  /**
+   * Convert a bean to a Map using its compiled mapper
+   *
+   * @param bean bean to convert
+   * @param depth current depth in the object graph
+   * @return Map&lt;String, Object&gt; converted bean
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> convertBean(Object bean, int depth) {
+    if (depth > MAXIMUM_DEPTH) {
+      throw new JMSModuleException("Cannot convert object graph deeper than " + MAXIMUM_DEPTH + " levels (cycle?)");
+    }
+    Map<String, Object> convertedObject = (Map<String, Object>) getMapper(bean.getClass()).map(bean);
+    for (Map.Entry<String, Object> entry : convertedObject.entrySet()) {
+      entry.setValue(convertValue(entry.getValue(), depth + 1));
+    }
+    return convertedObject;
+  }
+
+  /**
+   * Get the compiled mapper of a class (compile it if needed)
+   *
+   * @param objectClass class of the objects to map
+   * @return BoundMapperFacade mapper from this class to a Map
+   */
+  private BoundMapperFacade getMapper(Class<?> objectClass) {
+    BoundMapperFacade mapper = mappers.get(objectClass);
+    if (mapper != null) {
+      hits.incrementAndGet();
+      return mapper;
+    }
+
+    // Misses are rare (once per class) : compile only once
+    synchronized (this) {
+      mapper = mappers.get(objectClass);
+      if (mapper != null) {
+        hits.incrementAndGet();
+        return mapper;
+      }
+      misses.incrementAndGet();
+      logger.debug("Compile object to map converter for {}", objectClass.getName());
+
+      mapper = compile(objectClass);
+      mappers.put(objectClass, mapper);
+      insertionOrder.add(objectClass);
+      evictIfNecessary();
+    }
+    return mapper;
+  }
+
+  /**
+   * Build the Orika mapper from a class to a Map
+   *
+   * @param objectClass class of the objects to map
+   * @return BoundMapperFacade mapper from this class to a Map
+   */
+  private BoundMapperFacade compile(Class<?> objectClass) {
+    Type objectType = TypeFactory.valueOf(objectClass);
+
+    MapperFactory mapperFactory = new DefaultMapperFactory.Builder().build();
+    mapperFactory.classMap(objectType, MAP_TYPE).byDefault().register();
+    return mapperFactory.getMapperFacade(objectType, MAP_TYPE);
+  }
+
+  /**
+   * Evict the oldest mappers while the cache is oversized
+   */
+  private void evictIfNecessary() {
+    while (mappers.size() > maximumSize) {
+      Class<?> eldest = insertionOrder.poll();
+      if (eldest == null) {
+        return;
+      }
+      if (mappers.remove(eldest) != null) {
+        evictions.incrementAndGet();
+        logger.debug("Evict object to map converter for {}", eldest.getName());
+      }
+    }
+  }
+
+  /**
+   * Is the type kept as is in the converted Map?
+   * JDK types (UUID, URI, Locale, Class...) and types without readable properties are leaf values : no mapper is
+   * compiled for them. Maps, collections and arrays of objects are converted element by element.
+   *
+   * @param type type to check
+   * @return true if values of this type should not be converted
+   */
+  private static boolean isSimpleType(Class<?> type) {
+    if (ClassUtils.isPrimitiveOrWrapper(type)
+            || type.isEnum()
+            || (type.isArray() && type.getComponentType().isPrimitive())
+            || CharSequence.class.isAssignableFrom(type)
+            || Number.class.isAssignableFrom(type)
+            || Date.class.isAssignableFrom(type)
+            || Calendar.class.isAssignableFrom(type)
+            || XMLGregorianCalendar.class.isAssignableFrom(type)) {
+      return true;
+    }
+    if (type.isArray() || Map.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type)) {
+      return false;
+    }
+    String typeName = type.getName();
+    return typeName.startsWith("java.") || typeName.startsWith("javax.") || !hasReadableProperties(type);
+  }
+
+  /**
+   * Does the type have bean properties to convert?
+   *
+   * @param type type to check
+   * @return true if the type has at least one readable property (besides its class)
+   */
+  private static boolean hasReadableProperties(Class<?> type) {
+    for (PropertyDescriptor property : BeanUtils.getPropertyDescriptors(type)) {
+      if (property.getReadMethod() != null && !"class".equals(property.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Clear the cache
+   */
+  public void clear() {
+    synchronized (this) {
+      mappers.clear();
+      insertionOrder.clear();
+    }
+  }
+
+  /**
+   * Set the maximum number of compiled converters kept in cache
+   *
+   * @param maximumSize maximum number of converters
+   */
+  @Value("${module.jms.mapping.cache.maximum_size:" + DEFAULT_MAXIMUM_SIZE + "}")
+  public void setMaximumSize(int maximumSize) {
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("Cache maximum size should be positive");
+    }
+    this.maximumSize = maximumSize;
+  }
+
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  public int getSize() {
+    return mappers.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Module (and its ClassLoader) is unloaded : drop all compiled converters so that payload classes can be unloaded
+   *
+   * @throws Exception an error occured
+   */
+  @Override
+  public void destroy() throws Exception {
+    logger.debug("Destroy object to map converters cache (size={}, hits={}, misses={}, evictions={})",
+            getSize(), getHits(), getMisses(), getEvictions());
+    clear();
+  }
+}
@@ -0,0 +1,92 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.jms.support.converter.SimpleMessageConverter;
+
+/**
+ * Message converter that parses JSON (TextMessage or BytesMessage) straight into data entries (Map) with a
+ * streaming parser : no DTO class is needed and no intermediate object is built.
+ * If mapped keys are given, only these top-level entries are built, others are skipped without being parsed into
+ * objects. Objects are converted to Maps (W4 XSD types), arrays to Lists.
+ * Compressed BytesMessage payloads (see {@code ContentDecoder}) are decompressed while being parsed.
+ * Other messages (and replies) are converted by a {@code SimpleMessageConverter}. Should be thread safe.
+ */
+public class StreamingJsonMessageConverter implements MessageConverter {
+
+  private final MessageConverter defaultConverter = new SimpleMessageConverter();
+
+  private final JsonEntriesReader reader;
+
+  // Decoder of the compressed payloads (null if not supported)
+  private final ContentDecoder contentDecoder;
+
+  /**
+   * Converter building all the entries
+   */
+  public StreamingJsonMessageConverter() {
+    this(null);
+  }
+
+  /**
+   * Converter building only the mapped entries
+   * @param mappedKeys top-level entries to build, null for all of them
+   */
+  public StreamingJsonMessageConverter(Set<String> mappedKeys) {
+    this(mappedKeys, null);
+  }
+
+  /**
+   * Converter building only the mapped entries, from compressed payloads too
+   * @param mappedKeys top-level entries to build, null for all of them
+   * @param contentDecoder decoder of the compressed payloads (null if not supported)
+   */
+  public StreamingJsonMessageConverter(Set<String> mappedKeys, ContentDecoder contentDecoder) {
+    this.reader = new JsonEntriesReader(mappedKeys);
+    this.contentDecoder = contentDecoder;
+  }
+
+  @Override
+  public Object fromMessage(Message message) throws JMSException, MessageConversionException {
+    JsonParser parser;
+    try {
+      if (message instanceof TextMessage) {
+        parser = JsonEntriesReader.JSON_FACTORY.createParser(((TextMessage) message).getText());
+      } else if (message instanceof BytesMessage) {
+        String encoding = (contentDecoder != null ? ContentDecoder.getContentEncoding(message) : null);
+        InputStream body = (encoding != null ? contentDecoder.decode((BytesMessage) message, encoding) : new BytesMessageInputStream((BytesMessage) message));
+        parser = JsonEntriesReader.JSON_FACTORY.createParser(body);
+      } else {
+        return defaultConverter.fromMessage(message);
+      }
+    } catch (IOException ioe) {
+      throw new MessageConversionException("Cannot read JSON payload", ioe);
+    }
+
+    try {
+      return reader.read(parser);
+    } catch (IOException ioe) {
+      throw new MessageConversionException("Cannot parse JSON payload", ioe);
+    } finally {
+      try {
+        parser.close();
+      } catch (IOException ioe) {
+        // Nothing more to read
+      }
+    }
+  }
+
+  @Override
+  public Message toMessage(Object object, Session session) throws JMSException, MessageConversionException {
+    return defaultConverter.toMessage(object, session);
+  }
+}
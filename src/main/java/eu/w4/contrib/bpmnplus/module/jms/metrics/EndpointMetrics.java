@@ -0,0 +1,104 @@
+package eu.w4.contrib.bpmnplus.module.jms.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Latencies of the processing stages of the messages of one endpoint :
+ * <ul>
+ * <li>conversion : payload to data entries</li>
+ * <li>login : principal retrieval (or login) against the engine</li>
+ * <li>engine : W4 action (process instantiation, signal triggering)</li>
+ * <li>total : whole message handling</li>
+ * <li>reply : from the reception of a request to the sending of its reply (endpoints in reply mode)</li>
+ * </ul>
+ * Signal endpoints also measure their signal triggers per definitions version.
+ */
+public class EndpointMetrics {
+
+  public static final String STAGE_CONVERSION = "conversion";
+  public static final String STAGE_LOGIN = "login";
+  public static final String STAGE_ENGINE = "engine";
+  public static final String STAGE_TOTAL = "total";
+  public static final String STAGE_REPLY = "reply";
+
+  private final StageLatency conversion;
+  private final StageLatency login;
+  private final StageLatency engine;
+  private final StageLatency total;
+  private final StageLatency reply;
+
+  // Latencies per signal version (signal endpoints only, created when first used)
+  private SignalVersionLatencies signalVersions;
+
+  private final String destinationName;
+  private final String messageSelector;
+
+  /**
+   * Default constructor
+   * @param destinationName destination of the endpoint
+   * @param messageSelector selector of the endpoint (may be null)
+   */
+  public EndpointMetrics(String destinationName, String messageSelector) {
+    this.destinationName = destinationName;
+    this.messageSelector = messageSelector;
+    this.conversion = new StageLatency(destinationName, messageSelector, STAGE_CONVERSION);
+    this.login = new StageLatency(destinationName, messageSelector, STAGE_LOGIN);
+    this.engine = new StageLatency(destinationName, messageSelector, STAGE_ENGINE);
+    this.total = new StageLatency(destinationName, messageSelector, STAGE_TOTAL);
+    this.reply = new StageLatency(destinationName, messageSelector, STAGE_REPLY);
+  }
+
+  public StageLatency getConversion() {
+    return conversion;
+  }
+
+  public StageLatency getLogin() {
+    return login;
+  }
+
+  public StageLatency getEngine() {
+    return engine;
+  }
+
+  public StageLatency getTotal() {
+    return total;
+  }
+
+  public StageLatency getReply() {
+    return reply;
+  }
+
+  /**
+   * Get the latencies of the signal triggers per version
+   * @return SignalVersionLatencies latencies per version
+   */
+  public synchronized SignalVersionLatencies getSignalVersions() {
+    if (signalVersions == null) {
+      signalVersions = new SignalVersionLatencies(destinationName, messageSelector);
+    }
+    return signalVersions;
+  }
+
+  /**
+   * Get the latencies to expose through JMX : all the stages, and the signal versions if measured
+   * @return List&lt;Object&gt; latencies
+   */
+  public synchronized List<Object> getManagedResources() {
+    List<Object> resources = new ArrayList<Object>(getStages());
+    if (signalVersions != null) {
+      resources.add(signalVersions);
+    }
+    return resources;
+  }
+
+  /**
+   * Get the latencies of all the stages
+   * @return List&lt;StageLatency&gt; latencies of the stages
+   */
+  public List<StageLatency> getStages() {
+    return Collections.unmodifiableList(Arrays.asList(conversion, login, engine, total, reply));
+  }
+}
@@ -0,0 +1,102 @@
+package eu.w4.contrib.bpmnplus.module.jms.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies of the signal triggers of a signal endpoint per definitions version (count, mean and max), exposed through
+ * JMX with the other latencies of the endpoint. Should be thread safe.
+ */
+public class SignalVersionLatencies {
+
+  private final String destinationName;
+  private final String messageSelector;
+
+  private final ConcurrentMap<String, VersionLatency> versions = new ConcurrentHashMap<String, VersionLatency>();
+
+  /**
+   * Default constructor
+   * @param destinationName destination of the endpoint
+   * @param messageSelector selector of the endpoint (may be null)
+   */
+  public SignalVersionLatencies(String destinationName, String messageSelector) {
+    this.destinationName = destinationName;
+    this.messageSelector = messageSelector;
+  }
+
+  /**
+   * Record the latency of a signal trigger
+   * @param version version of the definitions
+   * @param latency latency (ns)
+   */
+  public void record(String version, long latency) {
+    VersionLatency versionLatency = versions.get(version);
+    if (versionLatency == null) {
+      versions.putIfAbsent(version, new VersionLatency());
+      versionLatency = versions.get(version);
+    }
+    versionLatency.record(latency);
+  }
+
+  public String getDestinationName() {
+    return destinationName;
+  }
+
+  public String getMessageSelector() {
+    return messageSelector;
+  }
+
+  /**
+   * Get the latencies of signals triggers per version (count, mean and max)
+   * @return Map&lt;String, String&gt; latencies per version
+   */
+  public Map<String, String> getLatencies() {
+    Map<String, String> latencies = new TreeMap<String, String>();
+    for (Map.Entry<String, VersionLatency> entry : versions.entrySet()) {
+      latencies.put(entry.getKey(), entry.getValue().toString());
+    }
+    return latencies;
+  }
+
+  /**
+   * Forget all recorded latencies
+   */
+  public void reset() {
+    versions.clear();
+  }
+
+  @Override
+  public String toString() {
+    return getLatencies().toString();
+  }
+
+  /**
+   * Latencies of signals triggers for one version
+   */
+  private static final class VersionLatency {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long latency) {
+      count.incrementAndGet();
+      total.addAndGet(latency);
+      long currentMax = max.get();
+      while (latency > currentMax && !max.compareAndSet(currentMax, latency)) {
+        currentMax = max.get();
+      }
+    }
+
+    @Override
+    public String toString() {
+      long currentCount = count.get();
+      long mean = (currentCount == 0 ? 0 : total.get() / currentCount);
+      return String.format("count=%d, mean=%dms, max=%dms", currentCount,
+              TimeUnit.NANOSECONDS.toMillis(mean), TimeUnit.NANOSECONDS.toMillis(max.get()));
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package eu.w4.contrib.bpmnplus.module.jms.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histogram of one processing stage of an endpoint, exposed through JMX.
+ * Recording is wait free (HdrHistogram {@code Recorder}), values are accumulated when read.
+ * Latencies are reported in microseconds, up to one minute with two significant digits, so that the histograms of a
+ * stage stay small (a few 10 KB) even with many endpoints ; values since the previous drain are only kept for the
+ * stages that are drained (adaptive concurrency). Should be thread safe.
+ */
+public class StageLatency {
+
+  // Highest trackable latency (us), higher values are recorded as this one
+  private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toMicros(1);
+  private static final int SIGNIFICANT_DIGITS = 2;
+
+  private final String destinationName;
+  private final String messageSelector;
+  private final String stage;
+
+  private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+  private final AtomicLong errors = new AtomicLong();
+
+  // Values recorded so far, and since last drained window (null until first drained) (guarded by this)
+  private final Histogram accumulated = new Histogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+  private Histogram window;
+  private Histogram interval;
+
+  /**
+   * Default constructor
+   * @param destinationName destination of the endpoint
+   * @param messageSelector selector of the endpoint (may be null)
+   * @param stage name of the stage
+   */
+  public StageLatency(String destinationName, String messageSelector, String stage) {
+    this.destinationName = destinationName;
+    this.messageSelector = messageSelector;
+    this.stage = stage;
+  }
+
+  /**
+   * Record the duration of the stage
+   * @param duration duration (ns)
+   */
+  public void record(long duration) {
+    long latency = TimeUnit.NANOSECONDS.toMicros(duration);
+    recorder.recordValue(Math.max(0, Math.min(latency, HIGHEST_TRACKABLE_LATENCY)));
+  }
+
+  /**
+   * Record a failure of the stage
+   */
+  public void recordError() {
+    errors.incrementAndGet();
+  }
+
+  /**
+   * Accumulate values recorded since last read
+   * @return Histogram all recorded values
+   */
+  private Histogram snapshot() {
+    interval = recorder.getIntervalHistogram(interval);
+    accumulated.add(interval);
+    if (window != null) {
+      window.add(interval);
+    }
+    return accumulated;
+  }
+
+  /**
+   * Get the values recorded since the previous call (eg. to drive a controller) and start a new window
+   * @return Histogram values of the window (us)
+   */
+  public synchronized Histogram drainWindow() {
+    snapshot();
+    // First window : all the values recorded so far
+    Histogram drained = (window != null ? window : accumulated.copy());
+    window = new Histogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+    return drained;
+  }
+
+  public String getDestinationName() {
+    return destinationName;
+  }
+
+  public String getMessageSelector() {
+    return messageSelector;
+  }
+
+  public String getStage() {
+    return stage;
+  }
+
+  public synchronized long getCount() {
+    return snapshot().getTotalCount();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public synchronized double getMeanMicros() {
+    return snapshot().getMean();
+  }
+
+  public synchronized long getP50Micros() {
+    return snapshot().getValueAtPercentile(50);
+  }
+
+  public synchronized long getP99Micros() {
+    return snapshot().getValueAtPercentile(99);
+  }
+
+  public synchronized long getP999Micros() {
+    return snapshot().getValueAtPercentile(99.9);
+  }
+
+  public synchronized long getMaxMicros() {
+    return snapshot().getMaxValue();
+  }
+
+  /**
+   * Forget all recorded values and errors
+   */
+  public synchronized void reset() {
+    recorder.reset();
+    accumulated.reset();
+    if (window != null) {
+      window.reset();
+    }
+    errors.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return stage + " [count=" + getCount() + ", errors=" + getErrors() + ", p50=" + getP50Micros()
+            + "us, p99=" + getP99Micros() + "us, p999=" + getP999Micros() + "us, max=" + getMaxMicros() + "us]";
+  }
+}
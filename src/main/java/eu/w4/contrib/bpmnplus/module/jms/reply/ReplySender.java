@@ -0,0 +1,168 @@
+package eu.w4.contrib.bpmnplus.module.jms.reply;
+
+import eu.w4.contrib.bpmnplus.module.jms.metrics.StageLatency;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+import javax.inject.Named;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Asynchronous sender of the replies to the requests (JMSReplyTo) of the endpoints in reply mode.
+ * Replies are text messages correlated to their request (its correlation id, or its message id if none) :
+ * <ul>
+ * <li>success : the result of the W4 action (eg. process instance id)</li>
+ * <li>failure : the error message, with the boolean property {@code ProcessingError} set</li>
+ * </ul>
+ * Replies are sent by a few threads through a caching connection factory (pooled sessions and producers), so that
+ * consumers do not wait for them ; if too many replies are pending, the consumer sends its reply itself.
+ * Should be thread safe.
+ */
+@Named
+public class ReplySender implements DisposableBean {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  public static final String JMS_PROPERTY_ERROR = "ProcessingError";
+
+  private JmsTemplate jmsTemplate;
+
+  private int threads = 2;
+  private int queueCapacity = 1000;
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Send a reply if the request expects one
+   * @param request received request
+   * @param result result of the request processing (null if nothing to reply)
+   * @param error error of the request processing (null if processed)
+   * @param receptionTime time (System.nanoTime()) of the reception of the request
+   * @param latency request to reply latency
+   */
+  public void reply(Message request, String result, Throwable error, long receptionTime, StageLatency latency) {
+    Destination replyTo;
+    String correlationId;
+    try {
+      replyTo = request.getJMSReplyTo();
+      correlationId = getCorrelationId(request);
+    } catch (JMSException jmse) {
+      logger.error("Cannot read reply destination of request", jmse);
+      return;
+    }
+    reply(replyTo, correlationId, result, error, receptionTime, latency);
+  }
+
+  /**
+   * Send a reply to a request read beforehand (eg. by the consumer of a request processed by another thread)
+   * @param replyTo reply destination of the request (null if the request expects no reply)
+   * @param correlationId correlation id of the reply
+   * @param result result of the request processing (null if nothing to reply)
+   * @param error error of the request processing (null if processed)
+   * @param receptionTime time (System.nanoTime()) of the reception of the request
+   * @param latency request to reply latency
+   */
+  public void reply(final Destination replyTo, final String correlationId, final String result, final Throwable error,
+          final long receptionTime, final StageLatency latency) {
+    if (replyTo == null || (result == null && error == null)) {
+      return;
+    }
+
+    getExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        send(replyTo, correlationId, result, error, receptionTime, latency);
+      }
+    });
+  }
+
+  /**
+   * Get the correlation id of the reply to a request
+   * @param request received request
+   * @return String correlation id of the request, or its message id if none
+   * @throws JMSException the request headers cannot be read
+   */
+  public static String getCorrelationId(Message request) throws JMSException {
+    return (request.getJMSCorrelationID() != null ? request.getJMSCorrelationID() : request.getJMSMessageID());
+  }
+
+  private void send(Destination replyTo, final String correlationId, final String result, final Throwable error,
+          long receptionTime, StageLatency latency) {
+    try {
+      jmsTemplate.send(replyTo, new MessageCreator() {
+        @Override
+        public Message createMessage(Session session) throws JMSException {
+          TextMessage reply = session.createTextMessage(error == null ? result : String.valueOf(error.getMessage()));
+          reply.setJMSCorrelationID(correlationId);
+          if (error != null) {
+            reply.setBooleanProperty(JMS_PROPERTY_ERROR, true);
+          }
+          return reply;
+        }
+      });
+      latency.record(System.nanoTime() - receptionTime);
+      logger.debug("Reply to request {} sent to {}", correlationId, replyTo);
+    } catch (JmsException jmse) {
+      latency.recordError();
+      logger.error("Cannot send reply to request {} to {}", correlationId, replyTo, jmse);
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getExecutor() {
+    if (executor == null) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-reply-");
+      threadFactory.setDaemon(true);
+      // Queue full : the reply is sent by the consumer (slowing down consumption rather than dropping replies)
+      executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return executor;
+  }
+
+  /**
+   * Set the connection factory of the replies (should cache sessions and producers)
+   * @param connectionFactory ConnectionFactory
+   */
+  @Resource(name = "replyConnectionFactory")
+  public void setConnectionFactory(ConnectionFactory connectionFactory) {
+    this.jmsTemplate = new JmsTemplate(connectionFactory);
+  }
+
+  @Value("${module.jms.reply.threads:2}")
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  @Value("${module.jms.reply.queue_capacity:1000}")
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = Math.max(1, queueCapacity);
+  }
+
+  public synchronized int getPendingReplies() {
+    return (executor == null ? 0 : executor.getQueue().size());
+  }
+
+  @Override
+  public synchronized void destroy() throws Exception {
+    if (executor != null) {
+      // Send pending replies
+      executor.shutdown();
+      if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+        logger.warn("{} reply(ies) not sent", executor.shutdownNow().size());
+      }
+    }
+  }
+}
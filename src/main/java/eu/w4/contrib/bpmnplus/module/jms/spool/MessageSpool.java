@@ -0,0 +1,379 @@
+package eu.w4.contrib.bpmnplus.module.jms.spool;
+
+import eu.w4.contrib.bpmnplus.module.jms.exception.EngineUnavailableException;
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.TokenBucket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Destination;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Local spool of the messages of an endpoint received while the engine is unavailable.
+ * Spooled messages (properties, data entries and reply destination) are acknowledged to the broker and stored in a
+ * {@code SegmentLog}.
+ * A replay thread processes them in order, at a controlled rate, once the engine is reachable again : until the spool
+ * is drained, newly received messages are spooled too. Spooled messages which cannot be read or processed (other
+ * than the engine being unavailable) are moved to a dead-letter log, in the "dead-letter" subdirectory, to be handled
+ * by an operator. Should be thread safe.
+ */
+public class MessageSpool implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+
+  private final String name;
+  private final SegmentLog log;
+  private final SegmentLog deadLetterLog;
+  private final TokenBucket replayRate;
+  // Time between two attempts to reach the engine (ms)
+  private final long retryInterval;
+
+  private final Object lock = new Object();
+  private volatile boolean engineAvailable = true;
+  private volatile boolean closed;
+  private Thread replayThread;
+
+  /**
+   * Default constructor
+   * @param name name of the spool (eg. endpoint id)
+   * @param directory directory of the spool segments
+   * @param segmentSize size of a segment (bytes)
+   * @param sync should each spooled message be forced to the storage
+   * @param replayRate maximum number of spooled messages replayed per second
+   * @param retryInterval time between two attempts to reach the engine (ms)
+   * @throws IOException the spool cannot be opened
+   */
+  public MessageSpool(String name, File directory, int segmentSize, boolean sync, int replayRate, long retryInterval) throws IOException {
+    if (replayRate <= 0) {
+      throw new IllegalArgumentException("Spool replay rate must be positive (" + replayRate + ")");
+    }
+    this.name = name;
+    this.log = new SegmentLog(directory, segmentSize, sync);
+    this.deadLetterLog = new SegmentLog(new File(directory, DEAD_LETTER_DIRECTORY), segmentSize, sync);
+    this.replayRate = new TokenBucket(replayRate, 1);
+    this.retryInterval = retryInterval;
+  }
+
+  /**
+   * Start replaying spooled messages
+   * @param processor processor of the replayed messages
+   */
+  public synchronized void start(final Processor processor) {
+    if (replayThread != null) {
+      return;
+    }
+    replayThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        replay(processor);
+      }
+    }, "jms-spool-" + name);
+    replayThread.setDaemon(true);
+    replayThread.start();
+  }
+
+  /**
+   * Should received messages be spooled (engine unavailable or messages still to replay)?
+   * @return boolean true if messages must be spooled
+   */
+  public boolean isActive() {
+    if (!engineAvailable) {
+      return true;
+    }
+    synchronized (lock) {
+      return log.getPendingRecords() > 0;
+    }
+  }
+
+  /**
+   * Spool a message
+   * @param properties properties of the message (only simple values are kept)
+   * @param dataEntries data entries built from the payload
+   * @param replyTo reply destination of the message (null if it expects no reply, not kept if not serializable)
+   * @param correlationId correlation id of the reply
+   */
+  public void spool(Map<String, Object> properties, Map<String, Object> dataEntries, Destination replyTo, String correlationId) {
+    HashMap<String, Object> spooledProperties = new HashMap<String, Object>();
+    for (Map.Entry<String, Object> property : properties.entrySet()) {
+      Object value = property.getValue();
+      if (value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Character) {
+        spooledProperties.put(property.getKey(), value);
+      }
+    }
+    if (replyTo != null && !(replyTo instanceof Serializable)) {
+      logger.warn("Reply destination {} of spooled message cannot be stored : no reply after replay", replyTo);
+      replyTo = null;
+    }
+    byte[] data = serialize(new SpooledMessage(spooledProperties,
+            dataEntries != null ? new HashMap<String, Object>(dataEntries) : null, replyTo, correlationId));
+    synchronized (lock) {
+      try {
+        log.append(data);
+      } catch (IOException ioex) {
+        throw new JMSModuleException("Cannot spool message", ioex);
+      }
+    }
+  }
+
+  /**
+   * Notify the engine is unavailable : received messages are spooled until the engine is reachable again
+   */
+  public void engineUnavailable() {
+    if (engineAvailable) {
+      logger.warn("Engine unavailable, messages of {} are spooled", name);
+      engineAvailable = false;
+    }
+  }
+
+  /**
+   * Is an error caused by the engine being unreachable (communication error, or circuit breaker open)?
+   * @param throwable error
+   * @return boolean true if the engine is unavailable
+   */
+  public static boolean isEngineUnavailable(Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof RemoteException || cause instanceof EngineUnavailableException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isEngineAvailable() {
+    return engineAvailable;
+  }
+
+  public long getPendingMessages() {
+    synchronized (lock) {
+      return log.getPendingRecords();
+    }
+  }
+
+  /**
+   * Get the number of spooled messages moved to the dead-letter log (cannot be read or processed)
+   * @return long number of dead-lettered messages
+   */
+  public long getDeadLetterMessages() {
+    synchronized (lock) {
+      return deadLetterLog.getPendingRecords();
+    }
+  }
+
+  /**
+   * Replay spooled messages until the spool is closed
+   * @param processor processor of the replayed messages
+   */
+  private void replay(Processor processor) {
+    while (!closed) {
+      try {
+        if (!replayNext(processor)) {
+          synchronized (this) {
+            if (!closed) {
+              wait(retryInterval);
+            }
+          }
+        }
+      } catch (InterruptedException iex) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException rex) {
+        logger.error("Unexpected error while replaying spooled messages", rex);
+      }
+    }
+  }
+
+  /**
+   * Replay the first spooled message
+   * @param processor processor of the replayed messages
+   * @return boolean true if a message has been replayed (false if the spool is empty or the engine unavailable)
+   * @throws InterruptedException interrupted while waiting for the replay rate
+   */
+  private boolean replayNext(Processor processor) throws InterruptedException {
+    byte[] data;
+    synchronized (lock) {
+      data = log.peek();
+    }
+    if (data == null) {
+      if (!engineAvailable) {
+        // Nothing spooled : let next message tell whether the engine is back
+        engineAvailable = true;
+      }
+      return false;
+    }
+
+    long wait = replayRate.reserve();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    SpooledMessage message = null;
+    try {
+      message = deserialize(data);
+    } catch (JMSModuleException jex) {
+      logger.error("Spooled message cannot be read : moved to dead-letter log", jex);
+    }
+    boolean processed = false;
+    RuntimeException failure = null;
+    if (message != null) {
+      try {
+        processor.process(message);
+        processed = true;
+      } catch (RuntimeException rex) {
+        if (isEngineUnavailable(rex)) {
+          logger.debug("Engine still unavailable, {} spooled message(s) to replay", getPendingMessages());
+          replayRate.refund();
+          engineUnavailable();
+          return false;
+        }
+        logger.error("Spooled message cannot be processed : moved to dead-letter log", rex);
+        failure = rex;
+      }
+    }
+    if (!engineAvailable) {
+      logger.info("Engine available again, replay {} spooled message(s)", getPendingMessages());
+      engineAvailable = true;
+    }
+
+    synchronized (lock) {
+      if (!processed) {
+        try {
+          deadLetterLog.append(data);
+        } catch (IOException ioex) {
+          // Kept in the spool : retried later
+          logger.error("Spooled message cannot be moved to dead-letter log of {}", name, ioex);
+          return false;
+        }
+      }
+      log.commit();
+    }
+    if (failure != null) {
+      processor.deadLettered(message, failure);
+    }
+    return true;
+  }
+
+  private static byte[] serialize(SpooledMessage message) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(message);
+      out.close();
+      return bytes.toByteArray();
+    } catch (IOException ioex) {
+      throw new JMSModuleException("Cannot spool message (data entries must be serializable)", ioex);
+    }
+  }
+
+  private static SpooledMessage deserialize(byte[] data) {
+    try {
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+      try {
+        return (SpooledMessage) in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (IOException ioex) {
+      throw new JMSModuleException("Cannot read spooled message", ioex);
+    } catch (ClassNotFoundException cnfex) {
+      throw new JMSModuleException("Cannot read spooled message", cnfex);
+    }
+  }
+
+  @Override
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+      thread = replayThread;
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException iex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (lock) {
+      log.close();
+      deadLetterLog.close();
+    }
+  }
+
+  /**
+   * Processor of the replayed messages
+   */
+  public interface Processor {
+
+    /**
+     * Process a replayed message
+     * @param message replayed message
+     */
+    void process(SpooledMessage message);
+
+    /**
+     * Notify a replayed message failed and has been moved to the dead-letter log
+     * @param message replayed message
+     * @param error error of the processing
+     */
+    void deadLettered(SpooledMessage message, RuntimeException error);
+  }
+
+  /**
+   * Spooled message
+   */
+  public static final class SpooledMessage implements Serializable {
+    // Unchanged : records spooled before the reply destination was kept are still read
+    private static final long serialVersionUID = 1L;
+
+    private final HashMap<String, Object> properties;
+    private final HashMap<String, Object> dataEntries;
+    private final Destination replyTo;
+    private final String correlationId;
+
+    SpooledMessage(HashMap<String, Object> properties, HashMap<String, Object> dataEntries, Destination replyTo, String correlationId) {
+      this.properties = properties;
+      this.dataEntries = dataEntries;
+      this.replyTo = replyTo;
+      this.correlationId = correlationId;
+    }
+
+    public Map<String, Object> getProperties() {
+      return properties;
+    }
+
+    public Map<String, Object> getDataEntries() {
+      return dataEntries;
+    }
+
+    /**
+     * Get the reply destination of the message
+     * @return Destination reply destination, null if the message expects no reply
+     */
+    public Destination getReplyTo() {
+      return replyTo;
+    }
+
+    public String getCorrelationId() {
+      return correlationId;
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package eu.w4.contrib.bpmnplus.module.jms.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append only log of records stored in memory-mapped segment files of a directory.
+ * <ul>
+ * <li>segment : header (read position, magic number) followed by records</li>
+ * <li>record : length, CRC32 of the data, data</li>
+ * </ul>
+ * Records are read in order and committed once processed : the read position of the segment is then updated,
+ * and fully consumed segments are deleted. When opened, segments are scanned to recover pending records, a torn or
+ * corrupted record ending its segment. Not thread safe (see {@code MessageSpool}).
+ */
+class SegmentLog implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".spool";
+
+  private static final int MAGIC = 0x57344A53; // W4JS
+  private static final int HEADER_SIZE = 16;
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  private final File directory;
+  private final int segmentSize;
+  private final boolean sync;
+
+  // Segments in order, the last one being written
+  private final Deque<Segment> segments = new ArrayDeque<Segment>();
+  private long nextSegmentId;
+  private long pendingRecords;
+
+  /**
+   * Open (or create) a log
+   * @param directory directory of the segments
+   * @param segmentSize size of a segment (bytes)
+   * @param sync should the segment be forced to the storage after each append
+   * @throws IOException the directory or a segment cannot be opened
+   */
+  SegmentLog(File directory, int segmentSize, boolean sync) throws IOException {
+    if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Spool segment size is too small (" + segmentSize + " bytes)");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create spool directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.sync = sync;
+
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    Arrays.sort(files);
+    for (File file : files) {
+      Segment segment = Segment.open(file, segmentSize);
+      nextSegmentId = Math.max(nextSegmentId, segment.id + 1);
+      if (segment.pendingRecords == 0 && segment.isFull()) {
+        segment.delete();
+        continue;
+      }
+      pendingRecords += segment.pendingRecords;
+      segments.addLast(segment);
+    }
+    if (pendingRecords > 0) {
+      logger.info("{} spooled record(s) recovered from {}", pendingRecords, directory);
+    }
+  }
+
+  /**
+   * Append a record
+   * @param data record data
+   * @throws IOException the record cannot be written
+   */
+  void append(byte[] data) throws IOException {
+    if (data.length > segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE) {
+      throw new IOException("Record too large for a spool segment (" + data.length + " bytes)");
+    }
+    Segment segment = segments.peekLast();
+    if (segment == null || !segment.canAppend(data.length)) {
+      if (segment != null) {
+        segment.seal();
+      }
+      segment = Segment.create(new File(directory, segmentName(nextSegmentId)), nextSegmentId, segmentSize);
+      nextSegmentId++;
+      segments.addLast(segment);
+    }
+    segment.append(data, sync);
+    pendingRecords++;
+  }
+
+  /**
+   * Read the first pending record (without committing it)
+   * @return byte[] record data, null if there is no pending record
+   */
+  byte[] peek() {
+    for (Segment segment : segments) {
+      if (segment.pendingRecords > 0) {
+        return segment.peek();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Commit the first pending record (processed). Fully consumed segments are deleted.
+   */
+  void commit() {
+    while (!segments.isEmpty()) {
+      Segment segment = segments.peekFirst();
+      if (segment.pendingRecords > 0) {
+        segment.commit(sync);
+        pendingRecords--;
+        if (segment.pendingRecords == 0 && segments.size() > 1) {
+          segments.removeFirst();
+          segment.delete();
+        }
+        return;
+      }
+      if (segments.size() == 1) {
+        return;
+      }
+      segments.removeFirst();
+      segment.delete();
+    }
+  }
+
+  long getPendingRecords() {
+    return pendingRecords;
+  }
+
+  @Override
+  public void close() {
+    for (Segment segment : segments) {
+      segment.close();
+    }
+    segments.clear();
+  }
+
+  private static String segmentName(long id) {
+    return String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+  }
+
+  /**
+   * Memory-mapped segment
+   */
+  private static final class Segment {
+    private final File file;
+    private final long id;
+    private MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+    private long pendingRecords;
+    private boolean sealed;
+
+    private Segment(File file, long id, MappedByteBuffer buffer) {
+      this.file = file;
+      this.id = id;
+      this.buffer = buffer;
+    }
+
+    static Segment create(File file, long id, int size) throws IOException {
+      Segment segment = new Segment(file, id, map(file, size));
+      segment.buffer.putInt(8, MAGIC);
+      segment.readPosition = HEADER_SIZE;
+      segment.writePosition = HEADER_SIZE;
+      segment.buffer.putLong(0, segment.readPosition);
+      return segment;
+    }
+
+    static Segment open(File file, int size) throws IOException {
+      String name = file.getName();
+      long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+      int mappedSize = (int) Math.max(size, file.length());
+      Segment segment = new Segment(file, id, map(file, mappedSize));
+      if (segment.buffer.getInt(8) != MAGIC) {
+        throw new IOException("Not a spool segment : " + file);
+      }
+      segment.readPosition = (int) segment.buffer.getLong(0);
+
+      // Recover written records
+      int position = segment.readPosition;
+      while (position + RECORD_HEADER_SIZE <= mappedSize) {
+        int length = segment.buffer.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_SIZE + length > mappedSize) {
+          break;
+        }
+        if (segment.crc(position + RECORD_HEADER_SIZE, length) != segment.buffer.getInt(position + 4)) {
+          logger.warn("Corrupted record in spool segment {} at {} : following records are ignored", file, position);
+          break;
+        }
+        position += RECORD_HEADER_SIZE + length;
+        segment.pendingRecords++;
+      }
+      segment.writePosition = position;
+      // No more appends to recovered segments
+      segment.sealed = true;
+      return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } finally {
+        raf.close();
+      }
+    }
+
+    boolean canAppend(int length) {
+      return !sealed && writePosition + RECORD_HEADER_SIZE + length <= buffer.capacity();
+    }
+
+    boolean isFull() {
+      return sealed || writePosition + RECORD_HEADER_SIZE >= buffer.capacity();
+    }
+
+    void seal() {
+      sealed = true;
+    }
+
+    void append(byte[] data, boolean sync) {
+      int position = writePosition;
+      buffer.position(position + RECORD_HEADER_SIZE);
+      buffer.put(data);
+      buffer.putInt(position + 4, crc(position + RECORD_HEADER_SIZE, data.length));
+      // Length written last : the record is valid once complete
+      buffer.putInt(position, data.length);
+      writePosition = position + RECORD_HEADER_SIZE + data.length;
+      pendingRecords++;
+      if (sync) {
+        buffer.force();
+      }
+    }
+
+    byte[] peek() {
+      int length = buffer.getInt(readPosition);
+      byte[] data = new byte[length];
+      buffer.position(readPosition + RECORD_HEADER_SIZE);
+      buffer.get(data);
+      return data;
+    }
+
+    void commit(boolean sync) {
+      int length = buffer.getInt(readPosition);
+      readPosition += RECORD_HEADER_SIZE + length;
+      buffer.putLong(0, readPosition);
+      pendingRecords--;
+      if (sync) {
+        buffer.force();
+      }
+    }
+
+    private int crc(int position, int length) {
+      CRC32 crc = new CRC32();
+      for (int i = position; i < position + length; i++) {
+        crc.update(buffer.get(i));
+      }
+      return (int) crc.getValue();
+    }
+
+    void close() {
+      if (buffer != null) {
+        buffer.force();
+        unmap(buffer);
+        buffer = null;
+      }
+    }
+
+    void delete() {
+      close();
+      if (!file.delete()) {
+        logger.warn("Cannot delete consumed spool segment {}", file);
+      }
+    }
+
+    /**
+     * Release the mapping without waiting for the buffer to be garbage collected (best effort)
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+      try {
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      } catch (Exception ex) {
+        logger.trace("Cannot unmap spool segment", ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,287 @@
+package eu.w4.contrib.bpmnplus.module.jms.startup;
+
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.contrib.bpmnplus.module.jms.identification.User;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.ConcurrencyRamp;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.W4MessageListenerContainer;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsFilter;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsInfo;
+import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsInfoFilter;
+import eu.w4.engine.client.service.EngineService;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Start of the consumption once the module context is ready (listener containers are not started automatically).
+ * <ul>
+ * <li>delay mode (default) : consumption starts after a fixed delay, giving the engine some time to breath</li>
+ * <li>readiness mode : the engine is probed (login of the default principal, then lookup of every configured
+ * definition) until it answers, consumption starts as soon as it does</li>
+ * </ul>
+ * With a warm-up period, the concurrency of each container ramps from 1 consumer up to its maximum over this period.
+ * Only the containers of the configured endpoints are started : containers released by a configuration reload stay
+ * in the endpoint registry (under their former ids) and are never started again.
+ */
+@Named
+public class StartupCoordinator implements DisposableBean {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  public static final String MODE_DELAY = "delay";
+  public static final String MODE_READINESS = "readiness";
+
+  private final EngineService engineService;
+  private final ConnectionManager connectionManager;
+  private final JmsListenerEndpointRegistry endpointRegistry;
+
+  private volatile String mode = MODE_DELAY;
+  // Delay before starting the consumption (delay mode, ms)
+  private volatile long delay = 10000;
+  // Interval between two probes of the engine (readiness mode, ms)
+  private volatile long probeInterval = 2000;
+  // Maximum time waiting for the engine (readiness mode, ms), 0 to wait until it is ready
+  private volatile long timeout = 0;
+  // Time for the containers to reach their maximum concurrency (ms), 0 to start them at full concurrency
+  private volatile long warmUp = 0;
+
+  // Principal logged in and definitions looked up by the probes
+  private volatile User probeUser;
+  private volatile Collection<String> definitionIds = Collections.emptyList();
+
+  // Ids of the containers of the configured endpoints, in registration order
+  private final Set<String> containerIds = new LinkedHashSet<String>();
+  private boolean started;
+  private ScheduledExecutorService scheduler;
+
+  @Inject
+  public StartupCoordinator(EngineService engineService, ConnectionManager connectionManager, JmsListenerEndpointRegistry endpointRegistry) {
+    this.engineService = engineService;
+    this.connectionManager = connectionManager;
+    this.endpointRegistry = endpointRegistry;
+  }
+
+  /**
+   * Wait for the engine (according to the startup mode) then start the containers of the configured endpoints
+   * @throws InterruptedException interrupted while waiting (eg. module shut down)
+   */
+  public void startConsumption() throws InterruptedException {
+    if (MODE_READINESS.equalsIgnoreCase(mode)) {
+      awaitReadiness();
+    } else {
+      logger.debug("Give the engine some time ({}ms) to breath before starting messages processing", delay);
+      Thread.sleep(delay);
+    }
+
+    synchronized (this) {
+      started = true;
+      for (MessageListenerContainer container : getListenerContainers()) {
+        start(container);
+      }
+    }
+  }
+
+  /**
+   * Stop the containers of the configured endpoints (module shut down)
+   */
+  public synchronized void stopConsumption() {
+    started = false;
+    for (MessageListenerContainer container : getListenerContainers()) {
+      container.stop();
+    }
+  }
+
+  /**
+   * Register the container of a configured endpoint : it is started right away if the consumption has started,
+   * otherwise with the other containers
+   * @param containerId id of the container in the endpoint registry
+   */
+  public synchronized void register(String containerId) {
+    containerIds.add(containerId);
+    MessageListenerContainer container = endpointRegistry.getListenerContainer(containerId);
+    if (started && container != null) {
+      start(container);
+    }
+  }
+
+  /**
+   * Forget the container of an endpoint removed or reconfigured (released, but kept by the endpoint registry)
+   * @param containerId id of the container in the endpoint registry
+   */
+  public synchronized void release(String containerId) {
+    containerIds.remove(containerId);
+  }
+
+  /**
+   * Get the containers of the configured endpoints
+   * @return List&lt;MessageListenerContainer&gt; containers, in registration order
+   */
+  public synchronized List<MessageListenerContainer> getListenerContainers() {
+    List<MessageListenerContainer> containers = new ArrayList<MessageListenerContainer>(containerIds.size());
+    for (String containerId : containerIds) {
+      MessageListenerContainer container = endpointRegistry.getListenerContainer(containerId);
+      if (container != null) {
+        containers.add(container);
+      }
+    }
+    return containers;
+  }
+
+  /**
+   * Start a container (ramping its concurrency up during the warm-up)
+   * @param container container of a configured endpoint
+   */
+  private void start(MessageListenerContainer container) {
+    if (container.isRunning()) {
+      return;
+    }
+    if (warmUp > 0 && container instanceof W4MessageListenerContainer) {
+      // The ramp caps the concurrency owned by the container (configured maximum or adaptive limit)
+      W4MessageListenerContainer w4Container = (W4MessageListenerContainer) container;
+      new ConcurrencyRamp(w4Container).start(getScheduler(), getStepInterval(w4Container.getTargetMaxConcurrentConsumers()));
+    } else {
+      container.start();
+    }
+  }
+
+  /**
+   * Probe the engine until it is ready (or the timeout expires)
+   */
+  private void awaitReadiness() throws InterruptedException {
+    long deadline = (timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE);
+    int probes = 1;
+    while (!isEngineReady()) {
+      if (System.currentTimeMillis() >= deadline) {
+        logger.warn("Engine not ready after {}ms ({} probes) : messages processing started anyway", timeout, probes);
+        return;
+      }
+      Thread.sleep(probeInterval);
+      probes++;
+    }
+    logger.info("Engine ready after {} probe(s) : messages processing started", probes);
+  }
+
+  /**
+   * Probe the engine : login of the default principal and lookup of the configured definitions
+   * @return boolean true if the engine answered and every definition is deployed
+   */
+  boolean isEngineReady() {
+    User user = probeUser;
+    if (user == null) {
+      logger.debug("No default principal : engine readiness not probed");
+      return true;
+    }
+    try {
+      connectionManager.invalidate(user);
+      Principal principal = connectionManager.login(user);
+      for (String definitionId : definitionIds) {
+        DefinitionsInfoFilter dif = engineService.getObjectFactory().newDefinitionsInfoFilter();
+        DefinitionsFilter df = engineService.getObjectFactory().newDefinitionsFilter();
+        df.definitionsIdLike(definitionId);
+        dif.and(df);
+        List<DefinitionsInfo> definitionsInfos = engineService.getDefinitionsService().searchDefinitionsInfos(principal, null, dif, null, 0, 1);
+        if (definitionsInfos == null || definitionsInfos.isEmpty()) {
+          logger.debug("Engine not ready : definition '{}' not found", definitionId);
+          return false;
+        }
+      }
+      return true;
+    } catch (Exception ex) {
+      logger.debug("Engine not ready ({})", ex.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Interval between two steps of a ramp, so that the maximum concurrency is reached at the end of the warm-up
+   * (the number of consumers being doubled at each step)
+   * @param maxConcurrentConsumers maximum concurrency of the container
+   * @return long step interval (ms)
+   */
+  long getStepInterval(int maxConcurrentConsumers) {
+    int steps = 32 - Integer.numberOfLeadingZeros(Math.max(1, maxConcurrentConsumers) - 1);
+    return (steps > 0 ? Math.max(1, warmUp / steps) : 0);
+  }
+
+  private ScheduledExecutorService getScheduler() {
+    if (scheduler == null) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jms-warm-up-");
+      threadFactory.setDaemon(true);
+      scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+    return scheduler;
+  }
+
+  /**
+   * Set what the readiness probes check
+   * @param login login of the default principal (empty to skip the probes)
+   * @param password password of the default principal
+   * @param definitionIds identifiers of the definitions looked up
+   */
+  public void setProbe(String login, String password, Collection<String> definitionIds) {
+    if (StringUtils.isEmpty(login)) {
+      this.probeUser = null;
+    } else {
+      User user = new User(login);
+      user.setPassword(password);
+      this.probeUser = user;
+    }
+    this.definitionIds = new ArrayList<String>(definitionIds);
+  }
+
+  public String getMode() {
+    return mode;
+  }
+
+  @Value("${module.jms.startup.mode:delay}")
+  public void setMode(String mode) {
+    this.mode = mode;
+  }
+
+  @Value("${module.jms.startup.delay:10000}")
+  public void setDelay(long delay) {
+    this.delay = delay;
+  }
+
+  @Value("${module.jms.startup.probe_interval:2000}")
+  public void setProbeInterval(long probeInterval) {
+    this.probeInterval = probeInterval;
+  }
+
+  @Value("${module.jms.startup.timeout:0}")
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  @Value("${module.jms.startup.warm_up:0}")
+  public void setWarmUp(long warmUp) {
+    this.warmUp = warmUp;
+  }
+
+  public synchronized boolean isStarted() {
+    return started;
+  }
+
+  @Override
+  public synchronized void destroy() throws Exception {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
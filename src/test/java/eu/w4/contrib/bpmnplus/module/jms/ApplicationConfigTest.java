@@ -1,6 +1,7 @@
 package eu.w4.contrib.bpmnplus.module.jms;
 
 import eu.w4.common.exception.CheckedException;
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
 import eu.w4.engine.client.bpmn.w4.collaboration.CollaborationIdentifier;
 import eu.w4.engine.client.bpmn.w4.events.SignalIdentifier;
 import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsIdentifier;
@@ -8,8 +9,12 @@ import eu.w4.engine.client.bpmn.w4.process.ProcessIdentifier;
 import eu.w4.engine.client.service.EngineService;
 import eu.w4.engine.client.service.ObjectFactory;
 import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.runner.RunWith;
@@ -32,6 +37,81 @@ public class ApplicationConfigTest {
   @Autowired
   ApplicationConfig instance;
 
+  @Test
+  public void testGetChangedEndpoints() {
+    Properties previous = new Properties();
+    previous.setProperty("module.jms.principal.login", "jms");
+    previous.setProperty("module.jms.endpoints", "e1,e2,e3");
+    previous.setProperty("module.jms.endpoint.e1.destination", "Q1");
+    previous.setProperty("module.jms.endpoint.e2.destination", "Q2");
+    previous.setProperty("module.jms.endpoint.e3.destination", "Q3");
+    Properties updated = new Properties();
+    updated.putAll(previous);
+    updated.setProperty("module.jms.endpoints", "e1,e2,e4");
+    updated.setProperty("module.jms.endpoint.e2.batch.size", "10");
+    updated.setProperty("module.jms.endpoint.e4.destination", "Q4");
+
+    Set<String> result = ApplicationConfig.getChangedEndpoints(ApplicationConfig.getEndpointDefinitions(previous),
+            ApplicationConfig.getEndpointDefinitions(updated));
+    assertEquals(new LinkedHashSet<String>(Arrays.asList("e2", "e3", "e4")), result);
+
+    updated.setProperty("module.jms.principal.login", "other");
+    result = ApplicationConfig.getChangedEndpoints(ApplicationConfig.getEndpointDefinitions(previous),
+            ApplicationConfig.getEndpointDefinitions(updated));
+    assertTrue(result.contains("e1"));
+  }
+
+  @Test
+  public void testGetChangedEndpointsDefaultPrincipal() {
+    Properties previous = new Properties();
+    previous.setProperty("module.jms.principal.login", "jms");
+    previous.setProperty("module.jms.principal.password", "jms");
+    previous.setProperty("module.jms.endpoints", "e1,e2");
+    previous.setProperty("module.jms.endpoint.e1.destination", "Q1");
+    previous.setProperty("module.jms.endpoint.e2.destination", "Q2");
+    previous.setProperty("module.jms.endpoint.e2.principal.login", "e2");
+    previous.setProperty("module.jms.endpoint.e2.principal.password", "e2");
+    Properties updated = new Properties();
+    updated.putAll(previous);
+
+    // Global principal settings are not reloaded
+    updated.setProperty("module.jms.principal.lease_time", "60");
+    assertTrue(ApplicationConfig.getChangedEndpoints(ApplicationConfig.getEndpointDefinitions(previous),
+            ApplicationConfig.getEndpointDefinitions(updated)).isEmpty());
+
+    // Only the endpoints using the default principal are reloaded
+    updated.setProperty("module.jms.principal.password", "other");
+    assertEquals(Collections.singleton("e1"), ApplicationConfig.getChangedEndpoints(ApplicationConfig.getEndpointDefinitions(previous),
+            ApplicationConfig.getEndpointDefinitions(updated)));
+  }
+
+  @Test
+  public void testReloadErroneousEndpointKeepsPreviousEndpoints() throws Exception {
+    instance.setIgnoreErroneousEndpoint(false);
+    Properties previous = instance.configuration;
+    Properties updated = new Properties();
+    updated.putAll(previous);
+    updated.setProperty("module.jms.endpoint.endpoint4.mapping", "unknown");
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        instance.reloadConfiguration(updated);
+        fail("Erroneous endpoint reloaded");
+      } catch (JMSModuleException jmse) {
+        // Previous configuration kept : the change is still detected
+        assertSame(previous, instance.configuration);
+      }
+    }
+  }
+
+  @Test
+  public void testAnySelector() {
+    assertEquals("(type = 'order') OR (type = 'invoice')",
+            ApplicationConfig.anySelector(Arrays.asList("type = 'order'", " type = 'invoice' ")));
+    // An endpoint without selector receives all messages
+    assertNull(ApplicationConfig.anySelector(Arrays.asList("type = 'order'", null)));
+  }
+
   @Test
   public void testSubsetToCamelCaseEmpty() {
     Map<String, ? extends Object> result = ApplicationConfig.subsetToCamelCase(null, null, false);
@@ -0,0 +1,182 @@
+package eu.w4.contrib.bpmnplus.module.jms.circuitbreaker;
+
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.contrib.bpmnplus.module.jms.identification.User;
+import eu.w4.contrib.bpmnplus.module.jms.listener.config.W4MessageListenerContainer;
+import java.rmi.RemoteException;
+import java.security.Principal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class EngineCircuitBreakerTest {
+
+  private ConnectionManager connectionManager;
+  private EngineCircuitBreaker circuitBreaker;
+  private W4MessageListenerContainer container;
+  private User user;
+
+  @Before
+  public void setUp() {
+    connectionManager = mock(ConnectionManager.class);
+    circuitBreaker = new EngineCircuitBreaker(connectionManager);
+    circuitBreaker.setFailureThreshold(2);
+    // No probe during the test unless set
+    circuitBreaker.setProbeInterval(60000);
+    // Restarted containers stay at the first step of their ramp
+    circuitBreaker.setRampInterval(60000);
+    circuitBreaker.setProbeUser("jms", "jms");
+
+    final AtomicBoolean running = new AtomicBoolean();
+    // Lifecycle only : nothing is consumed
+    container = new W4MessageListenerContainer() {
+      @Override
+      public void start() {
+        running.set(true);
+      }
+
+      @Override
+      public void stop() {
+        running.set(false);
+      }
+
+      @Override
+      public boolean isRunning() {
+        return running.get();
+      }
+    };
+    container.setConcurrency("2-8");
+    container.start();
+    circuitBreaker.register(container);
+    user = new User("endpoint");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    circuitBreaker.destroy();
+  }
+
+  @Test
+  public void testOpenStopsRunningContainers() {
+    DefaultMessageListenerContainer notStarted = mock(DefaultMessageListenerContainer.class);
+    circuitBreaker.register(notStarted);
+
+    circuitBreaker.recordFailure(user);
+    assertEquals("CLOSED", circuitBreaker.getState());
+    circuitBreaker.recordFailure(user);
+    assertEquals("OPEN", circuitBreaker.getState());
+    assertEquals(1, circuitBreaker.getOpenings());
+    assertFalse(circuitBreaker.allowRequest());
+    assertEquals(1, circuitBreaker.getRejectedCalls());
+
+    // Containers not started yet are left to the startup coordinator
+    assertFalse(container.isRunning());
+    verify(notStarted, never()).stop();
+    assertEquals(1, circuitBreaker.getStoppedContainers());
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    circuitBreaker.recordFailure(user);
+    circuitBreaker.recordSuccess();
+    circuitBreaker.recordFailure(user);
+    assertEquals("CLOSED", circuitBreaker.getState());
+    assertEquals(1, circuitBreaker.getConsecutiveFailures());
+    assertTrue(circuitBreaker.allowRequest());
+  }
+
+  @Test
+  public void testDisabled() {
+    circuitBreaker.setFailureThreshold(0);
+    for (int i = 0; i < 10; i++) {
+      circuitBreaker.recordFailure(user);
+    }
+    assertEquals("CLOSED", circuitBreaker.getState());
+    assertTrue(container.isRunning());
+  }
+
+  @Test
+  public void testProbeClosesAndRampsContainers() throws Exception {
+    final CountDownLatch probing = new CountDownLatch(1);
+    final CountDownLatch engineBack = new CountDownLatch(1);
+    when(connectionManager.login(any(User.class))).thenThrow(new JMSModuleException("Cannot login against engine", new RemoteException()))
+            .thenAnswer(new Answer<Principal>() {
+              @Override
+              public Principal answer(InvocationOnMock invocation) throws Throwable {
+                probing.countDown();
+                engineBack.await(5, TimeUnit.SECONDS);
+                return mock(Principal.class);
+              }
+            });
+    circuitBreaker.setProbeInterval(10);
+    circuitBreaker.recordFailure(user);
+    circuitBreaker.recordFailure(user);
+
+    // First probe fails (open again), second one is in progress (half open)
+    assertTrue(probing.await(5, TimeUnit.SECONDS));
+    assertEquals("HALF_OPEN", circuitBreaker.getState());
+    assertFalse(circuitBreaker.allowRequest());
+    assertFalse(container.isRunning());
+
+    engineBack.countDown();
+    awaitState("CLOSED");
+    verify(connectionManager, times(2)).invalidate(new User("jms"));
+    assertEquals(0, circuitBreaker.getConsecutiveFailures());
+    // Synchronized : returns once the containers are restarted
+    assertEquals(0, circuitBreaker.getStoppedContainers());
+
+    // Restarted with one consumer, then ramped up
+    assertTrue(container.isRunning());
+    assertEquals(1, container.getMaxConcurrentConsumers());
+    assertEquals(1, container.getConcurrencyCeiling());
+  }
+
+  @Test
+  public void testProbeLastFailedUserWithoutDefaultPrincipal() throws Exception {
+    circuitBreaker.setProbeUser(null, null);
+    circuitBreaker.setProbeInterval(10);
+    circuitBreaker.recordFailure(user);
+    circuitBreaker.recordFailure(user);
+
+    awaitState("CLOSED");
+    verify(connectionManager).login(user);
+  }
+
+  @Test
+  public void testReset() {
+    circuitBreaker.recordFailure(user);
+    circuitBreaker.recordFailure(user);
+    assertEquals("OPEN", circuitBreaker.getState());
+
+    circuitBreaker.reset();
+    assertEquals("CLOSED", circuitBreaker.getState());
+    assertTrue(circuitBreaker.allowRequest());
+    assertEquals(0, circuitBreaker.getConsecutiveFailures());
+    assertTrue(container.isRunning());
+    assertEquals(1, container.getMaxConcurrentConsumers());
+    verifyZeroInteractions(connectionManager);
+
+    // Closed circuit : nothing to restart
+    container.stop();
+    circuitBreaker.reset();
+    assertFalse(container.isRunning());
+  }
+
+  private void awaitState(String state) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!state.equals(circuitBreaker.getState()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(state, circuitBreaker.getState());
+  }
+}
@@ -0,0 +1,55 @@
+package eu.w4.contrib.bpmnplus.module.jms.deduplication;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class DeduplicationStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testContains() throws Exception {
+    DeduplicationStore store = new DeduplicationStore(10);
+    assertFalse(store.contains("ID:1"));
+
+    store.add("ID:1");
+
+    assertTrue(store.contains("ID:1"));
+    assertFalse(store.contains("ID:2"));
+    assertEquals(1, store.getDuplicates());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws Exception {
+    DeduplicationStore store = new DeduplicationStore(2);
+    store.add("ID:1");
+    store.add("ID:2");
+    store.contains("ID:1");
+    store.add("ID:3");
+
+    assertEquals(2, store.getSize());
+    assertTrue(store.contains("ID:1"));
+    assertFalse(store.contains("ID:2"));
+  }
+
+  @Test
+  public void testPersistence() throws Exception {
+    File file = new File(folder.getRoot(), "keys");
+    DeduplicationStore store = new DeduplicationStore(3, file);
+    for (int i = 0; i < 10; i++) {
+      store.add("ID:" + i);
+    }
+    store.close();
+
+    DeduplicationStore reloaded = new DeduplicationStore(3, file);
+    assertEquals(3, reloaded.getSize());
+    assertTrue(reloaded.contains("ID:9"));
+    assertFalse(reloaded.contains("ID:0"));
+    reloaded.close();
+  }
+}
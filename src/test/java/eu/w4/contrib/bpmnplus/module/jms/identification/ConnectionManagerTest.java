@@ -0,0 +1,136 @@
+package eu.w4.contrib.bpmnplus.module.jms.identification;
+
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
+import eu.w4.engine.client.EnginePrincipalState;
+import eu.w4.engine.client.service.AuthenticationService;
+import eu.w4.engine.client.service.EngineService;
+import java.security.Principal;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ConnectionManagerTest {
+
+  private final User user = new User("user");
+  private final Principal principal1 = mock(Principal.class);
+  private final Principal principal2 = mock(Principal.class);
+
+  private final CountDownLatch renewing = new CountDownLatch(1);
+  private final CountDownLatch loggedOut = new CountDownLatch(1);
+
+  private AuthenticationService authenticationService;
+  private ConnectionManager connectionManager;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    authenticationService = mock(AuthenticationService.class);
+    EngineService engineService = mock(EngineService.class);
+    when(engineService.getAuthenticationService()).thenReturn(authenticationService);
+    connectionManager = new ConnectionManager(engineService);
+    // Principal validated on each login
+    connectionManager.setLeaseTime(0);
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testLoggedOutPrincipalNotLeasedAgain() throws Exception {
+    when(authenticationService.login("user", (String) null)).thenReturn(principal1, principal2);
+    assertSame(principal1, connectionManager.login(user));
+
+    // Logout while the principal is being validated
+    when(authenticationService.getEnginePrincipalState(principal1)).thenAnswer(waitForLogout(EnginePrincipalState.VALID));
+    Future<Principal> login = executor.submit(login());
+    assertTrue(renewing.await(5, TimeUnit.SECONDS));
+    connectionManager.logout(user);
+    loggedOut.countDown();
+
+    try {
+      login.get(5, TimeUnit.SECONDS);
+      fail("Logged out principal leased again");
+    } catch (ExecutionException eex) {
+      assertTrue(eex.getCause() instanceof JMSModuleException);
+    }
+    // Next login opens a new session
+    assertSame(principal2, connectionManager.login(user));
+  }
+
+  @Test
+  public void testFirstLoginLoggedOutNotLeased() throws Exception {
+    when(authenticationService.login("user", (String) null)).thenAnswer(waitForLogout(principal1)).thenReturn(principal2);
+
+    // Logout while the first session is being opened (nothing cached yet)
+    Future<Principal> login = executor.submit(login());
+    assertTrue(renewing.await(5, TimeUnit.SECONDS));
+    connectionManager.logout(user);
+    loggedOut.countDown();
+
+    try {
+      login.get(5, TimeUnit.SECONDS);
+      fail("Session opened during logout leased");
+    } catch (ExecutionException eex) {
+      assertTrue(eex.getCause() instanceof JMSModuleException);
+    }
+    verify(authenticationService).logout(principal1);
+    // Next login opens a new session
+    assertSame(principal2, connectionManager.login(user));
+  }
+
+  @Test
+  public void testSessionOpenedDuringLogoutClosed() throws Exception {
+    when(authenticationService.login("user", (String) null)).thenReturn(principal1).thenAnswer(waitForLogout(principal2));
+    assertSame(principal1, connectionManager.login(user));
+
+    // Logout while a new session is being opened (principal not valid anymore)
+    Future<Principal> login = executor.submit(login());
+    assertTrue(renewing.await(5, TimeUnit.SECONDS));
+    connectionManager.logout(user);
+    loggedOut.countDown();
+
+    try {
+      login.get(5, TimeUnit.SECONDS);
+      fail("Session opened during logout leased");
+    } catch (ExecutionException eex) {
+      assertTrue(eex.getCause() instanceof JMSModuleException);
+    }
+    verify(authenticationService).logout(principal1);
+    verify(authenticationService).logout(principal2);
+  }
+
+  private Callable<Principal> login() {
+    return new Callable<Principal>() {
+      @Override
+      public Principal call() {
+        return connectionManager.login(user);
+      }
+    };
+  }
+
+  private <T> Answer<T> waitForLogout(final T result) {
+    return new Answer<T>() {
+      @Override
+      public T answer(InvocationOnMock invocation) throws Throwable {
+        renewing.countDown();
+        assertTrue(loggedOut.await(5, TimeUnit.SECONDS));
+        return result;
+      }
+    };
+  }
+}
@@ -0,0 +1,76 @@
+package eu.w4.contrib.bpmnplus.module.jms.jmx;
+
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ObjectToMapConverterCache;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jmx.export.MBeanExporter;
+
+import static org.junit.Assert.*;
+
+public class JmxExportConfigurationTest {
+
+  private DefaultListableBeanFactory beanFactory;
+
+  @Before
+  public void setUp() {
+    // Bean definitions only : nothing is instantiated
+    beanFactory = new DefaultListableBeanFactory();
+    new XmlBeanDefinitionReader(beanFactory).loadBeanDefinitions(new ClassPathResource("JMSModule-context.xml"));
+  }
+
+  @Test
+  public void testExportedBeansHaveMethodMappings() {
+    Properties methodMappings = getMethodMappings();
+    Map<?, ?> beans = (Map<?, ?>) beanFactory.getBeanDefinition("mbeanExporter").getPropertyValues().getPropertyValue("beans").getValue();
+    assertFalse(beans.isEmpty());
+    for (Object key : beans.keySet()) {
+      String beanKey = valueOf(key);
+      // Beans exported by name are assembled with their object name as bean key
+      assertNotNull("No method mapping for " + beanKey, methodMappings.getProperty(beanKey));
+    }
+  }
+
+  @Test
+  public void testCacheOperationsExported() throws Exception {
+    SetterBasedMBeanInfoAssembler assembler = new SetterBasedMBeanInfoAssembler();
+    assembler.setMethodMappings(getMethodMappings());
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    MBeanExporter exporter = new MBeanExporter();
+    exporter.setServer(server);
+    exporter.setAssembler(assembler);
+    ObjectToMapConverterCache cache = new ObjectToMapConverterCache();
+    exporter.setBeans(Collections.<String, Object>singletonMap("eu.w4.contrib.bpmnplus.module.jms:type=ObjectToMapConverterCache", cache));
+    try {
+      exporter.afterPropertiesSet();
+      ObjectName name = new ObjectName("eu.w4.contrib.bpmnplus.module.jms:type=ObjectToMapConverterCache");
+      server.invoke(name, "clear", new Object[0], new String[0]);
+      assertEquals(0, server.getAttribute(name, "Size"));
+    } finally {
+      exporter.destroy();
+      MBeanServerFactory.releaseMBeanServer(server);
+    }
+  }
+
+  private Properties getMethodMappings() {
+    Map<?, ?> mappings = (Map<?, ?>) beanFactory.getBeanDefinition("assembler").getPropertyValues().getPropertyValue("methodMappings").getValue();
+    Properties methodMappings = new Properties();
+    for (Map.Entry<?, ?> mapping : mappings.entrySet()) {
+      methodMappings.setProperty(valueOf(mapping.getKey()), valueOf(mapping.getValue()).trim());
+    }
+    return methodMappings;
+  }
+
+  private static String valueOf(Object value) {
+    return (value instanceof TypedStringValue ? ((TypedStringValue) value).getValue() : String.valueOf(value));
+  }
+}
@@ -1,11 +1,15 @@
 package eu.w4.contrib.bpmnplus.module.jms.listener;
 
 import eu.w4.contrib.bpmnplus.module.jms.configuration.BpmnAction;
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.contrib.bpmnplus.module.jms.identification.User;
 import eu.w4.engine.client.bpmn.w4.events.SignalIdentifier;
 import eu.w4.engine.client.bpmn.w4.infrastructure.DefinitionsIdentifier;
 import eu.w4.engine.client.service.EngineService;
 import eu.w4.engine.client.service.ObjectFactory;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.hamcrest.core.IsInstanceOf;
@@ -90,4 +94,41 @@ public class MessageListenerFactoryTest {
 
     assertThat(listener, IsInstanceOf.instanceOf(SignalTriggeringListener.class));
   }
+
+  @Test
+  public void testDestroyKeepsSharedPrincipal() throws Exception {
+    when(engine.getObjectFactory()).thenReturn(objectFactory);
+    when(objectFactory.newDefinitionsIdentifier()).thenReturn(mock(DefinitionsIdentifier.class));
+    when(objectFactory.newSignalIdentifier()).thenReturn(mock(SignalIdentifier.class));
+
+    Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("signalIdentifier", RandomStringUtils.random(1));
+
+    ConnectionManager connectionManager = mock(ConnectionManager.class);
+    listenerFactory.connectionManager = connectionManager;
+    listenerFactory.setEngineService(engine);
+    AbstractW4MessageListener listener = listenerFactory.getListener(BpmnAction.SIGNAL, "", "", "", properties);
+
+    // Released endpoint (reload) : other endpoints of the same user keep its principal
+    listener.destroy();
+    verify(connectionManager, never()).logout(any(User.class));
+  }
+
+  @Test
+  public void testMappedKeysIncludeDeduplicationKey() throws Exception {
+    when(engine.getObjectFactory()).thenReturn(objectFactory);
+    when(objectFactory.newDefinitionsIdentifier()).thenReturn(mock(DefinitionsIdentifier.class));
+    when(objectFactory.newSignalIdentifier()).thenReturn(mock(SignalIdentifier.class));
+
+    Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("signalIdentifier", RandomStringUtils.random(1));
+
+    listenerFactory.setEngineService(engine);
+    AbstractW4MessageListener listener = listenerFactory.getListener(BpmnAction.SIGNAL, "", "", "", properties);
+    listener.setDataEntries("order.customer.id:CustomerId");
+    listener.setDeduplicationKey("payload:header.reference");
+
+    // Streaming conversion must keep the root of the deduplication key
+    assertEquals(new HashSet<String>(Arrays.asList("order", "header")), listener.getMappedKeys());
+  }
 }
@@ -0,0 +1,107 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener;
+
+import eu.w4.contrib.bpmnplus.module.jms.exception.EngineUnavailableException;
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.contrib.bpmnplus.module.jms.identification.User;
+import eu.w4.contrib.bpmnplus.module.jms.metrics.StageLatency;
+import eu.w4.contrib.bpmnplus.module.jms.reply.ReplySender;
+import eu.w4.engine.client.service.EngineService;
+import java.security.Principal;
+import java.util.Map;
+import javax.jms.Message;
+import javax.jms.Queue;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ReplyModeTest {
+
+  private final ReplySender replySender = mock(ReplySender.class);
+  private final Message request = mock(Message.class);
+  private final Queue replyTo = mock(Queue.class);
+
+  // Failure of the W4 action (null : processed)
+  private RuntimeException failure;
+  private AbstractW4MessageListener listener;
+
+  @Before
+  public void setUp() throws Exception {
+    listener = new AbstractW4MessageListener() {
+      @Override
+      protected String doProcessW4Action(Principal principal, Map<String, Object> properties, Map<String, Object> dataEntries) {
+        if (failure != null) {
+          throw failure;
+        }
+        return "instance1";
+      }
+    };
+    listener.setEngineService(mock(EngineService.class, RETURNS_DEEP_STUBS));
+    listener.setDefinitionsIdentifier("definitions");
+    listener.setEngineUser(new User("jms"));
+    listener.setConnectionManager(mock(ConnectionManager.class));
+    listener.setReplySender(replySender);
+    listener.setReplyMaxDeliveries(3);
+    listener.afterPropertiesSet();
+
+    when(request.getJMSReplyTo()).thenReturn(replyTo);
+    when(request.getJMSMessageID()).thenReturn("ID:1");
+  }
+
+  @Test
+  public void testResultReplied() {
+    handle();
+    verify(replySender).reply(eq(replyTo), eq("ID:1"), eq("instance1"), (Throwable) isNull(), anyLong(), any(StageLatency.class));
+  }
+
+  @Test
+  public void testFailureRepliedOnceAndAcknowledged() {
+    failure = new IllegalArgumentException("Unknown signal");
+
+    // Not rethrown : a redelivery would fail and reply again
+    handle();
+    verify(replySender).reply(eq(replyTo), eq("ID:1"), (String) isNull(), same(failure), anyLong(), any(StageLatency.class));
+  }
+
+  @Test
+  public void testFailureWithoutReplyDestinationRedelivered() throws Exception {
+    failure = new IllegalArgumentException("Unknown signal");
+    when(request.getJMSReplyTo()).thenReturn(null);
+
+    try {
+      handle();
+      fail("Failure not rethrown");
+    } catch (IllegalArgumentException iae) {
+      assertSame(failure, iae);
+    }
+  }
+
+  @Test
+  public void testEngineUnavailableRepliedOnLastDelivery() throws Exception {
+    failure = new EngineUnavailableException("Engine down");
+    when(request.propertyExists("JMSXDeliveryCount")).thenReturn(true);
+    when(request.getIntProperty("JMSXDeliveryCount")).thenReturn(2, 3);
+
+    // Redelivered : may still be processed
+    try {
+      handle();
+      fail("Failure not rethrown");
+    } catch (EngineUnavailableException eue) {
+      verifyZeroInteractions(replySender);
+    }
+
+    // Last delivery : replied, then moved to the dead letter queue by the broker
+    try {
+      handle();
+      fail("Failure not rethrown");
+    } catch (EngineUnavailableException eue) {
+      verify(replySender).reply(eq(replyTo), eq("ID:1"), (String) isNull(), same(failure), anyLong(), any(StageLatency.class));
+    }
+  }
+
+  private void handle() {
+    listener.handle(MessageBuilder.withPayload("request").build(), null, request);
+  }
+}
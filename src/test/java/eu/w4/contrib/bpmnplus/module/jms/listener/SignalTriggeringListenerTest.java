@@ -0,0 +1,101 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener;
+
+import eu.w4.contrib.bpmnplus.module.jms.exception.JMSModuleException;
+import eu.w4.contrib.bpmnplus.module.jms.identification.User;
+import eu.w4.contrib.bpmnplus.module.jms.spool.MessageSpool;
+import eu.w4.engine.client.bpmn.w4.events.SignalIdentifier;
+import eu.w4.engine.client.service.EngineService;
+import java.rmi.RemoteException;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SignalTriggeringListenerTest {
+
+  private final SignalIdentifier version1 = mock(SignalIdentifier.class, RETURNS_DEEP_STUBS);
+  private final SignalIdentifier version2 = mock(SignalIdentifier.class, RETURNS_DEEP_STUBS);
+  private final Principal principal = mock(Principal.class);
+  private final Map<String, Object> properties = Collections.emptyMap();
+
+  private EngineService engine;
+  private SignalTriggeringListener listener;
+
+  @Before
+  public void setUp() {
+    engine = mock(EngineService.class, RETURNS_DEEP_STUBS);
+    listener = new SignalTriggeringListener() {
+      @Override
+      SignalVersionIndex createSignalVersionIndex() {
+        return new SignalVersionIndex(null, "definitions", "signal", 60000) {
+          @Override
+          List<SignalIdentifier> resolve(Principal principal) {
+            return Collections.unmodifiableList(Arrays.asList(version1, version2));
+          }
+        };
+      }
+    };
+    listener.setEngineService(engine);
+    listener.setDefinitionsIdentifier("definitions");
+    listener.setEngineUser(new User("jms"));
+    listener.setSignalIdentifier("signal");
+    listener.setSignalName("TestSignal");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    listener.destroy();
+  }
+
+  @Test
+  public void testFailureBeforeAnyVersionRethrown() throws Exception {
+    listener.afterPropertiesSet();
+    doThrow(new RemoteException("Engine down")).when(engine.getEventService()).triggerSignal(principal, version1, "TestSignal", null);
+
+    try {
+      listener.doProcessW4Action(principal, properties, null);
+      fail("Failure not rethrown");
+    } catch (JMSModuleException jmse) {
+      // Redelivered, or spooled
+      assertTrue(MessageSpool.isEngineUnavailable(jmse));
+    }
+  }
+
+  @Test
+  public void testFailureAfterSignalledVersionNotRethrown() throws Exception {
+    listener.afterPropertiesSet();
+    doThrow(new RemoteException("Engine down")).when(engine.getEventService()).triggerSignal(principal, version2, "TestSignal", null);
+
+    // Version 1 would be signalled twice by a redelivery
+    assertNull(listener.doProcessW4Action(principal, properties, null));
+    verify(engine.getEventService()).triggerSignal(principal, version1, "TestSignal", null);
+    verify(engine.getEventService()).triggerSignal(principal, version2, "TestSignal", null);
+  }
+
+  @Test
+  public void testConcurrentFailureAfterSignalledVersionNotRethrown() throws Exception {
+    listener.setSignalParallelism(2);
+    listener.afterPropertiesSet();
+    doThrow(new RemoteException("Engine down")).when(engine.getEventService()).triggerSignal(principal, version1, "TestSignal", null);
+
+    assertNull(listener.doProcessW4Action(principal, properties, null));
+    verify(engine.getEventService()).triggerSignal(principal, version2, "TestSignal", null);
+  }
+
+  @Test(expected = JMSModuleException.class)
+  public void testConcurrentFailureOfAllVersionsRethrown() throws Exception {
+    listener.setSignalParallelism(2);
+    listener.afterPropertiesSet();
+    doThrow(new RemoteException("Engine down")).when(engine.getEventService()).triggerSignal(principal, version1, "TestSignal", null);
+    doThrow(new RemoteException("Engine down")).when(engine.getEventService()).triggerSignal(principal, version2, "TestSignal", null);
+
+    listener.doProcessW4Action(principal, properties, null);
+  }
+}
@@ -0,0 +1,80 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener;
+
+import eu.w4.engine.client.bpmn.w4.events.SignalIdentifier;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SignalVersionIndexTest {
+
+  private final SignalIdentifier version1 = mock(SignalIdentifier.class);
+  private final SignalIdentifier version2 = mock(SignalIdentifier.class);
+
+  @Test
+  public void testResolvedForEachMessageWithoutTimeToLive() throws Exception {
+    CountingIndex index = new CountingIndex(0);
+
+    assertEquals(Arrays.asList(version1, version2), index.getSignalIdentifiers(null));
+    index.getSignalIdentifiers(null);
+
+    assertEquals(2, index.resolutions.get());
+  }
+
+  @Test
+  public void testReusedUntilExpiry() throws Exception {
+    CountingIndex index = new CountingIndex(50);
+
+    index.getSignalIdentifiers(null);
+    index.getSignalIdentifiers(null);
+    assertEquals(1, index.resolutions.get());
+
+    Thread.sleep(100);
+    index.getSignalIdentifiers(null);
+    assertEquals(2, index.resolutions.get());
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    CountingIndex index = new CountingIndex(60000);
+
+    index.getSignalIdentifiers(null);
+    index.invalidate();
+    index.getSignalIdentifiers(null);
+
+    assertEquals(2, index.resolutions.get());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    CountingIndex index = new CountingIndex(60000);
+
+    index.getSignalIdentifiers(null);
+    index.remove(version1);
+
+    assertEquals(Collections.singletonList(version2), index.getSignalIdentifiers(null));
+    assertEquals(1, index.resolutions.get());
+  }
+
+  /**
+   * Index counting the resolutions of the versions
+   */
+  private class CountingIndex extends SignalVersionIndex {
+    private final AtomicInteger resolutions = new AtomicInteger();
+
+    CountingIndex(long timeToLive) {
+      super(null, "definitions", "signal", timeToLive);
+    }
+
+    @Override
+    List<SignalIdentifier> resolve(Principal principal) {
+      resolutions.incrementAndGet();
+      return Collections.unmodifiableList(Arrays.asList(version1, version2));
+    }
+  }
+}
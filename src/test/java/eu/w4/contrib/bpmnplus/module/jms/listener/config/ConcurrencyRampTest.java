@@ -0,0 +1,85 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ConcurrencyRampTest {
+
+  private W4MessageListenerContainer container;
+  private ScheduledExecutorService scheduler;
+
+  @Before
+  public void setUp() {
+    final AtomicBoolean running = new AtomicBoolean();
+    // Lifecycle only : nothing is consumed
+    container = new W4MessageListenerContainer() {
+      @Override
+      public void start() {
+        running.set(true);
+      }
+
+      @Override
+      public void stop() {
+        running.set(false);
+      }
+
+      @Override
+      public boolean isRunning() {
+        return running.get();
+      }
+    };
+    container.setConcurrency("2-8");
+    scheduler = mock(ScheduledExecutorService.class);
+  }
+
+  @Test
+  public void testRampCapsAdaptiveLimit() {
+    ConcurrencyRamp ramp = new ConcurrencyRamp(container);
+    ramp.start(scheduler, 1000);
+    assertTrue(container.isRunning());
+    assertEquals(1, container.getConcurrentConsumers());
+    assertEquals(1, container.getMaxConcurrentConsumers());
+
+    // Limit chosen by the adaptive controller meanwhile : capped, not overwritten
+    container.setConcurrencyLimit(4);
+    ramp.run();
+    assertEquals(2, container.getMaxConcurrentConsumers());
+    ramp.run();
+    assertEquals(0, ramp.getCeiling());
+    assertEquals(4, container.getMaxConcurrentConsumers());
+    assertEquals(2, container.getConcurrentConsumers());
+    assertEquals(4, container.getConcurrencyLimit());
+    verify(scheduler, times(2)).schedule(ramp, 1000, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testLaterRampTakesOver() {
+    ConcurrencyRamp first = new ConcurrencyRamp(container);
+    first.start(scheduler, 1000);
+    container.stop();
+    ConcurrencyRamp second = new ConcurrencyRamp(container);
+    second.start(scheduler, 1000);
+    second.run();
+    second.run();
+    assertEquals(4, container.getMaxConcurrentConsumers());
+
+    // Pending step of the first ramp : ignored
+    first.run();
+    assertEquals(4, container.getMaxConcurrentConsumers());
+    assertEquals(4, container.getConcurrencyCeiling());
+  }
+
+  @Test
+  public void testStartWithoutSteps() {
+    new ConcurrencyRamp(container).start(scheduler, 0);
+    assertEquals(8, container.getMaxConcurrentConsumers());
+    assertEquals(0, container.getConcurrencyCeiling());
+    verifyZeroInteractions(scheduler);
+  }
+}
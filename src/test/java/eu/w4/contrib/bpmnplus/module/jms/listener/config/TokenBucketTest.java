@@ -0,0 +1,47 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+  @Test
+  public void testBurstThenWait() {
+    TokenBucket bucket = new TokenBucket(10, 2);
+
+    assertEquals(0, bucket.reserve());
+    assertEquals(0, bucket.reserve());
+    long wait = bucket.reserve();
+
+    // One token every 100ms
+    assertTrue(wait > 0);
+    assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  @Test
+  public void testTryAcquireAndRefund() {
+    TokenBucket bucket = new TokenBucket(1, 1);
+
+    assertTrue(bucket.tryAcquire());
+    assertFalse(bucket.tryAcquire());
+    bucket.refund();
+    assertTrue(bucket.tryAcquire());
+  }
+
+  @Test
+  public void testDefaultBurstIsRate() {
+    TokenBucket bucket = new TokenBucket(5, 0);
+
+    assertEquals(5, bucket.getBurst());
+    bucket.setRate(20, 0);
+    assertEquals(20, bucket.getRate());
+    assertEquals(20, bucket.getBurst());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongRate() {
+    new TokenBucket(0, 0);
+  }
+}
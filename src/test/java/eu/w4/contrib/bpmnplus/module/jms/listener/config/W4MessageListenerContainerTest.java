@@ -0,0 +1,357 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class W4MessageListenerContainerTest {
+
+  private W4MessageListenerContainer container;
+  private MessageListener listener;
+  private Session session;
+  private MessageConsumer consumer;
+  private Message message1;
+  private Message message2;
+  private Message message3;
+
+  @Before
+  public void setUp() throws Exception {
+    listener = mock(MessageListener.class);
+    container = new W4MessageListenerContainer();
+    container.setMessageListener(listener);
+    container.setSessionAcknowledgeMode(Session.CLIENT_ACKNOWLEDGE);
+    container.setBatchSize(3);
+
+    session = mock(Session.class);
+    when(session.getAcknowledgeMode()).thenReturn(Session.CLIENT_ACKNOWLEDGE);
+    consumer = mock(MessageConsumer.class);
+    message1 = mockMessage("ID:1");
+    message2 = mockMessage("ID:2");
+    message3 = mockMessage("ID:3");
+  }
+
+  @After
+  public void tearDown() {
+    container.shutdown();
+  }
+
+  @Test
+  public void testFullBatchAcknowledgedOnce() throws Exception {
+    container.executeBatch(session, Arrays.asList(message1, message2, message3));
+
+    verify(listener).onMessage(message1);
+    verify(listener).onMessage(message2);
+    verify(listener).onMessage(message3);
+    // Acknowledgement of the last message acknowledges the whole batch
+    verify(message3).acknowledge();
+    verify(message1, never()).acknowledge();
+    verify(session, never()).recover();
+  }
+
+  @Test
+  public void testPartialFailureRecovered() throws Exception {
+    doThrow(new IllegalStateException("failure")).when(listener).onMessage(message2);
+
+    container.executeBatch(session, Arrays.asList(message1, message2, message3));
+
+    verify(session).recover();
+    verify(message3, never()).acknowledge();
+  }
+
+  @Test
+  public void testProcessedMessagesSkippedOnRedelivery() throws Exception {
+    doThrow(new IllegalStateException("failure")).when(listener).onMessage(message2);
+    container.executeBatch(session, Arrays.asList(message1, message2, message3));
+
+    // Redelivered one by one : processed messages only acknowledged
+    doNothing().when(listener).onMessage(message2);
+    container.executeRedelivered(session, message1);
+    container.executeRedelivered(session, message2);
+    container.executeRedelivered(session, message3);
+
+    verify(listener, times(1)).onMessage(message1);
+    verify(listener, times(2)).onMessage(message2);
+    verify(listener, times(1)).onMessage(message3);
+    verify(message1).acknowledge();
+    verify(message2).acknowledge();
+    verify(message3).acknowledge();
+  }
+
+  @Test
+  public void testPendingRedeliveries() throws Exception {
+    doThrow(new IllegalStateException("failure")).when(listener).onMessage(message2);
+    container.executeBatch(session, Arrays.asList(message1, message2, message3));
+    when(consumer.receive(anyLong())).thenReturn(message1, message2, message3, message1, message2, message3, null);
+
+    // As many messages as the failed batch are received one by one...
+    doNothing().when(listener).onMessage(message2);
+    for (Message redelivered : Arrays.asList(message1, message2, message3)) {
+      List<Message> received = container.receiveBatch(session, consumer);
+      assertEquals(Arrays.asList(redelivered), received);
+      container.executeRedelivered(session, redelivered);
+    }
+
+    // ... then by batches again
+    assertEquals(Arrays.asList(message1, message2, message3), container.receiveBatch(session, consumer));
+  }
+
+  @Test
+  public void testPendingRedeliveriesKeptOnFailure() throws Exception {
+    doThrow(new IllegalStateException("failure")).when(listener).onMessage(message2);
+    container.executeBatch(session, Arrays.asList(message1, message2));
+    when(consumer.receive(anyLong())).thenReturn(message2, message1, message2);
+
+    // Redelivered message failing again : still processed on its own
+    container.executeRedelivered(session, container.receiveBatch(session, consumer).get(0));
+    assertEquals(1, container.receiveBatch(session, consumer).size());
+    verify(session, times(2)).recover();
+  }
+
+  @Test
+  public void testPendingRedeliveriesClearedOnOtherMessage() throws Exception {
+    Message message4 = mockMessage("ID:4");
+    doThrow(new IllegalStateException("failure")).when(listener).onMessage(message2);
+    container.executeBatch(session, Arrays.asList(message1, message2));
+    when(consumer.receive(anyLong())).thenReturn(message2, message3, message4, null);
+
+    // Message failing on every delivery, then a message that was not part of the failed batch : back to batches
+    container.executeRedelivered(session, container.receiveBatch(session, consumer).get(0));
+    assertEquals(Arrays.asList(message3, message4), container.receiveBatch(session, consumer));
+  }
+
+  @Test
+  public void testPendingRedeliveriesClearedOnTimeout() throws Exception {
+    doThrow(new IllegalStateException("failure")).when(listener).onMessage(message2);
+    container.executeBatch(session, Arrays.asList(message1, message2));
+    when(consumer.receive(anyLong())).thenReturn(null, message2, message3, null);
+
+    // Nothing redelivered within the receive timeout : back to batches
+    assertTrue(container.receiveBatch(session, consumer).isEmpty());
+    assertEquals(Arrays.asList(message2, message3), container.receiveBatch(session, consumer));
+  }
+
+  @Test
+  public void testPipelineHandOff() throws Exception {
+    initializePipeline(2, 0);
+    final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+    Runnable processing = new Runnable() {
+      @Override
+      public void run() {
+        threadNames.add(Thread.currentThread().getName());
+      }
+    };
+    for (Message message : Arrays.asList(message1, message2, message3)) {
+      prepare(message, processing);
+    }
+
+    container.executeBatch(session, Arrays.asList(message1, message2, message3));
+
+    // Prepared by the consumer thread, processed by workers
+    assertEquals(3, threadNames.size());
+    for (String threadName : threadNames) {
+      assertTrue(threadName, threadName.startsWith("jms-queue-worker-"));
+    }
+    verify(listener, never()).onMessage(any(Message.class));
+    verify(message3).acknowledge();
+    verify(session, never()).recover();
+  }
+
+  @Test
+  public void testPipelineFailuresInReceptionOrder() throws Exception {
+    initializePipeline(3, 0);
+    final CountDownLatch lastProcessed = new CountDownLatch(1);
+    final IllegalStateException failure = new IllegalStateException("failure");
+    // First message completes last, second one fails
+    prepare(message1, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          assertTrue(lastProcessed.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException iex) {
+          throw new IllegalStateException(iex);
+        }
+      }
+    });
+    prepare(message2, new Runnable() {
+      @Override
+      public void run() {
+        throw failure;
+      }
+    });
+    prepare(message3, new Runnable() {
+      @Override
+      public void run() {
+        lastProcessed.countDown();
+      }
+    });
+
+    List<Throwable> failures = container.process(session, Arrays.asList(message1, message2, message3));
+
+    assertEquals(Arrays.<Throwable>asList(null, failure, null), failures);
+  }
+
+  @Test
+  public void testPipelineRejectedOnceStopped() throws Exception {
+    // Container not running : messages are rejected instead of waiting for a free slot
+    initializePipeline(1, 1);
+    final CountDownLatch released = new CountDownLatch(1);
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          assertTrue(released.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException iex) {
+          throw new IllegalStateException(iex);
+        }
+      }
+    };
+    Runnable processing = mock(Runnable.class);
+    prepare(message1, blocking);
+    prepare(message2, processing);
+    prepare(message3, processing);
+    // Prepared once the third message has been rejected (worker busy, queue full)
+    Message message4 = mockMessage("ID:4");
+    when(((PreparingMessageListener) listener).prepare(message4, session)).thenAnswer(new Answer<Runnable>() {
+      @Override
+      public Runnable answer(InvocationOnMock invocation) {
+        released.countDown();
+        return new Runnable() {
+          @Override
+          public void run() {
+          }
+        };
+      }
+    });
+
+    List<Throwable> failures = container.process(session, Arrays.asList(message1, message2, message3, message4));
+
+    assertNull(failures.get(0));
+    assertNull(failures.get(1));
+    assertTrue(failures.get(2) instanceof RejectedExecutionException);
+    // Second message only
+    verify(processing).run();
+  }
+
+  @Test
+  public void testPipelineAcknowledgedAfterWorkers() throws Exception {
+    initializePipeline(2, 0);
+    final CountDownLatch processing = new CountDownLatch(2);
+    final CountDownLatch released = new CountDownLatch(1);
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        processing.countDown();
+        try {
+          assertTrue(released.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException iex) {
+          throw new IllegalStateException(iex);
+        }
+      }
+    };
+    prepare(message1, blocking);
+    prepare(message2, blocking);
+
+    ExecutorService consumer = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> batch = consumer.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws JMSException {
+          container.executeBatch(session, Arrays.asList(message1, message2));
+          return null;
+        }
+      });
+
+      // Both messages being processed : nothing acknowledged yet
+      assertTrue(processing.await(5, TimeUnit.SECONDS));
+      verify(message2, never()).acknowledge();
+
+      released.countDown();
+      batch.get(5, TimeUnit.SECONDS);
+      verify(message2).acknowledge();
+      verify(message1, never()).acknowledge();
+    } finally {
+      consumer.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testConcurrencyLimitAndCeiling() {
+    container.setConcurrency("3-6");
+    assertEquals(6, container.getMaxConcurrentConsumers());
+
+    // Adaptive limit replaces the configured maximum
+    container.setConcurrencyLimit(2);
+    assertEquals(2, container.getMaxConcurrentConsumers());
+    assertEquals(2, container.getConcurrentConsumers());
+
+    // Ramp-up ceiling caps the limit without overwriting it
+    container.setConcurrencyCeiling(1);
+    container.setConcurrencyLimit(4);
+    assertEquals(1, container.getMaxConcurrentConsumers());
+    container.setConcurrencyCeiling(0);
+    assertEquals(4, container.getMaxConcurrentConsumers());
+    assertEquals(3, container.getConcurrentConsumers());
+
+    container.setConcurrencyLimit(0);
+    assertEquals(6, container.getMaxConcurrentConsumers());
+    assertEquals(6, container.getTargetMaxConcurrentConsumers());
+  }
+
+  @Test
+  public void testOrderingLanesSingleConsumer() {
+    container.setConcurrency("3-6");
+    container.setOrderingLanes(4);
+    assertEquals(1, container.getConcurrentConsumers());
+    assertEquals(1, container.getMaxConcurrentConsumers());
+    assertEquals(1, container.getTargetMaxConcurrentConsumers());
+
+    // Neither the configuration nor the adaptive limit add consumers
+    container.setConcurrency("2-8");
+    container.setConcurrencyLimit(5);
+    assertEquals(1, container.getMaxConcurrentConsumers());
+  }
+
+  private void initializePipeline(int workers, int queueCapacity) {
+    listener = mock(MessageListener.class, withSettings().extraInterfaces(PreparingMessageListener.class));
+    container.setMessageListener(listener);
+    container.setBatchSize(1);
+    container.setPipelineWorkers(workers);
+    container.setPipelineQueueCapacity(queueCapacity);
+    container.setConnectionFactory(mock(ConnectionFactory.class));
+    container.setDestinationName("queue");
+    // Initialized only : consumers wait for the container to be started
+    container.afterPropertiesSet();
+  }
+
+  private void prepare(Message message, Runnable processing) throws JMSException {
+    when(((PreparingMessageListener) listener).prepare(message, session)).thenReturn(processing);
+  }
+
+  private static Message mockMessage(String messageId) throws Exception {
+    Message message = mock(Message.class);
+    when(message.getJMSMessageID()).thenReturn(messageId);
+    return message;
+  }
+}
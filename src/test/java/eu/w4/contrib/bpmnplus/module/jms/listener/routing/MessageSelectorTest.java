@@ -0,0 +1,61 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.routing;
+
+import javax.jms.Message;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MessageSelectorTest {
+
+  Message message;
+
+  @Before
+  public void setUp() throws Exception {
+    message = mock(Message.class);
+    when(message.getObjectProperty("MyProperty")).thenReturn("Test2");
+    when(message.getObjectProperty("Amount")).thenReturn(5);
+    when(message.getObjectProperty("Urgent")).thenReturn(Boolean.TRUE);
+    when(message.getJMSPriority()).thenReturn(4);
+  }
+
+  @Test
+  public void testEquality() throws Exception {
+    assertTrue(MessageSelector.compile("MyProperty='Test2'").matches(message));
+    assertFalse(MessageSelector.compile("MyProperty='Test3'").matches(message));
+    assertTrue(MessageSelector.compile("MyProperty <> 'Test3'").matches(message));
+  }
+
+  @Test
+  public void testNumericComparisons() throws Exception {
+    assertTrue(MessageSelector.compile("Amount > 4 AND Amount <= 5.0").matches(message));
+    assertTrue(MessageSelector.compile("Amount BETWEEN 1 AND 5").matches(message));
+    assertTrue(MessageSelector.compile("JMSPriority >= 4").matches(message));
+  }
+
+  @Test
+  public void testInLikeAndNull() throws Exception {
+    assertTrue(MessageSelector.compile("MyProperty IN ('Test1', 'Test2')").matches(message));
+    assertFalse(MessageSelector.compile("MyProperty NOT IN ('Test1', 'Test2')").matches(message));
+    assertTrue(MessageSelector.compile("MyProperty LIKE 'Te_t%'").matches(message));
+    assertTrue(MessageSelector.compile("Missing IS NULL").matches(message));
+  }
+
+  @Test
+  public void testMissingPropertyIsUnknown() throws Exception {
+    assertFalse(MessageSelector.compile("Missing = 'x'").matches(message));
+    assertFalse(MessageSelector.compile("NOT Missing = 'x'").matches(message));
+    assertTrue(MessageSelector.compile("Missing = 'x' OR Urgent").matches(message));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testArithmeticNotSupported() {
+    MessageSelector.compile("Amount + 1 > 2");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedSelector() {
+    MessageSelector.compile("MyProperty = 'Test2");
+  }
+}
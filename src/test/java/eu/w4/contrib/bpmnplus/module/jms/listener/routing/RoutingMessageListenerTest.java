@@ -0,0 +1,68 @@
+package eu.w4.contrib.bpmnplus.module.jms.listener.routing;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class RoutingMessageListenerTest {
+
+  RoutingMessageListener router;
+  MessageListener orders;
+  MessageListener invoices;
+  Session session;
+
+  @Before
+  public void setUp() throws Exception {
+    orders = mock(MessageListener.class);
+    invoices = mock(MessageListener.class);
+    session = mock(Session.class);
+    router = new RoutingMessageListener("Q1");
+    router.addRoute("orders", MessageSelector.compile("type = 'order'"), orders);
+    router.addRoute("invoices", MessageSelector.compile("type = 'invoice'"), invoices);
+  }
+
+  @Test
+  public void testRoutedBySelector() throws Exception {
+    Message message = mockMessage("invoice");
+    router.onMessage(message, session);
+
+    verify(invoices).onMessage(message);
+    verify(orders, never()).onMessage(message);
+  }
+
+  @Test
+  public void testUnmatchedMessageNotAcknowledged() throws Exception {
+    Message message = mockMessage("other");
+    try {
+      router.onMessage(message, session);
+      fail("Message matching no route should fail");
+    } catch (JMSException jex) {
+      // Failed : recovered by the container instead of being acknowledged
+    }
+    verify(orders, never()).onMessage(message);
+    verify(invoices, never()).onMessage(message);
+    verify(message, never()).acknowledge();
+  }
+
+  @Test
+  public void testUnmatchedMessageRoutedToFallback() throws Exception {
+    MessageListener fallback = mock(MessageListener.class);
+    router.setFallback("others", fallback);
+    Message message = mockMessage("other");
+    router.onMessage(message, session);
+
+    verify(fallback).onMessage(message);
+  }
+
+  private static Message mockMessage(String type) throws Exception {
+    Message message = mock(Message.class);
+    when(message.getObjectProperty("type")).thenReturn(type);
+    return message;
+  }
+}
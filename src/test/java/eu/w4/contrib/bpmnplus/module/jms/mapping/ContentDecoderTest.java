@@ -0,0 +1,100 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.jms.BytesMessage;
+import org.junit.Test;
+
+import static eu.w4.contrib.bpmnplus.module.jms.mapping.MockMessages.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ContentDecoderTest {
+
+  private static final String TEXT = "{\"id\":\"id1\",\"label\":\"a label repeated, a label repeated, a label repeated\"}";
+
+  @Test
+  public void testGetContentEncoding() throws Exception {
+    BytesMessage message = mock(BytesMessage.class);
+    assertNull(ContentDecoder.getContentEncoding(message));
+    when(message.getStringProperty(ContentDecoder.JMS_PROPERTY_CONTENT_ENCODING)).thenReturn("identity", "GZIP");
+    assertNull(ContentDecoder.getContentEncoding(message));
+    assertEquals(ContentDecoder.ENCODING_GZIP, ContentDecoder.getContentEncoding(message));
+  }
+
+  @Test
+  public void testDecodeGzip() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    compress(new GZIPOutputStream(body));
+    ContentDecoder decoder = new ContentDecoder(1024);
+
+    // Inflater of the thread reused
+    assertEquals(TEXT, decoder.decodeText(mockBytesMessage(body.toByteArray()), ContentDecoder.ENCODING_GZIP));
+    assertEquals(TEXT, decoder.decodeText(mockBytesMessage(body.toByteArray()), ContentDecoder.ENCODING_GZIP));
+  }
+
+  @Test
+  public void testDecodeGzipOptionalHeaderFields() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    // Header with file name and comment (flags 0x18)
+    body.write(new byte[] {0x1f, (byte) 0x8b, 8, 0x18, 0, 0, 0, 0, 0, 0});
+    body.write("payload.json\0a comment\0".getBytes("UTF-8"));
+    ByteArrayOutputStream member = new ByteArrayOutputStream();
+    compress(new GZIPOutputStream(member));
+    byte[] compressed = member.toByteArray();
+    body.write(compressed, 10, compressed.length - 10);
+
+    assertEquals(TEXT, new ContentDecoder(1024).decodeText(mockBytesMessage(body.toByteArray()), ContentDecoder.ENCODING_GZIP));
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeGzipCorruptTrailer() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    compress(new GZIPOutputStream(body));
+    byte[] compressed = body.toByteArray();
+    // CRC-32 of the data
+    compressed[compressed.length - 8] ^= 1;
+
+    new ContentDecoder(1024).decodeText(mockBytesMessage(compressed), ContentDecoder.ENCODING_GZIP);
+  }
+
+  @Test
+  public void testDecodeBytes() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    compress(new GZIPOutputStream(body));
+
+    assertArrayEquals(TEXT.getBytes("UTF-8"), new ContentDecoder(1024).decodeBytes(mockBytesMessage(body.toByteArray()), ContentDecoder.ENCODING_GZIP));
+  }
+
+  @Test
+  public void testDecodeDeflate() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    compress(new DeflaterOutputStream(body));
+    ContentDecoder decoder = new ContentDecoder(1024);
+
+    // Inflater of the thread reused
+    assertEquals(TEXT, decoder.decodeText(mockBytesMessage(body.toByteArray()), ContentDecoder.ENCODING_DEFLATE));
+    assertEquals(TEXT, decoder.decodeText(mockBytesMessage(body.toByteArray()), ContentDecoder.ENCODING_DEFLATE));
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeTooLarge() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    compress(new GZIPOutputStream(body));
+
+    new ContentDecoder(10).decodeText(mockBytesMessage(body.toByteArray()), ContentDecoder.ENCODING_GZIP);
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeUnsupported() throws Exception {
+    new ContentDecoder(1024).decode(mockBytesMessage(new byte[0]), "lz4");
+  }
+
+  private static void compress(OutputStream out) throws IOException {
+    out.write(TEXT.getBytes("UTF-8"));
+    out.close();
+  }
+}
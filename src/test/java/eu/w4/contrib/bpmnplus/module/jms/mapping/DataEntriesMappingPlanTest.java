@@ -0,0 +1,69 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ObjectToMapConverterCacheTest.Customer;
+import eu.w4.contrib.bpmnplus.module.jms.mapping.ObjectToMapConverterCacheTest.Order;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DataEntriesMappingPlanTest {
+
+  @Test
+  public void testExtractFromMap() {
+    Map<String, Object> customer = new HashMap<String, Object>();
+    customer.put("id", "id1");
+    Map<String, Object> payload = new HashMap<String, Object>();
+    payload.put("customer", customer);
+    payload.put("lines", Arrays.asList("A", "B"));
+
+    Map<String, Object> dataEntries = plan("customer.id", "CustomerId", "lines[1]", "SecondLine", "missing.path", "Missing").extract(payload);
+
+    assertEquals("id1", dataEntries.get("CustomerId"));
+    assertEquals("B", dataEntries.get("SecondLine"));
+    assertTrue(dataEntries.containsKey("Missing"));
+    assertNull(dataEntries.get("Missing"));
+  }
+
+  @Test
+  public void testExtractFromObject() {
+    Order order = new Order();
+    order.setCustomer(new Customer("id1", 3));
+
+    Map<String, Object> dataEntries = plan("customer.id", "CustomerId", "customer.rank", "Rank").extract(order);
+
+    assertEquals("id1", dataEntries.get("CustomerId"));
+    assertEquals(3, dataEntries.get("Rank"));
+  }
+
+  @Test
+  public void testExtractFromJson() {
+    String payload = "{\"order\":{\"lines\":[{\"code\":\"L1\"},{\"code\":\"L2\"}]},\"ignored\":true}";
+
+    DataEntriesMappingPlan plan = plan("order.lines[1].code", "SecondCode");
+
+    assertEquals("L2", plan.extract(payload).get("SecondCode"));
+    assertEquals(1, plan.getRootKeys().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedPath() {
+    plan("lines[1", "Line");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNotJsonString() {
+    plan("id", "Id").extract("not json");
+  }
+
+  private DataEntriesMappingPlan plan(String... pathsAndIds) {
+    Map<String, String> mapping = new LinkedHashMap<String, String>();
+    for (int i = 0; i < pathsAndIds.length; i += 2) {
+      mapping.put(pathsAndIds[i], pathsAndIds[i + 1]);
+    }
+    return DataEntriesMappingPlan.compile(mapping);
+  }
+}
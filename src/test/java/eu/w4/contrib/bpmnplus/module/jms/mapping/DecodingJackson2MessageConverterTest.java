@@ -0,0 +1,39 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.util.Collections;
+import java.util.Map;
+import javax.jms.BytesMessage;
+import org.junit.Test;
+
+import static eu.w4.contrib.bpmnplus.module.jms.mapping.MockMessages.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class DecodingJackson2MessageConverterTest {
+
+  @Test
+  public void testReadCbor() throws Exception {
+    assertReadBinary(new CBORFactory());
+  }
+
+  @Test
+  public void testReadSmile() throws Exception {
+    assertReadBinary(new SmileFactory());
+  }
+
+  private static void assertReadBinary(JsonFactory factory) throws Exception {
+    ObjectMapper objectMapper = new ObjectMapper(factory);
+    Map<String, Object> dto = Collections.<String, Object>singletonMap("id", "id1");
+    DecodingJackson2MessageConverter converter = new DecodingJackson2MessageConverter(new ContentDecoder(1024), objectMapper);
+    converter.setTypeIdPropertyName("ClassName");
+
+    BytesMessage message = mockBytesMessage(objectMapper.writeValueAsBytes(dto));
+    when(message.getStringProperty("ClassName")).thenReturn("java.util.HashMap");
+
+    assertEquals(dto, converter.fromMessage(message));
+  }
+}
@@ -0,0 +1,84 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.jms.BytesMessage;
+import javax.jms.MapMessage;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.StreamMessage;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class JmsPayloadReaderTest {
+
+  @Test
+  public void testReadBytes() throws Exception {
+    BytesMessage message = mock(BytesMessage.class);
+    when(message.getBodyLength()).thenReturn(3L);
+    when(message.readBytes(any(byte[].class))).thenAnswer(new Answer<Integer>() {
+      @Override
+      public Integer answer(InvocationOnMock invocation) {
+        byte[] body = (byte[]) invocation.getArguments()[0];
+        body[0] = 1;
+        body[1] = 2;
+        body[2] = 3;
+        return 3;
+      }
+    });
+
+    assertArrayEquals(new byte[] {1, 2, 3}, new JmsPayloadReader(10).readBytes(message));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadBytesTooLarge() throws Exception {
+    BytesMessage message = mock(BytesMessage.class);
+    when(message.getBodyLength()).thenReturn(11L);
+
+    new JmsPayloadReader(10).readBytes(message);
+  }
+
+  @Test
+  public void testReadStreamByChunks() throws Exception {
+    StreamMessage message = mock(StreamMessage.class);
+    // One byte array field of 10000 bytes (two chunks), then the end of the stream
+    when(message.readBytes(any(byte[].class))).thenReturn(8192, 1808).thenThrow(new MessageEOFException("end"));
+
+    Object payload = new JmsPayloadReader(20000).readStream(message);
+
+    assertEquals(10000, ((byte[]) payload).length);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReadStreamFields() throws Exception {
+    StreamMessage message = mock(StreamMessage.class);
+    when(message.readBytes(any(byte[].class))).thenThrow(new MessageFormatException("not bytes"), new MessageFormatException("not bytes"))
+            .thenThrow(new MessageEOFException("end"));
+    when(message.readObject()).thenReturn("a", 2);
+
+    Object payload = new JmsPayloadReader(10).readStream(message);
+
+    assertEquals(Arrays.<Object>asList("a", 2), (List<Object>) payload);
+  }
+
+  @Test
+  public void testReadMap() throws Exception {
+    MapMessage message = mock(MapMessage.class);
+    when(message.getMapNames()).thenReturn(Collections.enumeration(Arrays.asList("id", "rank")));
+    when(message.getObject("id")).thenReturn("id1");
+    when(message.getObject("rank")).thenReturn(2);
+
+    Map<String, Object> dataEntries = new HashMap<String, Object>();
+    new JmsPayloadReader(10).readMap(message, dataEntries, Collections.singletonMap("id", "Identifier"));
+
+    assertEquals(Collections.<String, Object>singletonMap("Identifier", "id1"), dataEntries);
+  }
+}
@@ -0,0 +1,37 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.io.ByteArrayInputStream;
+import javax.jms.BytesMessage;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Mocked JMS messages shared by the mapping tests
+ */
+final class MockMessages {
+
+  private MockMessages() {
+  }
+
+  /**
+   * Mock a BytesMessage whose body is read by chunks
+   * @param body body of the message
+   * @return BytesMessage mocked message
+   * @throws Exception never (mocked methods declare JMSException)
+   */
+  static BytesMessage mockBytesMessage(byte[] body) throws Exception {
+    final ByteArrayInputStream in = new ByteArrayInputStream(body);
+    BytesMessage message = mock(BytesMessage.class);
+    when(message.readBytes(any(byte[].class), anyInt())).thenAnswer(new Answer<Integer>() {
+      @Override
+      public Integer answer(InvocationOnMock invocation) {
+        byte[] buffer = (byte[]) invocation.getArguments()[0];
+        int length = (Integer) invocation.getArguments()[1];
+        return in.read(buffer, 0, length);
+      }
+    });
+    return message;
+  }
+}
@@ -0,0 +1,136 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ObjectToMapConverterCacheTest {
+
+  ObjectToMapConverterCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new ObjectToMapConverterCache();
+  }
+
+  @Test
+  public void testConvertNull() {
+    assertNull(cache.convert(null));
+  }
+
+  @Test
+  public void testConvertIsCachedByClass() {
+    Map<String, Object> first = cache.convert(new Customer("id1", 1));
+    Map<String, Object> second = cache.convert(new Customer("id2", 2));
+
+    assertEquals("id1", first.get("id"));
+    assertEquals("id2", second.get("id"));
+    assertEquals(1, cache.getSize());
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testConvertNestedObject() {
+    Order order = new Order();
+    order.setCustomer(new Customer("id1", 1));
+
+    Map<String, Object> converted = cache.convert(order);
+
+    assertTrue(converted.get("customer") instanceof Map);
+  }
+
+  @Test
+  public void testConvertNestedJdkValueKeptAsIs() {
+    Shipment shipment = new Shipment();
+    shipment.setReference(UUID.randomUUID());
+    shipment.setCustomer(new Customer("id1", 1));
+
+    Map<String, Object> converted = cache.convert(shipment);
+
+    assertEquals(shipment.getReference(), converted.get("reference"));
+    assertTrue(converted.get("customer") instanceof Map);
+    // No converter compiled for the UUID
+    assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void testEviction() {
+    cache.setMaximumSize(1);
+    cache.convert(new Customer("id1", 1));
+    cache.convert(new Order());
+
+    assertEquals(1, cache.getSize());
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongMaximumSize() {
+    cache.setMaximumSize(0);
+  }
+
+  public static class Customer {
+    private String id;
+    private int rank;
+
+    public Customer() {
+    }
+
+    public Customer(String id, int rank) {
+      this.id = id;
+      this.rank = rank;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public void setId(String id) {
+      this.id = id;
+    }
+
+    public int getRank() {
+      return rank;
+    }
+
+    public void setRank(int rank) {
+      this.rank = rank;
+    }
+  }
+
+  public static class Order {
+    private Customer customer;
+
+    public Customer getCustomer() {
+      return customer;
+    }
+
+    public void setCustomer(Customer customer) {
+      this.customer = customer;
+    }
+  }
+
+  public static class Shipment {
+    private UUID reference;
+    private Customer customer;
+
+    public UUID getReference() {
+      return reference;
+    }
+
+    public void setReference(UUID reference) {
+      this.reference = reference;
+    }
+
+    public Customer getCustomer() {
+      return customer;
+    }
+
+    public void setCustomer(Customer customer) {
+      this.customer = customer;
+    }
+  }
+}
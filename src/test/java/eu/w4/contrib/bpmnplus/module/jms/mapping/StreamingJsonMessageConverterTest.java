@@ -0,0 +1,52 @@
+package eu.w4.contrib.bpmnplus.module.jms.mapping;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import javax.jms.TextMessage;
+import org.junit.Test;
+import org.springframework.jms.support.converter.MessageConversionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StreamingJsonMessageConverterTest {
+
+  private static final String JSON = "{\"id\":\"id1\",\"rank\":2,\"tags\":[\"a\",\"b\"],\"customer\":{\"name\":\"Jane\"},\"ignored\":{\"deep\":[1,2,3]}}";
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testConvertAllEntries() throws Exception {
+    Map<String, Object> entries = (Map<String, Object>) new StreamingJsonMessageConverter().fromMessage(textMessage(JSON));
+
+    assertEquals("id1", entries.get("id"));
+    assertEquals(2, entries.get("rank"));
+    assertEquals(Arrays.asList("a", "b"), (List<Object>) entries.get("tags"));
+    assertEquals("Jane", ((Map<String, Object>) entries.get("customer")).get("name"));
+    assertEquals(5, entries.size());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testConvertMappedEntriesOnly() throws Exception {
+    StreamingJsonMessageConverter converter = new StreamingJsonMessageConverter(new HashSet<String>(Arrays.asList("id", "customer")));
+
+    Map<String, Object> entries = (Map<String, Object>) converter.fromMessage(textMessage(JSON));
+
+    assertEquals(2, entries.size());
+    assertTrue(entries.containsKey("id"));
+    assertTrue(entries.containsKey("customer"));
+  }
+
+  @Test(expected = MessageConversionException.class)
+  public void testNotAnObject() throws Exception {
+    new StreamingJsonMessageConverter().fromMessage(textMessage("[1,2]"));
+  }
+
+  private TextMessage textMessage(String text) throws Exception {
+    TextMessage message = mock(TextMessage.class);
+    when(message.getText()).thenReturn(text);
+    return message;
+  }
+}
@@ -0,0 +1,82 @@
+package eu.w4.contrib.bpmnplus.module.jms.metrics;
+
+import eu.w4.contrib.bpmnplus.module.jms.jmx.SetterBasedMBeanInfoAssembler;
+import eu.w4.contrib.bpmnplus.module.jms.listener.jmx.export.naming.JmsListenerContainerNamingStrategy;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jmx.export.MBeanExporter;
+
+import static org.junit.Assert.*;
+
+public class SignalVersionLatenciesTest {
+
+  private MBeanServer server;
+  private MBeanExporter exporter;
+
+  @Before
+  public void setUp() {
+    server = MBeanServerFactory.newMBeanServer();
+    Properties methodMappings = new Properties();
+    methodMappings.setProperty(SignalVersionLatencies.class.getName(), "reset");
+    SetterBasedMBeanInfoAssembler assembler = new SetterBasedMBeanInfoAssembler();
+    assembler.setMethodMappings(methodMappings);
+
+    exporter = new MBeanExporter();
+    exporter.setServer(server);
+    exporter.setNamingStrategy(new JmsListenerContainerNamingStrategy());
+    exporter.setAssembler(assembler);
+  }
+
+  @After
+  public void tearDown() {
+    exporter.destroy();
+    MBeanServerFactory.releaseMBeanServer(server);
+  }
+
+  @Test
+  public void testLatenciesPerVersion() {
+    SignalVersionLatencies latencies = new SignalVersionLatencies("queue1", null);
+    latencies.record("1", TimeUnit.MILLISECONDS.toNanos(10));
+    latencies.record("2", TimeUnit.MILLISECONDS.toNanos(10));
+    latencies.record("2", TimeUnit.MILLISECONDS.toNanos(30));
+
+    Map<String, String> versions = latencies.getLatencies();
+    assertEquals(2, versions.size());
+    assertEquals("count=1, mean=10ms, max=10ms", versions.get("1"));
+    assertEquals("count=2, mean=20ms, max=30ms", versions.get("2"));
+  }
+
+  @Test
+  public void testSignalVersionsRegisteredWithEndpointLatencies() {
+    EndpointMetrics metrics = new EndpointMetrics("queue1", "type = 'order'");
+    assertEquals(5, metrics.getManagedResources().size());
+
+    SignalVersionLatencies latencies = metrics.getSignalVersions();
+    assertSame(latencies, metrics.getSignalVersions());
+    assertTrue(metrics.getManagedResources().contains(latencies));
+  }
+
+  @Test
+  public void testExportedThroughJmx() throws Exception {
+    SignalVersionLatencies latencies = new SignalVersionLatencies("queue1", "type = 'order'");
+    latencies.record("3", TimeUnit.MILLISECONDS.toNanos(5));
+
+    ObjectName name = exporter.registerManagedResource(latencies);
+    assertEquals("SignalVersionLatencies", name.getKeyProperty("type"));
+    assertEquals("queue1", name.getKeyProperty("destination"));
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> exported = (Map<String, String>) server.getAttribute(name, "Latencies");
+    assertEquals("count=1, mean=5ms, max=5ms", exported.get("3"));
+
+    server.invoke(name, "reset", new Object[0], new String[0]);
+    assertTrue(latencies.getLatencies().isEmpty());
+  }
+}
@@ -0,0 +1,93 @@
+package eu.w4.contrib.bpmnplus.module.jms.reply;
+
+import eu.w4.contrib.bpmnplus.module.jms.metrics.StageLatency;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ReplySenderTest {
+
+  private final ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+  private final Session session = mock(Session.class);
+  private final MessageProducer producer = mock(MessageProducer.class);
+  private final TextMessage reply = mock(TextMessage.class);
+  private final Queue replyTo = mock(Queue.class);
+  private final StageLatency latency = new StageLatency("queue1", null, "reply");
+
+  private ReplySender replySender;
+
+  @Before
+  public void setUp() throws Exception {
+    Connection connection = mock(Connection.class);
+    when(connectionFactory.createConnection()).thenReturn(connection);
+    when(connection.createSession(anyBoolean(), anyInt())).thenReturn(session);
+    when(session.createProducer(replyTo)).thenReturn(producer);
+    when(session.createTextMessage(anyString())).thenReturn(reply);
+
+    replySender = new ReplySender();
+    replySender.setConnectionFactory(connectionFactory);
+  }
+
+  @Test
+  public void testReplyResult() throws Exception {
+    replySender.reply(replyTo, "ID:1", "instance1", null, System.nanoTime(), latency);
+    // Sends pending replies
+    replySender.destroy();
+
+    verify(session).createTextMessage("instance1");
+    verify(reply).setJMSCorrelationID("ID:1");
+    verify(reply, never()).setBooleanProperty(anyString(), anyBoolean());
+    verify(producer).send(reply);
+    assertEquals(1, latency.getCount());
+  }
+
+  @Test
+  public void testReplyError() throws Exception {
+    replySender.reply(replyTo, "ID:1", null, new IllegalArgumentException("Unknown signal"), System.nanoTime(), latency);
+    replySender.destroy();
+
+    verify(session).createTextMessage("Unknown signal");
+    verify(reply).setBooleanProperty(ReplySender.JMS_PROPERTY_ERROR, true);
+    verify(producer).send(reply);
+  }
+
+  @Test
+  public void testNoReplyDestination() throws Exception {
+    replySender.reply(null, "ID:1", "instance1", null, System.nanoTime(), latency);
+    replySender.destroy();
+
+    verifyZeroInteractions(connectionFactory);
+    assertEquals(0, replySender.getPendingReplies());
+  }
+
+  @Test
+  public void testReplyFailureRecorded() throws Exception {
+    when(connectionFactory.createConnection()).thenThrow(new JMSException("Broker down"));
+
+    replySender.reply(replyTo, "ID:1", "instance1", null, System.nanoTime(), latency);
+    replySender.destroy();
+
+    assertEquals(1, latency.getErrors());
+    assertEquals(0, latency.getCount());
+  }
+
+  @Test
+  public void testCorrelationId() throws Exception {
+    Message request = mock(Message.class);
+    when(request.getJMSMessageID()).thenReturn("ID:1");
+    assertEquals("ID:1", ReplySender.getCorrelationId(request));
+
+    when(request.getJMSCorrelationID()).thenReturn("C1");
+    assertEquals("C1", ReplySender.getCorrelationId(request));
+  }
+}
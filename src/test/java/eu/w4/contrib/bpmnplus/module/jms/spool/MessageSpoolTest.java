@@ -0,0 +1,77 @@
+package eu.w4.contrib.bpmnplus.module.jms.spool;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.jms.Queue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class MessageSpoolTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testFailedMessageMovedToDeadLetterLog() throws Exception {
+    File directory = folder.newFolder("spool");
+    MessageSpool spool = new MessageSpool("endpoint1", directory, 4096, false, 1000, 10);
+    spool.spool(Collections.<String, Object>singletonMap("type", "order"), null, new ReplyQueue("replies"), "C1");
+    assertEquals(1, spool.getPendingMessages());
+
+    final CountDownLatch deadLettered = new CountDownLatch(1);
+    final AtomicReference<MessageSpool.SpooledMessage> failed = new AtomicReference<MessageSpool.SpooledMessage>();
+    spool.start(new MessageSpool.Processor() {
+      @Override
+      public void process(MessageSpool.SpooledMessage message) {
+        throw new IllegalStateException("Process not found");
+      }
+
+      @Override
+      public void deadLettered(MessageSpool.SpooledMessage message, RuntimeException error) {
+        failed.set(message);
+        deadLettered.countDown();
+      }
+    });
+    assertTrue(deadLettered.await(5, TimeUnit.SECONDS));
+    assertEquals(1, spool.getDeadLetterMessages());
+    assertEquals(0, spool.getPendingMessages());
+    spool.close();
+
+    // Reply destination kept to send the error reply
+    assertEquals("replies", ((Queue) failed.get().getReplyTo()).getQueueName());
+    assertEquals("C1", failed.get().getCorrelationId());
+    assertEquals("order", failed.get().getProperties().get("type"));
+
+    // Dead-lettered messages are kept on the storage
+    assertTrue(new File(directory, "dead-letter").isDirectory());
+    MessageSpool reopened = new MessageSpool("endpoint1", directory, 4096, false, 1000, 10);
+    assertEquals(1, reopened.getDeadLetterMessages());
+    assertEquals(0, reopened.getPendingMessages());
+    reopened.close();
+  }
+
+  /**
+   * Serializable reply queue (like the destinations of most providers)
+   */
+  private static final class ReplyQueue implements Queue, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String queueName;
+
+    ReplyQueue(String queueName) {
+      this.queueName = queueName;
+    }
+
+    @Override
+    public String getQueueName() {
+      return queueName;
+    }
+  }
+}
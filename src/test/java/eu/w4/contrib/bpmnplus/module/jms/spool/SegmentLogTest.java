@@ -0,0 +1,100 @@
+package eu.w4.contrib.bpmnplus.module.jms.spool;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testAppendPeekCommit() throws Exception {
+    SegmentLog log = new SegmentLog(folder.getRoot(), 1024, false);
+    assertNull(log.peek());
+
+    log.append("first".getBytes("UTF-8"));
+    log.append("second".getBytes("UTF-8"));
+
+    assertEquals(2, log.getPendingRecords());
+    assertEquals("first", new String(log.peek(), "UTF-8"));
+    assertEquals("first", new String(log.peek(), "UTF-8"));
+    log.commit();
+    assertEquals("second", new String(log.peek(), "UTF-8"));
+    log.commit();
+    assertNull(log.peek());
+    assertEquals(0, log.getPendingRecords());
+    log.close();
+  }
+
+  @Test
+  public void testRecovery() throws Exception {
+    SegmentLog log = new SegmentLog(folder.getRoot(), 1024, true);
+    log.append("first".getBytes("UTF-8"));
+    log.append("second".getBytes("UTF-8"));
+    log.commit();
+    log.close();
+
+    SegmentLog recovered = new SegmentLog(folder.getRoot(), 1024, true);
+    assertEquals(1, recovered.getPendingRecords());
+    assertEquals("second", new String(recovered.peek(), "UTF-8"));
+
+    recovered.append("third".getBytes("UTF-8"));
+    recovered.commit();
+    assertEquals("third", new String(recovered.peek(), "UTF-8"));
+    recovered.close();
+  }
+
+  @Test
+  public void testConsumedSegmentsAreDeleted() throws Exception {
+    SegmentLog log = new SegmentLog(folder.getRoot(), 64, false);
+    for (int i = 0; i < 6; i++) {
+      log.append(new byte[20]);
+    }
+    assertTrue(folder.getRoot().listFiles().length > 1);
+
+    for (int i = 0; i < 6; i++) {
+      log.commit();
+    }
+    assertEquals(1, folder.getRoot().listFiles().length);
+    log.close();
+  }
+
+  @Test
+  public void testCorruptedRecordIsIgnored() throws Exception {
+    SegmentLog log = new SegmentLog(folder.getRoot(), 1024, true);
+    log.append("first".getBytes("UTF-8"));
+    log.append("second".getBytes("UTF-8"));
+    log.close();
+
+    // Alter the data of the second record (segment header 16, record header 8)
+    File segment = folder.getRoot().listFiles()[0];
+    RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+    try {
+      raf.seek(16 + 8 + 5 + 8);
+      raf.write('X');
+    } finally {
+      raf.close();
+    }
+
+    SegmentLog recovered = new SegmentLog(folder.getRoot(), 1024, true);
+    assertEquals(1, recovered.getPendingRecords());
+    assertEquals("first", new String(recovered.peek(), "UTF-8"));
+    recovered.close();
+  }
+
+  @Test(expected = java.io.IOException.class)
+  public void testRecordTooLarge() throws Exception {
+    SegmentLog log = new SegmentLog(folder.getRoot(), 64, false);
+    try {
+      log.append(new byte[64]);
+    } finally {
+      log.close();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package eu.w4.contrib.bpmnplus.module.jms.startup;
+
+import eu.w4.contrib.bpmnplus.module.jms.identification.ConnectionManager;
+import eu.w4.engine.client.service.EngineService;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.listener.MessageListenerContainer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StartupCoordinatorTest {
+
+  JmsListenerEndpointRegistry endpointRegistry;
+  StartupCoordinator coordinator;
+  MessageListenerContainer container1;
+  MessageListenerContainer released;
+  MessageListenerContainer reloaded;
+
+  @Before
+  public void setUp() {
+    endpointRegistry = mock(JmsListenerEndpointRegistry.class);
+    container1 = mock(MessageListenerContainer.class);
+    released = mock(MessageListenerContainer.class);
+    reloaded = mock(MessageListenerContainer.class);
+    when(endpointRegistry.getListenerContainer("endpoint1")).thenReturn(container1);
+    when(endpointRegistry.getListenerContainer("endpoint2")).thenReturn(released);
+    when(endpointRegistry.getListenerContainer("endpoint2#1")).thenReturn(reloaded);
+
+    coordinator = new StartupCoordinator(mock(EngineService.class), mock(ConnectionManager.class), endpointRegistry);
+    coordinator.setDelay(0);
+  }
+
+  @Test
+  public void testOnlyConfiguredContainersStarted() throws Exception {
+    coordinator.register("endpoint1");
+    coordinator.register("endpoint2");
+    // Reloaded before the consumption starts : the released container stays in the registry
+    coordinator.release("endpoint2");
+    coordinator.register("endpoint2#1");
+    verify(reloaded, never()).start();
+
+    coordinator.startConsumption();
+
+    verify(container1).start();
+    verify(reloaded).start();
+    verify(released, never()).start();
+    assertEquals(Arrays.asList(container1, reloaded), coordinator.getListenerContainers());
+  }
+
+  @Test
+  public void testContainerRegisteredOnceStartedIsStarted() throws Exception {
+    coordinator.register("endpoint1");
+    coordinator.startConsumption();
+    coordinator.release("endpoint1");
+    coordinator.register("endpoint2#1");
+
+    verify(reloaded).start();
+
+    coordinator.stopConsumption();
+    verify(reloaded).stop();
+    verify(container1, never()).stop();
+  }
+}